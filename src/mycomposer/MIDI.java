@@ -4,6 +4,7 @@ import java.io.File;
 import java.io.IOException;
 import java.util.List;
 import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MetaMessage;
 import javax.sound.midi.MidiEvent;
 import javax.sound.midi.MidiSystem;
 import javax.sound.midi.MidiUnavailableException;
@@ -11,9 +12,12 @@ import javax.sound.midi.Sequence;
 import javax.sound.midi.Sequencer;
 import javax.sound.midi.ShortMessage;
 import javax.sound.midi.Track;
-import mycomposer.model.Layer;
+import mycomposer.model.LayerSnapshot;
+import mycomposer.model.Pattern;
+import mycomposer.model.PatternInstance;
 import mycomposer.model.Song;
-import mycomposer.model.unit.Unit;
+import mycomposer.model.SongSnapshot;
+import mycomposer.model.unit.UnitCodec;
 
 /**
  * Contains methods for managing the MIDI files and songs. These methods allow the user to save a
@@ -21,9 +25,11 @@ import mycomposer.model.unit.Unit;
  */
 public final class MIDI {
 
-  public static final int MAX_BEATS = 10000;
+  public static final int MAX_BEATS = Integer.MAX_VALUE;
   public static final int EXTRA_BEATS = 32;
 
+  private static final long MAX_TICK_GAP = 0x0FFFFFFF;
+
   /**
    * Writes and saves a .midi file representing the given song at the given file path. If the given
    * song is empty, nothing is written or saved.
@@ -33,6 +39,18 @@ public final class MIDI {
    * @throws IllegalStateException if the MIDI file write fails for any reason
    */
   public static void writeMIDIFile(Song song, File file) throws IllegalStateException {
+    writeMIDIFile(song.snapshot(), file);
+  }
+
+  /**
+   * Writes and saves a .midi file representing the given song snapshot at the given file path. If
+   * the given song is empty, nothing is written or saved. This can be called from any thread.
+   *
+   * @param song the snapshot of the song to write and save
+   * @param file the file to write the MIDI data to
+   * @throws IllegalStateException if the MIDI file write fails for any reason
+   */
+  public static void writeMIDIFile(SongSnapshot song, File file) throws IllegalStateException {
     Sequence sequence = loadSong(song);
 
     if (song.getFinalBeat() > 0) {
@@ -54,6 +72,20 @@ public final class MIDI {
    */
   public static Sequence loadSong(Song song)
       throws IllegalArgumentException, IllegalStateException {
+    return loadSong(song.snapshot());
+  }
+
+  /**
+   * Generates a MIDI sequence representing the given song snapshot. This can be called from any
+   * thread.
+   *
+   * @param song the snapshot of the song to create a MIDI sequence for
+   * @return a MIDI sequence representing the given song
+   * @throws IllegalArgumentException if invalid MIDI data is encountered
+   * @throws IllegalStateException    if the MIDI component is unavailable
+   */
+  public static Sequence loadSong(SongSnapshot song)
+      throws IllegalArgumentException, IllegalStateException {
     try {
       Sequencer sequencer = MidiSystem.getSequencer();
       sequencer.setTempoInBPM(song.getTempo());
@@ -62,31 +94,35 @@ public final class MIDI {
       try {
         Sequence sequence = new Sequence(Sequence.PPQ, 8);
 
-        List<Layer> layers = song.getLayers();
+        for (LayerSnapshot layer : song.getLayers()) {
+          List<PatternInstance> instances = layer.getPatternInstances();
 
-        for (Layer layer : layers) {
-          if (!layer.getUnits().isEmpty()) {
+          if (layer.getUnitCount() > 0 || !instances.isEmpty()) {
             Track track = sequence.createTrack();
-            List<Unit> units = layer.getUnits();
-
-            for (Unit unit : units) {
-              ShortMessage startMessage = new ShortMessage();
-              ShortMessage endMessage = new ShortMessage();
-
-              if (unit.isDrum()) {
-                startMessage.setMessage(144, 9, unit.getInstrument() + 1, layer.getVolume());
-                endMessage.setMessage(128, 9, unit.getInstrument() + 1, layer.getVolume());
-              } else {
-                ShortMessage instrumentChange = new ShortMessage();
-                instrumentChange.setMessage(192, 1, unit.getInstrument(), 0);
-                track.add(new MidiEvent(instrumentChange, unit.getStartBeat()));
-
-                startMessage.setMessage(144, 1, unit.getMIDINumber(), layer.getVolume());
-                endMessage.setMessage(128, 1, unit.getMIDINumber(), layer.getVolume());
+            int volume = layer.getVolume();
+            int instanceIndex = 0;
+
+            // units and pattern instances never overlap, so adding them in order of start beat
+            // keeps every event in order without storing the units the instances play
+            for (int i = 0; i < layer.getUnitCount(); i++) {
+              long unit = layer.getEncodedUnit(i);
+
+              while (instanceIndex < instances.size() && instances.get(instanceIndex)
+                  .getStartBeat() < UnitCodec.getStartBeat(unit)) {
+                addInstance(track, instances.get(instanceIndex++), volume);
               }
 
-              track.add(new MidiEvent(startMessage, unit.getStartBeat()));
-              track.add(new MidiEvent(endMessage, (unit.getEndBeat()) + 1));
+              addUnit(track, unit, volume);
+            }
+
+            while (instanceIndex < instances.size()) {
+              addInstance(track, instances.get(instanceIndex++), volume);
+            }
+
+            // MIDI files can only store gaps of up to 2^28 - 1 ticks between events, so very long
+            // silences are broken up with empty text events
+            for (long tick = MAX_TICK_GAP; tick < track.ticks(); tick += MAX_TICK_GAP) {
+              track.add(new MidiEvent(new MetaMessage(1, new byte[0], 0), tick));
             }
           }
         }
@@ -103,4 +139,61 @@ public final class MIDI {
       throw new IllegalStateException("MIDI component is unavailable");
     }
   }
+
+  /**
+   * Adds the MIDI events for each unit played by the given pattern instance to the given track, in
+   * order of start beat.
+   *
+   * @param track    the track to add the events to
+   * @param instance the pattern instance to add
+   * @param volume   the volume to play the units at
+   * @throws InvalidMidiDataException if invalid MIDI data is encountered
+   */
+  private static void addInstance(Track track, PatternInstance instance, int volume)
+      throws InvalidMidiDataException {
+    Pattern pattern = instance.getPattern();
+
+    for (int repeat = 0; repeat < instance.getRepeats(); repeat++) {
+      int offset = instance.getStartBeat() + repeat * pattern.getLength();
+
+      for (int i = 0; i < pattern.getUnitCount(); i++) {
+        long unit = pattern.getEncodedUnit(i);
+
+        addUnit(track, UnitCodec.withStartEnd(unit, UnitCodec.getStartBeat(unit) + offset,
+            UnitCodec.getEndBeat(unit) + offset), volume);
+      }
+    }
+  }
+
+  /**
+   * Adds the MIDI events to start and stop the given encoded unit to the given track.
+   *
+   * @param track  the track to add the events to
+   * @param unit   the encoded unit to add
+   * @param volume the volume to play the unit at
+   * @throws InvalidMidiDataException if invalid MIDI data is encountered
+   */
+  private static void addUnit(Track track, long unit, int volume)
+      throws InvalidMidiDataException {
+    ShortMessage startMessage = new ShortMessage();
+    ShortMessage endMessage = new ShortMessage();
+
+    int instrument = UnitCodec.getInstrument(unit);
+
+    if (UnitCodec.isDrum(unit)) {
+      startMessage.setMessage(144, 9, instrument + 1, volume);
+      endMessage.setMessage(128, 9, instrument + 1, volume);
+    } else {
+      ShortMessage instrumentChange = new ShortMessage();
+      instrumentChange.setMessage(192, 1, instrument, 0);
+      track.add(new MidiEvent(instrumentChange, UnitCodec.getStartBeat(unit)));
+
+      int midiNumber = UnitCodec.getMIDINumber(unit);
+      startMessage.setMessage(144, 1, midiNumber, volume);
+      endMessage.setMessage(128, 1, midiNumber, volume);
+    }
+
+    track.add(new MidiEvent(startMessage, UnitCodec.getStartBeat(unit)));
+    track.add(new MidiEvent(endMessage, UnitCodec.getEndBeat(unit) + 1L));
+  }
 }
@@ -1,6 +1,5 @@
 package mycomposer;
 
-import java.util.List;
 import javafx.beans.property.BooleanProperty;
 import javafx.beans.property.DoubleProperty;
 import javafx.beans.property.SimpleBooleanProperty;
@@ -12,7 +11,6 @@ import javax.sound.midi.MidiUnavailableException;
 import javax.sound.midi.Sequence;
 import javax.sound.midi.Sequencer;
 import javax.sound.midi.Synthesizer;
-import mycomposer.model.Layer;
 import mycomposer.model.Song;
 import mycomposer.model.unit.Unit;
 
@@ -81,10 +79,8 @@ public final class Player {
       Sequence sequence = MIDI.loadSong(song);
       sequencer.setSequence(sequence);
 
-      List<Layer> layerList = song.getLayers();
-
-      for (int i = 0; i < layerList.size(); i++) {
-        sequencer.setTrackMute(i, layerList.get(i).isMute());
+      for (int i = 0; i < song.getLayerCount(); i++) {
+        sequencer.setTrackMute(i, song.getLayer(i).isMute());
       }
 
       sequencer.setTickPosition(BEAT);
@@ -1,9 +1,13 @@
 package mycomposer;
 
+import java.util.HashMap;
 import java.util.InputMismatchException;
+import java.util.Map;
 import java.util.Scanner;
 import mycomposer.model.Layer;
 import mycomposer.model.LayerColor;
+import mycomposer.model.Pattern;
+import mycomposer.model.PatternInstance;
 import mycomposer.model.Song;
 import mycomposer.model.SongImpl;
 import mycomposer.model.unit.Drum;
@@ -19,6 +23,9 @@ public final class SongReader {
 
   private static int layerNum;
   private static Song song;
+  private static Map<Integer, Pattern> patterns;
+  private static Pattern pattern;
+  private static int patternId;
 
   /**
    * Generates a song from a properly formatted song input source.
@@ -35,6 +42,8 @@ public final class SongReader {
 
     song = new SongImpl();
     layerNum = -1;
+    patterns = new HashMap<>();
+    pattern = null;
 
     while (scan.hasNext()) {
       switch (scan.next()) {
@@ -48,8 +57,19 @@ public final class SongReader {
           readLayer(scan, false);
           break;
         case "--------------------------":
-          scan.nextLine();
-          scan.nextLine();
+          // the name of the layer is skipped as a whole line, so it is never read as a keyword
+          for (int i = 0; i < 2; i++) {
+            if (!scan.hasNextLine()) {
+              throw new IllegalStateException("Expected layer name, no layer name available");
+            }
+
+            scan.nextLine();
+          }
+
+          if (scan.hasNextLine()) {
+            scan.nextLine();
+          }
+
           layerNum++;
           break;
         case "note":
@@ -58,11 +78,29 @@ public final class SongReader {
         case "drum":
           readUnit(scan, false);
           break;
+        case "pattern":
+          readPattern(scan);
+          break;
+        case "endpattern":
+          if (pattern == null) {
+            throw new IllegalStateException("Unexpected end of pattern");
+          }
+
+          patterns.put(patternId, pattern);
+          pattern = null;
+          break;
+        case "instance":
+          readInstance(scan);
+          break;
         default:
           scan.nextLine();
       }
     }
 
+    if (pattern != null) {
+      throw new IllegalStateException("Unterminated pattern");
+    }
+
     scan.close();
     return song;
   }
@@ -117,7 +155,84 @@ public final class SongReader {
   }
 
   /**
-   * Generates a unit specified by the input and adds it to the song in the current layer.
+   * Starts a new pattern specified by the input. Units read until the end of the pattern are added
+   * to the pattern instead of the current layer.
+   *
+   * @param scan a scanner containing the input source of the song
+   * @throws IllegalStateException    if there is unexpected input in the input source
+   * @throws IllegalArgumentException if the pattern generated from the input is invalid
+   */
+  private static void readPattern(Scanner scan)
+      throws IllegalStateException, IllegalArgumentException {
+    // Format:
+    //         number length name
+    // pattern 0      16     Basic beat
+
+    int number;
+    int length;
+
+    if (pattern != null) {
+      throw new IllegalStateException("Unexpected start of pattern inside pattern");
+    }
+
+    try {
+      number = scan.nextInt();
+      length = scan.nextInt();
+    } catch (InputMismatchException ime) {
+      throw new IllegalStateException("Invalid property");
+    }
+
+    if (patterns.containsKey(number)) {
+      throw new IllegalStateException("Pattern number " + number + " is used more than once");
+    }
+
+    if (!scan.hasNextLine()) {
+      throw new IllegalStateException("Expected pattern name, no pattern name available");
+    }
+
+    pattern = new Pattern(scan.nextLine().trim(), length);
+    patternId = number;
+  }
+
+  /**
+   * Generates a pattern instance specified by the input and adds it to the song in the current
+   * layer. Patterns are found by the number they were written with rather than by name, since
+   * different patterns can share a name.
+   *
+   * @param scan a scanner containing the input source of the song
+   * @throws IllegalStateException    if there is unexpected input in the input source
+   * @throws IllegalArgumentException if the pattern instance generated from the input is invalid
+   */
+  private static void readInstance(Scanner scan)
+      throws IllegalStateException, IllegalArgumentException {
+    // Format:
+    //          start repeats pattern number
+    // instance 64    100     0
+
+    int start;
+    int repeats;
+    int number;
+
+    try {
+      start = scan.nextInt();
+      repeats = scan.nextInt();
+      number = scan.nextInt();
+    } catch (InputMismatchException ime) {
+      throw new IllegalStateException("Invalid property");
+    }
+
+    if (!patterns.containsKey(number)) {
+      throw new IllegalStateException("Expected pattern, no pattern numbered " + number
+          + " available");
+    }
+
+    song.getLayer(layerNum).addPatternInstance(new PatternInstance(patterns.get(number), start,
+        repeats));
+  }
+
+  /**
+   * Generates a unit specified by the input and adds it to the song in the current layer, or to
+   * the current pattern if one is being read.
    *
    * @param scan a scanner containing the input source of the song
    * @param note true if the unit to read is a note, false if the unit to read is a drum beat
@@ -181,8 +296,7 @@ public final class SongReader {
     //      start end instrument pitch octave
     // note 0     2   30         D     3
 
-    Unit note = new Note(start, end, instrument, pitch, octave);
-    song.getLayers().get(layerNum).addUnit(note);
+    addUnit(new Note(start, end, instrument, pitch, octave));
   }
 
   /**
@@ -200,7 +314,21 @@ public final class SongReader {
     //      start end instrument
     // drum 1     2   48
 
-    Unit drum = new Drum(start, end, instrument);
-    song.getLayers().get(layerNum).addUnit(drum);
+    addUnit(new Drum(start, end, instrument));
+  }
+
+  /**
+   * Adds the given unit to the current pattern if one is being read, or otherwise to the current
+   * layer.
+   *
+   * @param unit the unit to add
+   * @throws IllegalArgumentException if the unit cannot be added
+   */
+  private static void addUnit(Unit unit) throws IllegalArgumentException {
+    if (pattern != null) {
+      pattern = pattern.withUnit(unit);
+    } else {
+      song.getLayer(layerNum).addUnit(unit);
+    }
   }
 }
@@ -0,0 +1,33 @@
+package mycomposer.model;
+
+import java.util.List;
+
+/**
+ * Thrown when a batch of changes cannot be applied to a layer or song. Lists every conflict found
+ * in the batch, not just the first.
+ */
+public class BatchConflictException extends IllegalArgumentException {
+
+  private static final long serialVersionUID = 1L;
+
+  private final List<String> conflicts;
+
+  /**
+   * Creates an exception listing the given conflicts.
+   *
+   * @param conflicts descriptions of each conflict in the batch
+   */
+  public BatchConflictException(List<String> conflicts) {
+    super("Batch cannot be applied: " + String.join(" ", conflicts));
+    this.conflicts = List.copyOf(conflicts);
+  }
+
+  /**
+   * Gets a description of each conflict in the batch.
+   *
+   * @return the conflicts in the batch
+   */
+  public List<String> getConflicts() {
+    return this.conflicts;
+  }
+}
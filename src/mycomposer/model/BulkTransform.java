@@ -0,0 +1,230 @@
+package mycomposer.model;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import mycomposer.MIDI;
+import mycomposer.model.unit.Pitch;
+import mycomposer.model.unit.Unit;
+import mycomposer.model.unit.UnitCodec;
+
+/**
+ * Contains methods for transforming every unit in a selection of layers and beats at once, along
+ * with the common transforms: transposing, shifting, stretching, and changing instruments.
+ * Transforms can be combined with {@link UnitTransform#andThen(UnitTransform)}.
+ *
+ * <p>Each layer is transformed as its own task on the common fork/join pool, so large selections
+ * across many layers are transformed in parallel. The results are then applied to the song as a
+ * single batch, which checks every layer for overlaps in one sweep each before changing anything
+ * (see {@link Song#applyBatch(SongBatch)}), so either every unit is transformed or none are.
+ */
+public final class BulkTransform {
+
+  private static final Pitch[] SHARPS = {Pitch.C, Pitch.Cs, Pitch.D, Pitch.Ds, Pitch.E, Pitch.F,
+      Pitch.Fs, Pitch.G, Pitch.Gs, Pitch.A, Pitch.As, Pitch.B};
+  private static final Pitch[] FLATS = {Pitch.C, Pitch.Db, Pitch.D, Pitch.Eb, Pitch.E, Pitch.F,
+      Pitch.Gb, Pitch.G, Pitch.Ab, Pitch.A, Pitch.Bb, Pitch.B};
+
+  /**
+   * Transforms every unit in the given layers which starts within the given range of beats. Units
+   * played by pattern instances are not changed. Units which are only moved stay the same unit
+   * objects, while units with any other change are replaced by new units with the same IDs.
+   *
+   * @param song      the song the layers are in
+   * @param layers    the layers to transform
+   * @param startBeat the first beat of the range
+   * @param endBeat   the last beat of the range
+   * @param transform the transform to make to each unit
+   * @throws IllegalArgumentException if the given end beat is before the given start beat
+   * @throws BatchConflictException   if the transform cannot be made to any of the units, or the
+   *                                  transformed units would overlap each other, other units, or
+   *                                  pattern instances, in which case the song is not changed
+   */
+  public static void apply(Song song, Collection<Layer> layers, int startBeat, int endBeat,
+      UnitTransform transform) throws IllegalArgumentException, BatchConflictException {
+    if (endBeat < startBeat) {
+      throw new IllegalArgumentException("End beat cannot be before start beat.");
+    }
+
+    // each layer batch is filled in by a single task, so every layer may only be given once
+    List<Layer> selected = new ArrayList<>(new LinkedHashSet<>(layers));
+    SongBatch batch = new SongBatch();
+    List<LayerBatch> layerBatches = new ArrayList<>(selected.size());
+
+    for (Layer layer : selected) {
+      layerBatches.add(batch.forLayer(layer));
+    }
+
+    List<String> conflicts = IntStream.range(0, selected.size()).parallel()
+        .mapToObj(i -> transformLayer(selected.get(i), layerBatches.get(i), startBeat, endBeat,
+            transform))
+        .flatMap(List::stream)
+        .collect(Collectors.toList());
+
+    if (!conflicts.isEmpty()) {
+      throw new BatchConflictException(conflicts);
+    }
+
+    song.applyBatch(batch);
+  }
+
+  /**
+   * Transforms every unit in the given layer which starts within the given range of beats, adding
+   * the changes to the given batch.
+   *
+   * @param layer      the layer to transform
+   * @param layerBatch the batch to add the changes to
+   * @param startBeat  the first beat of the range
+   * @param endBeat    the last beat of the range
+   * @param transform  the transform to make to each unit
+   * @return a description of each unit which could not be transformed
+   */
+  private static List<String> transformLayer(Layer layer, LayerBatch layerBatch, int startBeat,
+      int endBeat, UnitTransform transform) {
+    List<String> conflicts = new ArrayList<>();
+
+    for (Unit unit : layer.unitsInRange(startBeat, endBeat)) {
+      if (unit.getStartBeat() < startBeat || !layer.containsUnit(unit.getId())) {
+        continue;
+      }
+
+      long encoded = UnitCodec.encode(unit);
+
+      try {
+        long transformed = transform.apply(encoded);
+
+        if (transformed == encoded) {
+          continue;
+        }
+
+        int newStart = UnitCodec.getStartBeat(transformed);
+        int newEnd = UnitCodec.getEndBeat(transformed);
+
+        if (transformed == UnitCodec.withStartEnd(encoded, newStart, newEnd)) {
+          layerBatch.moveUnit(unit, newStart, newEnd);
+        } else {
+          layerBatch.removeUnit(unit);
+          layerBatch.addUnit(UnitCodec.decode(transformed, unit.getId()));
+        }
+      } catch (IllegalArgumentException e) {
+        conflicts.add(String.format("Unit at beats %d-%d in layer %s cannot be transformed: %s",
+            unit.getStartBeat(), unit.getEndBeat(), layer.getName(), e.getMessage()));
+      }
+    }
+
+    return conflicts;
+  }
+
+  /**
+   * Returns a transform which raises or lowers the pitch of notes by the given number of
+   * semitones. Drum beats are not changed. Sharps stay sharps and flats stay flats.
+   *
+   * @param semitones the number of semitones to move notes by, where negative numbers lower them
+   * @return the transform
+   */
+  public static UnitTransform transpose(int semitones) {
+    return encoded -> {
+      if (UnitCodec.isDrum(encoded)) {
+        return encoded;
+      }
+
+      int number = UnitCodec.getMIDINumber(encoded) + semitones;
+      int octave = Math.floorDiv(number, 12) - 1;
+
+      if (octave < -1 || octave > 7) {
+        throw new IllegalArgumentException("Octave must be from -1 through 7 inclusive.");
+      }
+
+      Pitch pitch = UnitCodec.getPitch(encoded);
+      Pitch[] spelling = pitch.getName().endsWith("♭") ? FLATS : SHARPS;
+
+      return UnitCodec.encode(UnitCodec.getStartBeat(encoded), UnitCodec.getEndBeat(encoded),
+          UnitCodec.getInstrument(encoded), spelling[Math.floorMod(number, 12)], octave);
+    };
+  }
+
+  /**
+   * Returns a transform which moves units later or earlier by the given number of beats.
+   *
+   * @param beats the number of beats to move units by, where negative numbers move them earlier
+   * @return the transform
+   */
+  public static UnitTransform shift(int beats) {
+    return encoded -> {
+      long startBeat = (long) UnitCodec.getStartBeat(encoded) + beats;
+      long endBeat = (long) UnitCodec.getEndBeat(encoded) + beats;
+
+      if (endBeat > MIDI.MAX_BEATS) {
+        throw new IllegalArgumentException("Units cannot end after the maximum song length.");
+      }
+
+      return UnitCodec.withStartEnd(encoded, (int) startBeat, (int) endBeat);
+    };
+  }
+
+  /**
+   * Returns a transform which scales the position and length of units by the given ratio, measured
+   * from the given beat. For example, a ratio of 2/1 doubles the length of every unit along with
+   * the space between them, so units which did not overlap before still do not. Scaled lengths are
+   * rounded down, but never below 1 beat.
+   *
+   * @param anchor      the beat which stays in place
+   * @param numerator   the numerator of the ratio
+   * @param denominator the denominator of the ratio
+   * @return the transform
+   * @throws IllegalArgumentException if the numerator or denominator is not positive
+   */
+  public static UnitTransform stretch(int anchor, int numerator, int denominator)
+      throws IllegalArgumentException {
+    if (numerator < 1 || denominator < 1) {
+      throw new IllegalArgumentException("Stretch ratio must be positive.");
+    }
+
+    return encoded -> {
+      long startBeat = anchor
+          + Math.floorDiv(((long) UnitCodec.getStartBeat(encoded) - anchor) * numerator,
+              denominator);
+      long endBeat = anchor - 1
+          + Math.floorDiv(((long) UnitCodec.getEndBeat(encoded) + 1 - anchor) * numerator,
+              denominator);
+
+      if (startBeat < 0) {
+        throw new IllegalArgumentException("Units cannot start before the first beat.");
+      }
+
+      if (endBeat > MIDI.MAX_BEATS) {
+        throw new IllegalArgumentException("Units cannot end after the maximum song length.");
+      }
+
+      return UnitCodec.withStartEnd(encoded, (int) startBeat, (int) Math.max(startBeat, endBeat));
+    };
+  }
+
+  /**
+   * Returns a transform which changes the instrument of every note played by the given instrument
+   * to the other given instrument. Drum beats are not changed, since their instrument picks the
+   * drum sound rather than the instrument.
+   *
+   * @param from the MIDI index of the instrument to change
+   * @param to   the MIDI index of the instrument to change it to
+   * @return the transform
+   * @throws IllegalArgumentException if the new instrument is less than 0 or greater than 127
+   */
+  public static UnitTransform changeInstrument(int from, int to) throws IllegalArgumentException {
+    if (to < 0 || to > 127) {
+      throw new IllegalArgumentException("Instrument MIDI index must be from 0-127 inclusive.");
+    }
+
+    return encoded -> {
+      if (UnitCodec.isDrum(encoded) || UnitCodec.getInstrument(encoded) != from) {
+        return encoded;
+      }
+
+      return UnitCodec.encode(UnitCodec.getStartBeat(encoded), UnitCodec.getEndBeat(encoded), to,
+          UnitCodec.getPitch(encoded), UnitCodec.getOctave(encoded));
+    };
+  }
+}
@@ -0,0 +1,438 @@
+package mycomposer.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import mycomposer.MIDI;
+import mycomposer.model.unit.UnitCodec;
+
+/**
+ * Indexes the units and pattern instances of every layer in a song by the beats they take up, so
+ * that what is sounding at a beat, where that changes in a range of beats, or where there is room
+ * for something new can be found without looking at every layer.
+ *
+ * <p>Each unit and each pattern instance is stored as a span of beats in a {@link SpanTree}. The
+ * spans over a beat are found in logarithmic time plus the time to report each span, and no layer
+ * without a span over the beat is looked at. Since nothing in a layer overlaps anything else in
+ * that layer, at most one span per layer is found.
+ *
+ * <p>The free beats between those spans are kept as spans in a second tree, and in a sorted map
+ * per layer so that the free spans on either side of a change can be found. Every free span of
+ * every layer is in the one tree, so the earliest room for a run of beats across the whole song is
+ * found in logarithmic time (see {@link #findFreeSlot(int, int)}).
+ *
+ * <p>The beats at which units start, and the beats right after they end, are also counted in a
+ * sorted map, so the change points in a range are read straight off the map. Units played by
+ * pattern instances are worked out from their patterns only for the instances in the range.
+ *
+ * <p>The index is kept up to date from the events sent by the layers of the song, which record
+ * every unit and pattern instance taken out of or put into a layer, so each edit costs logarithmic
+ * time per unit it changes. This class is not thread safe. Songs guard it with their own lock.
+ */
+final class ColumnIndex {
+
+  private final Map<Layer, Integer> serials;
+  private final Map<Layer, Integer> positions;
+  private final NavigableMap<Integer, Integer> boundaries;
+  private final SpanTree taken;
+  private final SpanTree free;
+  private final Map<Layer, NavigableMap<Integer, Integer>> freeSpans;
+  private int nextSerial;
+
+  /**
+   * Creates an index for a song with no layers.
+   */
+  ColumnIndex() {
+    this.serials = new IdentityHashMap<>();
+    this.positions = new IdentityHashMap<>();
+    this.boundaries = new TreeMap<>();
+    this.taken = new SpanTree();
+    this.free = new SpanTree();
+    this.freeSpans = new IdentityHashMap<>();
+    this.nextSerial = 0;
+  }
+
+  /**
+   * Adds every unit and pattern instance in the given layer, which has just been added to the
+   * song.
+   *
+   * @param layer the layer added
+   */
+  void addLayer(Layer layer) {
+    this.serials.put(layer, this.nextSerial);
+    this.freeSpans.put(layer, new TreeMap<>());
+    this.addFree(layer, this.nextSerial++, 0, MIDI.MAX_BEATS);
+
+    layer.forEachEncodedUnit(unit -> this.addUnit(layer, unit));
+
+    for (PatternInstance instance : layer.getPatternInstances()) {
+      this.addInstance(layer, instance);
+    }
+  }
+
+  /**
+   * Removes every unit and pattern instance in the given layer, which has just been removed from
+   * the song.
+   *
+   * @param layer the layer removed
+   */
+  void removeLayer(Layer layer) {
+    if (!this.serials.containsKey(layer)) {
+      return;
+    }
+
+    layer.forEachEncodedUnit(unit -> this.removeUnit(layer, unit));
+
+    for (PatternInstance instance : layer.getPatternInstances()) {
+      this.removeSpan(layer, instance.getStartBeat(), instance.getEndBeat());
+    }
+
+    this.removeFree(layer, this.serials.remove(layer), 0);
+    this.freeSpans.remove(layer);
+  }
+
+  /**
+   * Records the order of the layers in the song, which spans found at a beat are reported in.
+   *
+   * @param layers the layers of the song, in order
+   */
+  void setOrder(List<Layer> layers) {
+    this.positions.clear();
+
+    for (int i = 0; i < layers.size(); i++) {
+      this.positions.putIfAbsent(layers.get(i), i);
+    }
+  }
+
+  /**
+   * Updates the index for the units and pattern instances the given change to a layer took out or
+   * put in. Everything taken out by the change is removed before anything put in is added, since a
+   * batch may put something where something it took out used to be.
+   *
+   * @param event the change made to a layer
+   */
+  void update(SongEvent event) {
+    this.update(event, true);
+    this.update(event, false);
+  }
+
+  /**
+   * Removes everything the given change took out, or adds everything it put in.
+   *
+   * @param event    the change made to a layer
+   * @param removing whether to remove what was taken out rather than add what was put in
+   */
+  private void update(SongEvent event, boolean removing) {
+    if (event.getParts() != null) {
+      for (SongEvent part : event.getParts()) {
+        this.update(part, removing);
+      }
+      return;
+    }
+
+    Layer layer = event.getLayer();
+    Object changed = removing ? event.getBefore() : event.getAfter();
+
+    if (layer == null || !this.serials.containsKey(layer)) {
+      return;
+    }
+
+    if (changed instanceof long[]) {
+      long[] units = (long[]) changed;
+
+      for (int i = 1; i < units.length; i += 2) {
+        if (removing) {
+          this.removeUnit(layer, units[i]);
+        } else {
+          this.addUnit(layer, units[i]);
+        }
+      }
+    } else if (changed instanceof PatternInstance[]) {
+      for (PatternInstance instance : (PatternInstance[]) changed) {
+        if (removing) {
+          this.removeSpan(layer, instance.getStartBeat(), instance.getEndBeat());
+        } else {
+          this.addInstance(layer, instance);
+        }
+      }
+    }
+  }
+
+  /**
+   * Finds the layers with a unit or pattern instance over the given beat.
+   *
+   * @param beat the beat to check
+   * @return the layers with something over the given beat, in the same order as in the song
+   */
+  List<Layer> layersAt(int beat) {
+    List<SpanTree.Span> spans = new ArrayList<>();
+    this.taken.collect(beat, beat, false, spans);
+
+    List<Layer> layers = new ArrayList<>(spans.size());
+
+    for (SpanTree.Span span : spans) {
+      layers.add(span.getLayer());
+    }
+
+    layers.sort((a, b) -> Integer.compare(this.position(a), this.position(b)));
+
+    return layers;
+  }
+
+  /**
+   * Returns every beat in the given range at which some unit starts or stops sounding, in
+   * increasing order and without duplicates (see {@link Song#changePointsInRange(int, int)}).
+   *
+   * @param startBeat the first beat of the range
+   * @param endBeat   the last beat of the range
+   * @return the beats in the given range where the units sounding change
+   */
+  int[] changePoints(int startBeat, int endBeat) {
+    NavigableMap<Integer, Integer> inRange = this.boundaries.subMap(startBeat, true, endBeat, true);
+    List<SpanTree.Span> instances = new ArrayList<>();
+
+    // an instance ending on the beat before the range may have a unit stopping at its start
+    this.taken.collect(Math.max(startBeat, 0) - 1, endBeat, true, instances);
+
+    int[] changePoints = new int[inRange.size()];
+    int count = 0;
+
+    for (int beat : inRange.keySet()) {
+      changePoints[count++] = beat;
+    }
+
+    if (instances.isEmpty()) {
+      return changePoints;
+    }
+
+    Set<Layer> layers = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    for (SpanTree.Span instance : instances) {
+      if (!layers.add(instance.getLayer())) {
+        continue;
+      }
+
+      // the layer works out the units its instances play in the range, along with its own units
+      int[] points = instance.getLayer().changePointsInRange(startBeat, endBeat);
+      changePoints = Arrays.copyOf(changePoints, count + points.length);
+      System.arraycopy(points, 0, changePoints, count, points.length);
+      count += points.length;
+    }
+
+    Arrays.sort(changePoints, 0, count);
+
+    int distinct = 0;
+
+    for (int i = 0; i < count; i++) {
+      if (distinct == 0 || changePoints[i] != changePoints[distinct - 1]) {
+        changePoints[distinct++] = changePoints[i];
+      }
+    }
+
+    return Arrays.copyOf(changePoints, distinct);
+  }
+
+  /**
+   * Finds the earliest beat at or after the given beat from which the given number of beats in a
+   * row are empty in some layer, choosing the first such layer in the song (see {@link
+   * Song#findFreeSlot(int, int)}). The free spans covering the whole run from the given beat are
+   * found first, and otherwise the first long enough free span starting after it.
+   *
+   * @param beat   the first beat to consider
+   * @param length the number of empty beats needed
+   * @return the layer and first beat of the empty run of beats, or {@code null} if no layer has
+   * room
+   */
+  FreeSlot findFreeSlot(int beat, int length) {
+    if ((long) beat + length - 1 > MIDI.MAX_BEATS) {
+      return null;
+    }
+
+    List<SpanTree.Span> spans = new ArrayList<>();
+    this.free.collect(beat + length - 1, beat, false, spans);
+
+    if (!spans.isEmpty()) {
+      return new FreeSlot(this.firstLayer(spans), beat);
+    }
+
+    SpanTree.Span next = this.free.firstAfter(beat, length);
+
+    if (next == null) {
+      return null;
+    }
+
+    // any other layer with room from the same beat has a free span starting there as well
+    this.free.collect(next.getStartBeat() + length - 1, next.getStartBeat(), false, spans);
+
+    return new FreeSlot(this.firstLayer(spans), next.getStartBeat());
+  }
+
+  /**
+   * Adds the given unit of the given layer.
+   *
+   * @param layer the layer holding the unit
+   * @param unit  the encoded unit (see {@link UnitCodec})
+   */
+  private void addUnit(Layer layer, long unit) {
+    int startBeat = UnitCodec.getStartBeat(unit);
+    int endBeat = UnitCodec.getEndBeat(unit);
+
+    this.addSpan(layer, startBeat, endBeat, false);
+    this.boundaries.merge(startBeat, 1, Integer::sum);
+
+    if (endBeat < Integer.MAX_VALUE) {
+      this.boundaries.merge(endBeat + 1, 1, Integer::sum);
+    }
+  }
+
+  /**
+   * Removes the given unit of the given layer.
+   *
+   * @param layer the layer which held the unit
+   * @param unit  the encoded unit (see {@link UnitCodec}), as it was when it was added
+   */
+  private void removeUnit(Layer layer, long unit) {
+    int startBeat = UnitCodec.getStartBeat(unit);
+    int endBeat = UnitCodec.getEndBeat(unit);
+
+    this.removeSpan(layer, startBeat, endBeat);
+    this.boundaries.computeIfPresent(startBeat, (beat, count) -> (count == 1) ? null : count - 1);
+
+    if (endBeat < Integer.MAX_VALUE) {
+      this.boundaries.computeIfPresent(endBeat + 1,
+          (beat, count) -> (count == 1) ? null : count - 1);
+    }
+  }
+
+  /**
+   * Adds the given pattern instance of the given layer.
+   *
+   * @param layer    the layer holding the instance
+   * @param instance the instance to add
+   */
+  private void addInstance(Layer layer, PatternInstance instance) {
+    this.addSpan(layer, instance.getStartBeat(), instance.getEndBeat(), true);
+  }
+
+  /**
+   * Adds a span of beats taken up by something in the given layer, carving it out of the free span
+   * of the layer which holds it.
+   *
+   * @param layer     the layer holding the span
+   * @param startBeat the first beat of the span
+   * @param endBeat   the last beat of the span
+   * @param instance  whether the span is a pattern instance rather than a unit
+   */
+  private void addSpan(Layer layer, int startBeat, int endBeat, boolean instance) {
+    int serial = this.serials.get(layer);
+    this.taken.add(layer, serial, startBeat, endBeat, instance);
+
+    NavigableMap<Integer, Integer> layerFree = this.freeSpans.get(layer);
+    Map.Entry<Integer, Integer> around = layerFree.floorEntry(startBeat);
+
+    if (around == null || around.getValue() < endBeat) {
+      return;
+    }
+
+    this.removeFree(layer, serial, around.getKey());
+
+    if (around.getKey() < startBeat) {
+      this.addFree(layer, serial, around.getKey(), startBeat - 1);
+    }
+
+    if (endBeat < around.getValue()) {
+      this.addFree(layer, serial, endBeat + 1, around.getValue());
+    }
+  }
+
+  /**
+   * Removes the span of beats starting at the given beat in the given layer, if there is one,
+   * joining its beats to the free spans of the layer on either side. Nothing in a layer overlaps
+   * anything else, so the layer and start beat are enough to find it.
+   *
+   * @param layer     the layer holding the span
+   * @param startBeat the first beat of the span
+   * @param endBeat   the last beat of the span
+   */
+  private void removeSpan(Layer layer, int startBeat, int endBeat) {
+    int serial = this.serials.get(layer);
+    this.taken.remove(startBeat, serial);
+
+    NavigableMap<Integer, Integer> layerFree = this.freeSpans.get(layer);
+    Map.Entry<Integer, Integer> before = layerFree.lowerEntry(startBeat);
+    Integer afterEnd = (endBeat < MIDI.MAX_BEATS) ? layerFree.get(endBeat + 1) : null;
+    int freeStart = startBeat;
+    int freeEnd = endBeat;
+
+    if (before != null && before.getValue() == startBeat - 1) {
+      this.removeFree(layer, serial, before.getKey());
+      freeStart = before.getKey();
+    }
+
+    if (afterEnd != null) {
+      this.removeFree(layer, serial, endBeat + 1);
+      freeEnd = afterEnd;
+    }
+
+    this.addFree(layer, serial, freeStart, freeEnd);
+  }
+
+  /**
+   * Adds a free span of beats to the given layer.
+   *
+   * @param layer     the layer with the free beats
+   * @param serial    the serial of the layer
+   * @param startBeat the first free beat
+   * @param endBeat   the last free beat
+   */
+  private void addFree(Layer layer, int serial, int startBeat, int endBeat) {
+    this.freeSpans.get(layer).put(startBeat, endBeat);
+    this.free.add(layer, serial, startBeat, endBeat, false);
+  }
+
+  /**
+   * Removes the free span of beats starting at the given beat from the given layer.
+   *
+   * @param layer     the layer with the free beats
+   * @param serial    the serial of the layer
+   * @param startBeat the first free beat
+   */
+  private void removeFree(Layer layer, int serial, int startBeat) {
+    this.freeSpans.get(layer).remove(startBeat);
+    this.free.remove(startBeat, serial);
+  }
+
+  /**
+   * Finds the layer which comes first in the song among the layers holding the given spans.
+   *
+   * @param spans the spans to choose from, of which there is at least one
+   * @return the first layer holding one of the spans
+   */
+  private Layer firstLayer(List<SpanTree.Span> spans) {
+    Layer first = null;
+
+    for (SpanTree.Span span : spans) {
+      if (first == null || this.position(span.getLayer()) < this.position(first)) {
+        first = span.getLayer();
+      }
+    }
+
+    return first;
+  }
+
+  /**
+   * Gets the index of the given layer in the song.
+   *
+   * @param layer the layer to find
+   * @return the index of the layer, or {@link Integer#MAX_VALUE} if it is not in the song
+   */
+  private int position(Layer layer) {
+    return this.positions.getOrDefault(layer, Integer.MAX_VALUE);
+  }
+}
@@ -0,0 +1,74 @@
+package mycomposer.model;
+
+/**
+ * Contains methods for building the content hashes of patterns, layers, and songs. Hashes depend
+ * only on the content being hashed, never on object identity or unit IDs, so the same content
+ * always has the same hash, even in a different run of the program.
+ *
+ * <p>The units of a layer are hashed by mixing each encoded unit and adding the results together.
+ * Since addition can be undone by subtraction, a layer can keep its unit hash up to date as units
+ * are added and removed without looking at any of its other units.
+ */
+final class ContentHash {
+
+  /**
+   * Scrambles the bits of the given value so that similar values give very different results. This
+   * is the finalizer of the SplitMix64 generator.
+   *
+   * @param value the value to mix
+   * @return the mixed value
+   */
+  static long mix(long value) {
+    long z = value + 0x9E3779B97F4A7C15L;
+    z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+    z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+    return z ^ (z >>> 31);
+  }
+
+  /**
+   * Combines the given hash with the next value in a sequence, so that the order of the values
+   * changes the result.
+   *
+   * @param hash  the hash of the values so far
+   * @param value the next value
+   * @return the hash including the next value
+   */
+  static long combine(long hash, long value) {
+    return mix(hash * 31 + value);
+  }
+
+  /**
+   * Gets the hash of the given string, which only depends on its characters.
+   *
+   * @param string the string to hash
+   * @return the hash of the string
+   */
+  static long of(String string) {
+    long hash = string.length();
+
+    for (int i = 0; i < string.length(); i++) {
+      hash = hash * 31 + string.charAt(i);
+    }
+
+    return mix(hash);
+  }
+
+  /**
+   * Gets the hash of the given encoded units, which does not depend on their order. Hashes of
+   * separate groups of units can be added together or subtracted from each other.
+   *
+   * @param units the encoded units to hash
+   * @param from  the index of the first unit to include
+   * @param step  the distance between the units to include
+   * @return the hash of the units
+   */
+  static long ofUnits(long[] units, int from, int step) {
+    long hash = 0;
+
+    for (int i = from; i < units.length; i += step) {
+      hash += mix(units[i]);
+    }
+
+    return hash;
+  }
+}
@@ -0,0 +1,45 @@
+package mycomposer.model;
+
+/**
+ * Represents a run of empty beats in a layer of a song, found by {@link Song#findFreeSlot(int,
+ * int)}.
+ */
+public final class FreeSlot {
+
+  private final Layer layer;
+  private final int beat;
+
+  /**
+   * Creates a free slot in the given layer starting at the given beat.
+   *
+   * @param layer the layer the slot is in
+   * @param beat  the first beat of the slot
+   */
+  FreeSlot(Layer layer, int beat) {
+    this.layer = layer;
+    this.beat = beat;
+  }
+
+  /**
+   * Gets the layer this slot is in.
+   *
+   * @return the layer this slot is in
+   */
+  public Layer getLayer() {
+    return this.layer;
+  }
+
+  /**
+   * Gets the first beat of this slot.
+   *
+   * @return the first beat of this slot
+   */
+  public int getBeat() {
+    return this.beat;
+  }
+
+  @Override
+  public String toString() {
+    return this.layer.getName() + " " + this.beat;
+  }
+}
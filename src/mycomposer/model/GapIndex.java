@@ -0,0 +1,418 @@
+package mycomposer.model;
+
+import java.util.Random;
+import mycomposer.MIDI;
+
+/**
+ * Indexes the empty gaps between the units of a layer so that the first gap of at least a given
+ * length can be found in logarithmic time.
+ *
+ * <p>The gap after each unit (up to the next unit, or up to {@link MIDI#MAX_BEATS} after the last
+ * one) is stored as a node of a treap kept in the same order as the units, where every node also
+ * holds the number of gaps and the longest gap below it. Gaps are found by their index among the
+ * units rather than by a key, so adding or removing a unit inserts or deletes a single node and
+ * updates the gap before it, in logarithmic time, without touching the gaps after it.
+ *
+ * <p>Batches rebuild the units of a layer all at once, so the gaps are then rebuilt in linear time
+ * when the index is next used, the same as the unit store pays to rebuild itself.
+ *
+ * <p>This class is not thread safe. Layers guard it with their own lock.
+ */
+final class GapIndex {
+
+  private final Random priorities;
+  private Gap root;
+  private boolean stale;
+
+  /**
+   * Creates an index for a layer with no units.
+   */
+  GapIndex() {
+    this.priorities = new Random();
+    this.root = null;
+    this.stale = false;
+  }
+
+  /**
+   * Records that any of the units may have changed, so every gap is rebuilt when this index is
+   * next used.
+   */
+  void invalidate() {
+    this.root = null;
+    this.stale = true;
+  }
+
+  /**
+   * Records that a unit has been added at the given index among the given units, adding the gap
+   * after it and updating the gap before it.
+   *
+   * @param units the units of the layer, already holding the new unit
+   * @param index the index of the unit which was added
+   */
+  void unitAdded(UnitStore units, int index) {
+    if (this.stale) {
+      return;
+    }
+
+    this.root = insert(this.root, index, this.newGap(units, index));
+    this.refresh(units, index - 1);
+  }
+
+  /**
+   * Records that the unit at the given index has been removed from the given units, removing the
+   * gap after it and updating the gap before it.
+   *
+   * @param units the units of the layer, no longer holding the removed unit
+   * @param index the index the removed unit was at
+   */
+  void unitRemoved(UnitStore units, int index) {
+    if (this.stale) {
+      return;
+    }
+
+    this.root = delete(this.root, index);
+    this.refresh(units, index - 1);
+  }
+
+  /**
+   * Records that a unit has changed its beats, moving from one index among the given units to
+   * another (or staying where it was). Only the gaps on either side of its old and new places
+   * change.
+   *
+   * @param units the units of the layer, already holding the new beats of the unit
+   * @param from  the index the unit was at
+   * @param to    the index the unit is now at
+   */
+  void unitMoved(UnitStore units, int from, int to) {
+    if (this.stale) {
+      return;
+    }
+
+    if (from != to) {
+      this.root = delete(this.root, from);
+      this.root = insert(this.root, to, this.newGap(units, to));
+    }
+
+    this.refresh(units, from - 1);
+    this.refresh(units, from);
+    this.refresh(units, to - 1);
+    this.refresh(units, to);
+  }
+
+  /**
+   * Finds the first unit at or after the given index which is followed by a gap of at least the
+   * given number of beats.
+   *
+   * @param units  the units of the layer, which must be the same units this index was built from
+   *               apart from any changes it has been told about
+   * @param from   the index of the first unit to check
+   * @param length the number of empty beats needed
+   * @return the index of the unit, or -1 if there is no such unit
+   */
+  int firstGapAfter(UnitStore units, int from, int length) {
+    if (this.stale) {
+      this.rebuild(units);
+    }
+
+    return first(this.root, 0, from, length);
+  }
+
+  /**
+   * Sets the gap after the unit at the given index again from the given units, if there is such a
+   * unit.
+   *
+   * @param units the units of the layer
+   * @param index the index of the unit
+   */
+  private void refresh(UnitStore units, int index) {
+    if (index >= 0 && index < units.size()) {
+      set(this.root, index, gapAfter(units, index));
+    }
+  }
+
+  /**
+   * Builds the gaps after all of the given units in linear time, by adding them in order and
+   * keeping the nodes on the rightmost path of the treap on a stack.
+   *
+   * @param units the units of the layer
+   */
+  private void rebuild(UnitStore units) {
+    Gap[] path = new Gap[units.size()];
+    int depth = 0;
+
+    for (int i = 0; i < units.size(); i++) {
+      Gap gap = this.newGap(units, i);
+      Gap below = null;
+
+      // nodes with lower priorities become the left subtree of the new node
+      while (depth > 0 && path[depth - 1].priority < gap.priority) {
+        below = path[--depth];
+        below.update();
+      }
+
+      gap.left = below;
+
+      if (depth > 0) {
+        path[depth - 1].right = gap;
+      }
+
+      path[depth++] = gap;
+    }
+
+    while (depth > 0) {
+      path[--depth].update();
+    }
+
+    this.root = (path.length == 0) ? null : path[0];
+    this.stale = false;
+  }
+
+  /**
+   * Creates a node with no children for the gap after the unit at the given index.
+   *
+   * @param units the units of the layer
+   * @param index the index of the unit
+   * @return the new node
+   */
+  private Gap newGap(UnitStore units, int index) {
+    return new Gap(gapAfter(units, index), this.priorities.nextInt());
+  }
+
+  /**
+   * Finds the first gap below the given node at or after the given index with at least the given
+   * length.
+   *
+   * @param node   the root of the subtree to search
+   * @param offset the index of the first gap below the node
+   * @param from   the index of the first gap to check
+   * @param length the number of empty beats needed
+   * @return the index of the gap, or -1 if there is no such gap
+   */
+  private static int first(Gap node, int offset, int from, int length) {
+    if (node == null || node.longest < length) {
+      return -1;
+    }
+
+    int index = offset + size(node.left);
+
+    if (from < index) {
+      int found = first(node.left, offset, from, length);
+
+      if (found != -1) {
+        return found;
+      }
+    }
+
+    if (index >= from && node.length >= length) {
+      return index;
+    }
+
+    return first(node.right, index + 1, from, length);
+  }
+
+  /**
+   * Inserts the given node at the given index below the given node.
+   *
+   * @param node  the root of the subtree to insert into
+   * @param index the index within the subtree to insert at
+   * @param gap   the node to insert
+   * @return the new root of the subtree
+   */
+  private static Gap insert(Gap node, int index, Gap gap) {
+    if (node == null) {
+      return gap;
+    }
+
+    int leftSize = size(node.left);
+
+    if (index <= leftSize) {
+      node.left = insert(node.left, index, gap);
+
+      if (node.left.priority > node.priority) {
+        node = rotateRight(node);
+      }
+    } else {
+      node.right = insert(node.right, index - leftSize - 1, gap);
+
+      if (node.right.priority > node.priority) {
+        node = rotateLeft(node);
+      }
+    }
+
+    node.update();
+    return node;
+  }
+
+  /**
+   * Deletes the node at the given index below the given node.
+   *
+   * @param node  the root of the subtree to delete from
+   * @param index the index within the subtree to delete
+   * @return the new root of the subtree
+   */
+  private static Gap delete(Gap node, int index) {
+    if (node == null) {
+      return null;
+    }
+
+    int leftSize = size(node.left);
+
+    if (index == leftSize) {
+      return merge(node.left, node.right);
+    }
+
+    if (index < leftSize) {
+      node.left = delete(node.left, index);
+    } else {
+      node.right = delete(node.right, index - leftSize - 1);
+    }
+
+    node.update();
+    return node;
+  }
+
+  /**
+   * Sets the length of the gap at the given index below the given node.
+   *
+   * @param node   the root of the subtree holding the gap
+   * @param index  the index within the subtree of the gap
+   * @param length the new length of the gap
+   */
+  private static void set(Gap node, int index, int length) {
+    int leftSize = size(node.left);
+
+    if (index < leftSize) {
+      set(node.left, index, length);
+    } else if (index > leftSize) {
+      set(node.right, index - leftSize - 1, length);
+    } else {
+      node.length = length;
+    }
+
+    node.update();
+  }
+
+  /**
+   * Joins two subtrees, where every gap in the first comes before every gap in the second.
+   *
+   * @param left  the subtree of earlier gaps
+   * @param right the subtree of later gaps
+   * @return the root of the joined subtree
+   */
+  private static Gap merge(Gap left, Gap right) {
+    if (left == null) {
+      return right;
+    }
+
+    if (right == null) {
+      return left;
+    }
+
+    if (left.priority > right.priority) {
+      left.right = merge(left.right, right);
+      left.update();
+      return left;
+    }
+
+    right.left = merge(left, right.left);
+    right.update();
+    return right;
+  }
+
+  /**
+   * Rotates the given node down to the right, lifting its left child.
+   *
+   * @param node the node to rotate
+   * @return the new root of the subtree
+   */
+  private static Gap rotateRight(Gap node) {
+    Gap left = node.left;
+    node.left = left.right;
+    left.right = node;
+    node.update();
+
+    return left;
+  }
+
+  /**
+   * Rotates the given node down to the left, lifting its right child.
+   *
+   * @param node the node to rotate
+   * @return the new root of the subtree
+   */
+  private static Gap rotateLeft(Gap node) {
+    Gap right = node.right;
+    node.right = right.left;
+    right.left = node;
+    node.update();
+
+    return right;
+  }
+
+  /**
+   * Counts the gaps below the given node.
+   *
+   * @param node the root of the subtree, or {@code null}
+   * @return the number of gaps in the subtree
+   */
+  private static int size(Gap node) {
+    return (node == null) ? 0 : node.size;
+  }
+
+  /**
+   * Gets the number of empty beats after the unit at the given index.
+   *
+   * @param units the units of the layer
+   * @param index the index of the unit
+   * @return the length of the gap after the unit
+   */
+  private static int gapAfter(UnitStore units, int index) {
+    long next = (index + 1 < units.size())
+        ? units.getStartBeat(index + 1)
+        : MIDI.MAX_BEATS + 1L;
+
+    return (int) (next - units.getEndBeat(index) - 1);
+  }
+
+  /**
+   * The gap after one unit, stored as a node of the treap.
+   */
+  private static final class Gap {
+
+    private final int priority;
+    private int length;
+    private int longest;
+    private int size;
+    private Gap left;
+    private Gap right;
+
+    /**
+     * Creates a node with no children for a gap of the given length.
+     *
+     * @param length   the number of empty beats in the gap
+     * @param priority the random priority of the node, which keeps the treap balanced
+     */
+    private Gap(int length, int priority) {
+      this.priority = priority;
+      this.length = length;
+      this.longest = length;
+      this.size = 1;
+    }
+
+    /**
+     * Works out the number of gaps and the longest gap below this node again from its children.
+     */
+    private void update() {
+      this.size = 1 + GapIndex.size(this.left) + GapIndex.size(this.right);
+      this.longest = this.length;
+
+      if (this.left != null) {
+        this.longest = Math.max(this.longest, this.left.longest);
+      }
+
+      if (this.right != null) {
+        this.longest = Math.max(this.longest, this.right.longest);
+      }
+    }
+  }
+}
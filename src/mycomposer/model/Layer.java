@@ -1,25 +1,99 @@
 package mycomposer.model;
 
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+import java.util.function.IntSupplier;
+import java.util.function.LongConsumer;
+import java.util.function.Supplier;
+import java.util.stream.LongStream;
 import mycomposer.MIDI;
 import mycomposer.model.unit.Unit;
+import mycomposer.model.unit.UnitCodec;
 
 /**
  * Represents a track in the song which stores units (notes and drum beats). Although each layer can
  * only store and play one note at a time, multiple layers can play at the same time to create
  * chords.
+ *
+ * <p>Units are always kept sorted by their start beat. Since units in a layer never overlap,
+ * ordering them by start beat also orders them by end beat, so overlap and free beat queries can
+ * binary search for the units directly around the beat in question. Nothing is stored per beat, so
+ * memory use and the cost of edits depend only on the number of units, however long or sparse the
+ * song is. A bitset of taken beats would answer a beat check without the search, but songs run to
+ * {@link MIDI#MAX_BEATS} beats, where such a bitset takes 256 MiB for every layer, and a binary
+ * search only ever looks at the one or two units next to the beat.
+ *
+ * <p>Layers can optionally be packed, in which case units are stored as arrays of primitive
+ * values rather than as unit objects. Packed layers use well under half of the memory per unit,
+ * which suits very long or generated songs, but the units they return are copies: editing them has
+ * no effect on the layer, so units must be removed and re-added instead.
+ *
+ * <p>Layers can also hold instances of patterns (see {@link PatternInstance}), each of which plays
+ * a shared group of units some number of times in a row. Instances take up all of their beats, so
+ * units cannot be placed inside them, but their units are never stored in the layer: they are only
+ * worked out when the range queries of the layer or a snapshot are used. Methods which list the
+ * units of the layer itself, such as {@link #getUnits()}, do not include them.
+ *
+ * <p>Each layer maps the ID of every unit it holds to the unit's start beat, so a unit can be found
+ * from its ID (see {@link Unit#getId()}) with one hash lookup and one binary search, in either
+ * storage mode and without comparing units field by field.
+ *
+ * <p>Layers are safe for one thread to edit while any number of other threads read them. Queries
+ * which look up a single unit or beat run optimistically without taking a lock and are only
+ * repeated under the read lock if an edit happened at the same time (see {@link ModelLock}), while
+ * queries which copy out lists or arrays of units take the read lock, so background readers do not
+ * hold up edits and never see an edit half made. Listeners are notified once the edit is complete
+ * and the lock has been released.
+ *
+ * <p>The gaps between units are indexed as well (see {@link GapIndex}), so the first empty run of
+ * beats long enough for a new unit or phrase can be found in logarithmic time with
+ * {@link #findGap(int, int)}, and adding, removing, or moving a unit updates the index in
+ * logarithmic time as well.
+ *
+ * <p>Each layer keeps a content hash of its settings, units, and pattern instances (see {@link
+ * #contentHash()}), which is updated from the units each edit takes out and puts in, so work done
+ * for a layer can be cached by its content without comparing the layer unit by unit.
  */
 public final class Layer {
 
-  private final List<Unit> units;
-  private int finalBeat;
+  private final ModelLock lock;
+  private final UnitStore units;
+  private final IntFunction<Unit> unitAt;
+  private final IntSupplier unitCount;
+  private final Map<Long, Integer> unitStarts;
+  private final List<PatternInstance> instances;
+  private volatile int finalBeat;
+  private volatile long version;
+  private final List<SongListener> listeners;
 
-  private String name;
-  private int volume;
-  private LayerColor color;
-  private boolean mute;
+  private final Object snapshotLock;
+  private LayerSnapshot snapshot;
+  private boolean snapshotCurrent;
+  private int unchangedUnits;
+
+  private final GapIndex gaps;
+  private boolean placingUnits;
+
+  private long unitHash;
+  private long instanceHash;
+
+  private volatile String name;
+  private volatile int volume;
+  private volatile LayerColor color;
+  private volatile boolean mute;
 
   /**
    * Creates a new layer with the given name, color, and mute setting.
@@ -33,6 +107,23 @@ public final class Layer {
    */
   public Layer(String name, int volume, LayerColor color, boolean mute)
       throws IllegalArgumentException {
+    this(name, volume, color, mute, false);
+  }
+
+  /**
+   * Creates a new layer with the given name, color, and mute setting, which stores its units
+   * either as unit objects or packed into arrays of primitive values.
+   *
+   * @param name   the name of the layer
+   * @param volume the volume of the layer
+   * @param color  the color of the layer
+   * @param mute   whether or not the layer should be muted
+   * @param packed whether or not the layer should store its units packed
+   * @throws IllegalArgumentException if the given name is empty or the given volume is less than 0
+   *                                  or greater than 100
+   */
+  public Layer(String name, int volume, LayerColor color, boolean mute, boolean packed)
+      throws IllegalArgumentException {
     if (name.length() == 0) {
       throw new IllegalArgumentException("Layer name cannot be empty.");
     }
@@ -47,8 +138,26 @@ public final class Layer {
 
     this.mute = mute;
 
-    this.units = new ArrayList<>();
+    this.lock = new ModelLock();
+    this.units = packed ? new PackedUnitStore() : new ListUnitStore();
+    this.unitAt = index -> this.units.get(index);
+    this.unitCount = () -> this.units.size();
+    this.unitStarts = new HashMap<>();
+    this.instances = new ArrayList<>();
     this.finalBeat = 0;
+    this.version = 0;
+    this.listeners = new CopyOnWriteArrayList<>();
+
+    this.snapshotLock = new Object();
+    this.snapshot = null;
+    this.snapshotCurrent = false;
+    this.unchangedUnits = 0;
+
+    this.gaps = new GapIndex();
+    this.placingUnits = false;
+
+    this.unitHash = 0;
+    this.instanceHash = 0;
   }
 
   /**
@@ -70,7 +179,11 @@ public final class Layer {
     if (name.length() == 0) {
       throw new IllegalArgumentException("Layer name cannot be empty.");
     }
-    this.name = name;
+    this.write(() -> {
+      Object before = this.name;
+      this.name = name;
+      return this.settingsChanged(SongEvent.Type.LayerRenamed, before, name);
+    });
   }
 
   /**
@@ -88,7 +201,11 @@ public final class Layer {
    * @param color the color to set this layer to
    */
   public void setColor(LayerColor color) {
-    this.color = color;
+    this.write(() -> {
+      Object before = this.color;
+      this.color = color;
+      return this.settingsChanged(SongEvent.Type.ColorChanged, before, color);
+    });
   }
 
   /**
@@ -111,7 +228,11 @@ public final class Layer {
       throw new IllegalArgumentException("Volume must be between 0 and 100 inclusive.");
     }
 
-    this.volume = volume;
+    this.write(() -> {
+      Object before = this.volume;
+      this.volume = volume;
+      return this.settingsChanged(SongEvent.Type.VolumeChanged, before, volume);
+    });
   }
 
   /**
@@ -127,7 +248,19 @@ public final class Layer {
    * Mutes this layer if it is not muted, unmutes this layer if it is muted.
    */
   public void toggleMute() {
-    this.mute = !this.mute;
+    this.write(() -> {
+      this.mute = !this.mute;
+      return this.settingsChanged(SongEvent.Type.MuteChanged, !this.mute, this.mute);
+    });
+  }
+
+  /**
+   * Returns whether or not this layer stores its units packed into arrays of primitive values.
+   *
+   * @return whether or not this layer is packed
+   */
+  public boolean isPacked() {
+    return this.units instanceof PackedUnitStore;
   }
 
   /**
@@ -140,227 +273,1758 @@ public final class Layer {
   }
 
   /**
-   * Returns the list of units in this layer.
+   * Gets the number of changes made to this layer since it was created, counting every change to
+   * its units (including edits made through the units themselves), pattern instances, and
+   * settings. Anything worked out from this layer is still correct as long as the version has not
+   * changed.
+   *
+   * @return the version of this layer
+   */
+  public long getVersion() {
+    return this.version;
+  }
+
+  /**
+   * Returns the list of units in this layer, sorted in order of increasing start beat.
    *
    * @return the list of units in this layer
    */
   public List<Unit> getUnits() {
-    return new ArrayList<>(this.units);
+    return this.lock.readLocked(this.units::toList);
   }
 
   /**
-   * Adds the given unit to this layer.
+   * Returns the units in this layer which overlap the given range of beats, sorted in order of
+   * increasing start beat. The first such unit is found by binary search, so only the units in the
+   * range are looked at. Units played by pattern instances in the range are included as copies.
    *
-   * @param unit the unit to add
-   * @throws IllegalArgumentException if the new unit overlaps with any existing units in this
-   *                                  layer
+   * @param startBeat the first beat of the range
+   * @param endBeat   the last beat of the range
+   * @return the units in this layer which overlap the given range
+   * @throws IllegalArgumentException if the given end beat is before the given start beat
    */
-  public void addUnit(Unit unit) throws IllegalArgumentException {
-    for (int i = unit.getStartBeat(); i <= unit.getEndBeat(); i++) {
-      if (this.beatOverlapsUnit(i)) {
-        throw new IllegalArgumentException("New unit cannot overlap existing units.");
-      }
+  public List<Unit> unitsInRange(int startBeat, int endBeat) throws IllegalArgumentException {
+    if (endBeat < startBeat) {
+      throw new IllegalArgumentException("End beat cannot be before start beat.");
     }
 
-    if (unit.getEndBeat() > this.finalBeat) {
-      this.finalBeat = unit.getEndBeat();
-    }
+    return this.lock.readLocked(() -> {
+      List<Unit> unitsInRange = new ArrayList<>();
+
+      for (int i = this.unitsEndingBefore(startBeat);
+          i < this.units.size() && this.units.getStartBeat(i) <= endBeat; i++) {
+        unitsInRange.add(this.units.get(i));
+      }
+
+      long[] expanded = this.expandInstances(startBeat, endBeat);
 
-    this.units.add(unit);
+      if (expanded.length > 0) {
+        for (long unit : expanded) {
+          unitsInRange.add(UnitCodec.decode(unit));
+        }
+
+        unitsInRange.sort(Comparator.comparingInt(Unit::getStartBeat));
+      }
+
+      return unitsInRange;
+    });
   }
 
   /**
-   * Removes the given unit from this layer if it is present.
+   * Returns the encoded units (see {@link UnitCodec}) in this layer which overlap the given range
+   * of beats, including those played by pattern instances, sorted in order of increasing start
+   * beat. Like {@link #unitsInRange(int, int)}, only the units in the range are looked at, and no
+   * unit objects are created.
    *
-   * @param unit the unit to remove
+   * @param startBeat the first beat of the range
+   * @param endBeat   the last beat of the range
+   * @return the encoded units in this layer which overlap the given range
+   * @throws IllegalArgumentException if the given end beat is before the given start beat
    */
-  public void removeUnit(Unit unit) {
-    Collections.sort(this.units);
-    this.units.remove(unit);
+  public long[] getEncodedUnitsInRange(int startBeat, int endBeat)
+      throws IllegalArgumentException {
+    if (endBeat < startBeat) {
+      throw new IllegalArgumentException("End beat cannot be before start beat.");
+    }
 
-    if (unit.getEndBeat() == this.finalBeat) {
-      int numUnits = this.units.size();
+    return this.lock.readLocked(() -> {
+      int first = this.unitsEndingBefore(startBeat);
+      int last = this.unitsStartingBy(endBeat);
+      long[] expanded = this.expandInstances(startBeat, endBeat);
+      long[] encodedUnits = new long[last - first + expanded.length];
 
-      if (numUnits == 0) {
-        this.finalBeat = 0;
-      } else {
-        this.finalBeat = this.units.get(numUnits - 1).getEndBeat();
+      for (int i = first; i < last; i++) {
+        encodedUnits[i - first] = this.units.getEncoded(i);
       }
-    }
+
+      // encoded units sort by start beat
+      if (expanded.length > 0) {
+        System.arraycopy(expanded, 0, encodedUnits, last - first, expanded.length);
+        Arrays.sort(encodedUnits);
+      }
+
+      return encodedUnits;
+    });
   }
 
   /**
-   * Updates the final beat before the given unit is edited.
+   * Gets the unit in this layer with the given ID, if there is one. If this layer is packed, the
+   * unit returned is a copy which has the same ID.
    *
-   * @param unit the unit that is being edited
+   * @param id the ID of the unit
+   * @return the unit with the given ID, or {@code null} if this layer has no such unit
    */
-  public void checkEditUnit(Unit unit, int newEndBeat) {
-    if (unit.getEndBeat() == this.finalBeat) {
-      this.finalBeat = newEndBeat;
-    }
+  public Unit getUnitById(long id) {
+    return this.lock.read(() -> {
+      int index = this.indexOfUnit(id);
+
+      return (index == -1) ? null : this.units.get(index);
+    });
+  }
+
+  /**
+   * Returns whether or not this layer holds the unit with the given ID.
+   *
+   * @param id the ID of the unit
+   * @return whether or not this layer holds the unit with the given ID
+   */
+  public boolean containsUnit(long id) {
+    return this.lock.read(() -> this.unitStarts.containsKey(id));
   }
 
   /**
-   * Determines if the given beat overlaps with any existing units in this layer.
+   * Gets the unit in this layer which is sounding at the given beat, if there is one. If the beat
+   * is inside a pattern instance, a copy of the pattern unit playing at that beat is returned.
    *
    * @param beat the beat to check
-   * @return whether or not the given beat overlaps with any existing units in this layer
+   * @return the unit which overlaps the given beat, or {@code null} if the beat is empty
    */
-  public boolean beatOverlapsUnit(int beat) {
-    for (Unit unit : this.units) {
-      if (unit.beatOverlapsUnit(beat)) {
-        return true;
+  public Unit unitAt(int beat) {
+    return this.lock.read(() -> {
+      int index = this.unitsStartingBy(beat) - 1;
+
+      if (index >= 0 && this.units.getEndBeat(index) >= beat) {
+        return this.units.get(index);
       }
-    }
 
-    return false;
+      long[] expanded = this.expandInstances(beat, beat);
+
+      return (expanded.length == 0) ? null : UnitCodec.decode(expanded[0]);
+    });
   }
 
   /**
-   * Determines if the given beat overlaps with any existing units in this layer, ignoring the given
-   * unit to ignore.
+   * Returns the beats in the given range at which a unit in this layer starts or the beat after
+   * which a unit ends, in increasing order. These are the only beats in the range where what this
+   * layer is playing changes.
    *
-   * @param beat         the beat to check
-   * @param unitToIgnore the unit to ignore when checking for overlaps
-   * @return whether or not the given beat overlaps with any existing units in this layer aside from
-   * the given unit
+   * @param startBeat the first beat of the range
+   * @param endBeat   the last beat of the range
+   * @return the beats in the given range where a unit starts or stops sounding
+   * @throws IllegalArgumentException if the given end beat is before the given start beat
    */
-  public boolean beatOverlapsUnit(int beat, Unit unitToIgnore) {
-    for (Unit unit : this.units) {
-      if (!unit.equals(unitToIgnore)) {
-        if (unit.beatOverlapsUnit(beat)) {
-          return true;
+  public int[] changePointsInRange(int startBeat, int endBeat) throws IllegalArgumentException {
+    if (endBeat < startBeat) {
+      throw new IllegalArgumentException("End beat cannot be before start beat.");
+    }
+
+    return this.lock.readLocked(() -> {
+      int[] changePoints = new int[8];
+      int count = 0;
+
+      // a unit ending on the beat before the range stops sounding at the start of the range
+      for (int i = this.unitsEndingBefore(Math.max(startBeat, 0) - 1);
+          i < this.units.size() && this.units.getStartBeat(i) <= endBeat; i++) {
+        int unitStart = this.units.getStartBeat(i);
+        int unitEnd = this.units.getEndBeat(i);
+
+        if (count + 2 > changePoints.length) {
+          changePoints = Arrays.copyOf(changePoints, changePoints.length * 2);
+        }
+
+        // a unit starting right after the previous one ends shares that change point
+        if (unitStart >= startBeat && (count == 0 || changePoints[count - 1] != unitStart)) {
+          changePoints[count++] = unitStart;
+        }
+
+        if (unitEnd < endBeat) {
+          changePoints[count++] = unitEnd + 1;
+        }
+      }
+
+      long[] expanded = this.expandInstances(Math.max(startBeat, 0) - 1, endBeat);
+
+      if (expanded.length == 0) {
+        return Arrays.copyOf(changePoints, count);
+      }
+
+      changePoints = Arrays.copyOf(changePoints, count + 2 * expanded.length);
+
+      for (long unit : expanded) {
+        if (UnitCodec.getStartBeat(unit) >= startBeat) {
+          changePoints[count++] = UnitCodec.getStartBeat(unit);
+        }
+
+        if (UnitCodec.getEndBeat(unit) < endBeat) {
+          changePoints[count++] = UnitCodec.getEndBeat(unit) + 1;
+        }
+      }
+
+      Arrays.sort(changePoints, 0, count);
+
+      int distinct = 0;
+
+      for (int i = 0; i < count; i++) {
+        if (distinct == 0 || changePoints[i] != changePoints[distinct - 1]) {
+          changePoints[distinct++] = changePoints[i];
         }
       }
-    }
 
-    return false;
+      return Arrays.copyOf(changePoints, distinct);
+    });
   }
 
   /**
-   * Determines if the given range overlaps any existing units in this layer, ignoring the given
-   * unit to ignore.
+   * Returns an unmodifiable view of the units in this layer, sorted in order of increasing start
+   * beat. Unlike {@link #getUnits()}, the view is not a copy, so it reflects later changes to this
+   * layer and should not be kept while this layer is being edited.
    *
-   * @param start        the start beat of the range
-   * @param end          the end beat of the range
-   * @param unitToIgnore the unit to ignore when checking for overlaps
-   * @return whether or not the given range overlaps with any existing units in this layer aside
-   * from the given unit
+   * @return an unmodifiable view of the units in this layer
    */
-  public boolean rangeOverlapsUnit(int start, int end, Unit unitToIgnore) {
-    for (int i = start; i <= end; i++) {
-      if (this.beatOverlapsUnit(i, unitToIgnore)) {
-        return true;
+  public List<Unit> getUnitsView() {
+    return new AbstractList<>() {
+      @Override
+      public Unit get(int index) {
+        return Layer.this.getUnit(index);
       }
-    }
 
-    return false;
+      @Override
+      public int size() {
+        return Layer.this.getUnitCount();
+      }
+    };
   }
 
   /**
-   * Gets the beat farthest to the left of the given beat such that all beats between (and
-   * including) that beat and the given beat are empty. If the beat directly to the left of the
-   * given beat is not empty, then the given beat is returned.
+   * Gets the number of units in this layer.
    *
-   * @param beat the beat to check
-   * @return the furthest free beat to the left of the given beat
-   * @throws IllegalArgumentException if the given beat is less than 0
+   * @return the number of units in this layer
    */
-  public int leftFreeBeat(int beat) throws IllegalArgumentException {
-    if (beat < 0) {
-      throw new IllegalArgumentException("Beat cannot be less than 0.");
-    }
+  public int getUnitCount() {
+    return this.lock.readCount(this.unitCount);
+  }
+
+  /**
+   * Gets the unit at the given index, where units are sorted in order of increasing start beat.
+   *
+   * @param index the index of the unit
+   * @return the unit at the given index
+   * @throws IndexOutOfBoundsException if the given index is out of range
+   */
+  public Unit getUnit(int index) throws IndexOutOfBoundsException {
+    return this.lock.read(this.unitAt, index);
+  }
+
+  /**
+   * Performs the given action on each unit in this layer in order of increasing start beat. The
+   * action may query this layer but must not edit it, since the read lock is held throughout.
+   *
+   * @param action the action to perform on each unit
+   */
+  public void forEachUnit(Consumer<? super Unit> action) {
+    this.lock.readLocked(() -> {
+      for (int i = 0; i < this.units.size(); i++) {
+        action.accept(this.units.get(i));
+      }
+
+      return null;
+    });
+  }
 
-    if (this.units.size() == 0) {
-      return 0;
+  /**
+   * Performs the given action on each unit in this layer which overlaps the given range of beats,
+   * in order of increasing start beat. Like {@link #forEachUnit(Consumer)}, units played by pattern
+   * instances are not included. The first such unit is found by binary search, so only the units in
+   * the range are looked at. The action may query this layer but must not edit it, since the read
+   * lock is held throughout.
+   *
+   * @param startBeat the first beat of the range
+   * @param endBeat   the last beat of the range
+   * @param action    the action to perform on each unit in the range
+   * @throws IllegalArgumentException if the given end beat is before the given start beat
+   */
+  public void forEachUnitInRange(int startBeat, int endBeat, Consumer<? super Unit> action)
+      throws IllegalArgumentException {
+    if (endBeat < startBeat) {
+      throw new IllegalArgumentException("End beat cannot be before start beat.");
     }
 
-    Collections.sort(this.units);
+    this.lock.readLocked(() -> {
+      int last = this.unitsStartingBy(endBeat);
 
-    for (int i = 0; i < this.units.size(); i++) {
+      for (int i = this.unitsEndingBefore(startBeat); i < last; i++) {
+        action.accept(this.units.get(i));
+      }
 
-      Unit unit = this.units.get(i);
+      return null;
+    });
+  }
 
-      if (unit.getEndBeat() >= beat) {
-        if (i == 0) {
-          return 0;
-        } else {
-          return this.units.get(i - 1).getEndBeat() + 1;
-        }
+  /**
+   * Performs the given action on each unit in this layer, encoded as a single {@code long} (see
+   * {@link UnitCodec}), in order of increasing start beat. No units are created, even if this layer
+   * is packed. The action may query this layer but must not edit it, since the read lock is held
+   * throughout.
+   *
+   * @param action the action to perform on each encoded unit
+   */
+  public void forEachEncodedUnit(LongConsumer action) {
+    this.lock.readLocked(() -> {
+      for (int i = 0; i < this.units.size(); i++) {
+        action.accept(this.units.getEncoded(i));
       }
-    }
 
-    return this.units.get(this.units.size() - 1).getEndBeat() + 1;
+      return null;
+    });
   }
 
   /**
-   * Gets the beat farthest to the left of the start beat of the given unit such that all beats
-   * between (and including) that beat and the start beat are empty. If the beat directly to the
-   * left of the start beat is not empty, then the start beat is returned.
+   * Performs the given action on the ID of each unit in this layer in order of increasing start
+   * beat, without creating any units.
    *
-   * @param unit the unit to check
-   * @return the furthest free beat to the left of the start beat of the given beat
+   * @param action the action to perform on each unit ID
    */
-  public int leftFreeBeat(Unit unit) {
-    return this.leftFreeBeat(unit.getStartBeat());
+  void forEachUnitId(LongConsumer action) {
+    this.lock.readLocked(() -> {
+      for (int i = 0; i < this.units.size(); i++) {
+        action.accept(this.units.getId(i));
+      }
+
+      return null;
+    });
   }
 
   /**
-   * Gets the beat farthest to the right of the given beat such that all beats between (and
-   * including) that beat and the given beat are empty. If the beat directly to the right of the
-   * given beat is not empty, then the given beat is returned. If there are no notes to the right of
-   * the given beat, then the maximum song length is returned.
+   * Returns the units in this layer encoded as single {@code long}s (see {@link UnitCodec}), sorted
+   * in order of increasing start beat.
    *
-   * @param beat the beat to check
-   * @return the furthest free beat to the right of the given beat
-   * @throws IllegalArgumentException if the given beat is less than 0
+   * @return the encoded units in this layer
    */
-  public int rightFreeBeat(int beat) throws IllegalArgumentException {
-    if (beat < 0) {
-      throw new IllegalArgumentException("Beat cannot be less than 0.");
+  public long[] getEncodedUnits() {
+    return this.lock.readLocked(() -> {
+      long[] encodedUnits = new long[this.units.size()];
+
+      for (int i = 0; i < encodedUnits.length; i++) {
+        encodedUnits[i] = this.units.getEncoded(i);
+      }
+
+      return encodedUnits;
+    });
+  }
+
+  /**
+   * Adds all of the given encoded units (see {@link UnitCodec}) to this layer as a single batch
+   * (see {@link #applyBatch(LayerBatch)}), so listeners are notified once however many units are
+   * added. The given units do not need to be sorted. If any of the given units cannot be added, no
+   * units are added.
+   *
+   * @param encodedUnits the encoded units to add
+   * @throws BatchConflictException if any of the given units overlap each other or any existing
+   *                                units in this layer
+   */
+  public void addEncodedUnits(long[] encodedUnits) throws BatchConflictException {
+    LayerBatch batch = new LayerBatch();
+
+    for (long encoded : encodedUnits) {
+      batch.addUnit(UnitCodec.decode(encoded));
     }
 
-    if (this.units.size() == 0) {
-      return MIDI.MAX_BEATS;
+    this.applyBatch(batch);
+  }
+
+  /**
+   * Adds the given unit to this layer.
+   *
+   * @param unit the unit to add
+   * @throws IllegalArgumentException if the new unit starts before beat 0, overlaps with any
+   *                                  existing units in this layer, or has the same ID as a unit
+   *                                  already in this layer
+   */
+  public void addUnit(Unit unit) throws IllegalArgumentException {
+    if (unit.getStartBeat() < 0) {
+      throw new IllegalArgumentException("New unit cannot start before the first beat.");
     }
 
-    Collections.sort(this.units);
+    this.write(() -> {
+      if (this.unitStarts.containsKey(unit.getId())) {
+        throw new IllegalArgumentException("Unit is already in this layer.");
+      }
 
-    int numUnits = this.units.size();
+      if (this.rangeOverlapsUnit(unit.getStartBeat(), unit.getEndBeat(), null)) {
+        throw new IllegalArgumentException("New unit cannot overlap existing units.");
+      }
+
+      // encoded before anything changes, so a unit which cannot be recorded leaves no trace
+      long[] after = unitPair(unit.getId(), UnitCodec.encode(unit));
+      int index = this.unitsStartingBy(unit.getStartBeat());
+      this.units.add(index, unit);
+      this.unitStarts.put(unit.getId(), unit.getStartBeat());
+
+      if (!this.isPacked()) {
+        unit.setLayer(this);
+      }
+
+      this.gaps.unitAdded(this.units, index);
+      return this.unitsChanged(index, this.lastEndBeat(),
+          new SongEvent(SongEvent.Type.UnitAdded, this, unit.getStartBeat(), unit.getEndBeat(),
+              null, after));
+    });
+  }
+
+  /**
+   * Removes the given unit from this layer if it is present. Units are matched by ID, so a copy
+   * returned by a packed layer removes the unit it was copied from.
+   *
+   * @param unit the unit to remove
+   */
+  public void removeUnit(Unit unit) {
+    this.write(() -> {
+      int index = this.indexOfUnit(unit.getId());
+
+      if (index == -1) {
+        return null;
+      }
+
+      Unit removed = this.units.get(index);
+      long[] before = unitPair(removed.getId(), this.units.getEncoded(index));
+
+      this.units.remove(index);
+      this.unitStarts.remove(removed.getId());
+      removed.setLayer(null);
+
+      this.gaps.unitRemoved(this.units, index);
+      return this.unitsChanged(index, this.lastEndBeat(), new SongEvent(
+          SongEvent.Type.UnitRemoved, this, removed.getStartBeat(), removed.getEndBeat(), before,
+          null));
+    });
+  }
+
+  /**
+   * Returns a new list of the pattern instances in this layer, sorted in order of increasing start
+   * beat.
+   *
+   * @return the list of pattern instances in this layer
+   */
+  public List<PatternInstance> getPatternInstances() {
+    return this.lock.readLocked(() -> List.copyOf(this.instances));
+  }
+
+  /**
+   * Adds the given pattern instance to this layer.
+   *
+   * @param instance the pattern instance to add
+   * @throws IllegalArgumentException if the instance overlaps any existing units or pattern
+   *                                  instances in this layer
+   */
+  public void addPatternInstance(PatternInstance instance) throws IllegalArgumentException {
+    this.write(() -> {
+      if (this.rangeOverlapsUnit(instance.getStartBeat(), instance.getEndBeat(), null)) {
+        throw new IllegalArgumentException("Pattern instance cannot overlap existing units.");
+      }
+
+      this.instances.add(this.instancesStartingBy(instance.getStartBeat()), instance);
+
+      return this.unitsChanged(this.units.size(), this.lastEndBeat(),
+          new SongEvent(SongEvent.Type.PatternAdded, this, instance.getStartBeat(),
+              instance.getEndBeat(), new PatternInstance[0], new PatternInstance[] {instance}));
+    });
+  }
+
+  /**
+   * Removes the given pattern instance from this layer if it is present.
+   *
+   * @param instance the pattern instance to remove
+   */
+  public void removePatternInstance(PatternInstance instance) {
+    this.write(() -> {
+      int index = this.instancesStartingBy(instance.getStartBeat()) - 1;
+
+      if (index < 0 || this.instances.get(index) != instance) {
+        return null;
+      }
+
+      this.instances.remove(index);
+
+      return this.unitsChanged(this.units.size(), this.lastEndBeat(),
+          new SongEvent(SongEvent.Type.PatternRemoved, this, instance.getStartBeat(),
+              instance.getEndBeat(), new PatternInstance[] {instance}, new PatternInstance[0]));
+    });
+  }
+
+  /**
+   * Determines if every instance of the given pattern in this layer could play the given
+   * replacement pattern instead without overlapping anything else in this layer.
+   *
+   * @param pattern     the pattern to replace
+   * @param replacement the pattern to replace it with
+   * @return whether or not the given pattern can be replaced in this layer
+   */
+  boolean canReplacePattern(Pattern pattern, Pattern replacement) {
+    return this.lock.read(() -> {
+      for (int i = 0; i < this.instances.size(); i++) {
+        PatternInstance instance = this.instances.get(i);
 
-    for (int i = numUnits - 1; i >= 0; i--) {
+        if (instance.getPattern() == pattern) {
+          long newEndBeat = instance.getStartBeat()
+              + (long) replacement.getLength() * instance.getRepeats() - 1;
 
-      Unit unit = this.units.get(i);
+          // nothing can start inside the old instance, so only what follows it can be in the way
+          int nextUnit = this.unitsStartingBy(instance.getStartBeat());
 
-      if (unit.getStartBeat() <= beat) {
-        if (i == numUnits - 1) {
-          return MIDI.MAX_BEATS;
-        } else {
-          return this.units.get(i + 1).getStartBeat() - 1;
+          if (newEndBeat > MIDI.MAX_BEATS
+              || (nextUnit < this.units.size() && this.units.getStartBeat(nextUnit) <= newEndBeat)
+              || (i + 1 < this.instances.size()
+              && this.instances.get(i + 1).getStartBeat() <= newEndBeat)) {
+            return false;
+          }
         }
       }
-    }
 
-    return this.units.get(0).getStartBeat() - 1;
+      return true;
+    });
   }
 
   /**
-   * Gets the beat farthest to the right of the end beat of the given unit such that all beats
-   * between (and including) that beat and the end beat are empty. If the beat directly to the right
-   * of the end beat is not empty, then the end beat is returned. If there are no notes to the right
-   * of the end beat, then the maximum song length is returned.
+   * Makes every instance of the given pattern in this layer play the given replacement pattern
+   * instead, keeping the start beat and number of repeats of each instance.
    *
-   * @param unit the unit to check
-   * @return the furthest free beat to the right of the end beat of the given beat
+   * @param pattern     the pattern to replace
+   * @param replacement the pattern to replace it with
+   * @throws IllegalArgumentException if any instance would overlap other units or pattern
+   *                                  instances once it plays the replacement pattern
    */
-  public int rightFreeBeat(Unit unit) {
-    return this.rightFreeBeat(unit.getEndBeat());
+  public void replacePattern(Pattern pattern, Pattern replacement) throws IllegalArgumentException {
+    this.write(() -> {
+      if (!this.canReplacePattern(pattern, replacement)) {
+        throw new IllegalArgumentException("Replacement pattern cannot overlap existing units.");
+      }
+
+      int startBeat = Integer.MAX_VALUE;
+      int endBeat = 0;
+      List<PatternInstance> before = new ArrayList<>();
+      List<PatternInstance> after = new ArrayList<>();
+
+      for (int i = 0; i < this.instances.size(); i++) {
+        PatternInstance instance = this.instances.get(i);
+
+        if (instance.getPattern() == pattern) {
+          PatternInstance replaced = instance.withPattern(replacement);
+          this.instances.set(i, replaced);
+          before.add(instance);
+          after.add(replaced);
+
+          startBeat = Math.min(startBeat, instance.getStartBeat());
+          endBeat = Math.max(endBeat, Math.max(instance.getEndBeat(), replaced.getEndBeat()));
+        }
+      }
+
+      if (startBeat > endBeat) {
+        return null;
+      }
+
+      return this.unitsChanged(this.units.size(), this.lastEndBeat(),
+          new SongEvent(SongEvent.Type.PatternEdited, this, startBeat, endBeat,
+              before.toArray(new PatternInstance[0]), after.toArray(new PatternInstance[0])));
+    });
+  }
+
+  /**
+   * Finds every conflict which would stop the given batch from being applied to this layer: units
+   * or pattern instances to remove or move which are not in this layer or are changed more than
+   * once, units placed before the first beat, and units and pattern instances which would overlap
+   * once the batch is applied.
+   *
+   * @param batch the batch to check
+   * @return a description of each conflict in the batch, or an empty list if there are none
+   */
+  public List<String> checkBatch(LayerBatch batch) {
+    return this.lock.readLocked(() -> {
+      List<String> conflicts = new ArrayList<>();
+      this.planBatch(batch, new BitSet(), new ArrayList<>(), conflicts);
+
+      return conflicts;
+    });
   }
 
   /**
-   * Sorts this layer's units in order of increasing end beat. Note that units never overlap.
+   * Applies all of the unit and pattern instance changes and the changes to the settings of this
+   * layer in the given batch at once. The whole batch is checked in a single sweep over this layer
+   * before anything is changed, and listeners are notified once after every change has been made.
+   *
+   * @param batch the batch to apply
+   * @throws BatchConflictException if the batch has any conflicts (see {@link
+   *                                #checkBatch(LayerBatch)}), in which case this layer is not
+   *                                changed
    */
-  public void sortUnits() {
-    Collections.sort(this.units);
+  public void applyBatch(LayerBatch batch) throws BatchConflictException {
+    this.write(() -> {
+      BitSet touched = new BitSet();
+      List<PatternInstance> instances = new ArrayList<>();
+      List<String> conflicts = new ArrayList<>();
+      List<Placement> placements = this.planBatch(batch, touched, instances, conflicts);
+
+      if (!conflicts.isEmpty()) {
+        throw new BatchConflictException(conflicts);
+      }
+
+      // nothing from here on can fail, since the plan has checked every change against what this
+      // layer will hold once the batch is applied
+      List<SongEvent> events = new ArrayList<>();
+
+      if (batch.hasInstanceChanges()) {
+        events.add(this.replaceInstances(batch, instances));
+      }
+
+      if (batch.hasUnitChanges()) {
+        events.add(this.placeUnits(placements, touched));
+      }
+
+      if (batch.getName() != null && !batch.getName().equals(this.name)) {
+        Object before = this.name;
+        this.name = batch.getName();
+        events.add(this.settingsChanged(SongEvent.Type.LayerRenamed, before, this.name));
+      }
+
+      if (batch.getVolume() != null && batch.getVolume() != this.volume) {
+        Object before = this.volume;
+        this.volume = batch.getVolume();
+        events.add(this.settingsChanged(SongEvent.Type.VolumeChanged, before, this.volume));
+      }
+
+      if (batch.getColor() != null && batch.getColor() != this.color) {
+        Object before = this.color;
+        this.color = batch.getColor();
+        events.add(this.settingsChanged(SongEvent.Type.ColorChanged, before, this.color));
+      }
+
+      if (batch.getMute() != null && batch.getMute() != this.mute) {
+        this.mute = batch.getMute();
+        events.add(this.settingsChanged(SongEvent.Type.MuteChanged, !this.mute, this.mute));
+      }
+
+      if (events.size() < 2) {
+        return events.isEmpty() ? null : events.get(0);
+      }
+
+      int startBeat = Integer.MAX_VALUE;
+      int endBeat = 0;
+
+      for (SongEvent event : events) {
+        startBeat = Math.min(startBeat, event.getStartBeat());
+        endBeat = Math.max(endBeat, event.getEndBeat());
+      }
+
+      return new SongEvent(SongEvent.Type.UnitsChanged, this, startBeat, endBeat, events);
+    });
+  }
+
+  /**
+   * Replaces the pattern instances in this layer with the given ones, which are what the given
+   * batch leaves once it has been applied.
+   *
+   * @param batch     the batch being applied
+   * @param instances every pattern instance in this layer once the batch is applied, sorted in
+   *                  order of increasing start beat
+   * @return the event to send
+   */
+  private SongEvent replaceInstances(LayerBatch batch, List<PatternInstance> instances) {
+    int startBeat = Integer.MAX_VALUE;
+    int endBeat = 0;
+
+    for (List<PatternInstance> changed : List.of(batch.getRemovedInstances(),
+        batch.getAddedInstances())) {
+      for (PatternInstance instance : changed) {
+        startBeat = Math.min(startBeat, instance.getStartBeat());
+        endBeat = Math.max(endBeat, instance.getEndBeat());
+      }
+    }
+
+    this.instances.clear();
+    this.instances.addAll(instances);
+
+    return this.unitsChanged(this.units.size(), this.lastEndBeat(),
+        new SongEvent(SongEvent.Type.PatternEdited, this, startBeat, endBeat,
+            batch.getRemovedInstances().toArray(new PatternInstance[0]),
+            batch.getAddedInstances().toArray(new PatternInstance[0])));
+  }
+
+  /**
+   * Takes the units marked in the given set out of this layer and places the given units at their
+   * new beats, once a batch has been checked.
+   *
+   * @param placements the units added or moved by the batch with their new beats, sorted by start
+   *                   beat
+   * @param touched    the indices of the units the batch removes or moves
+   * @return the event to send
+   */
+  private SongEvent placeUnits(List<Placement> placements, BitSet touched) {
+    int eventStart = Integer.MAX_VALUE;
+    int eventEnd = 0;
+
+    int size = this.units.size();
+    List<Unit> kept = new ArrayList<>(size - touched.cardinality());
+    long[] before = new long[2 * touched.cardinality()];
+    long[] after = new long[2 * placements.size()];
+    int taken = 0;
+
+    // every unit is encoded before anything changes, so a batch which cannot be recorded
+    // leaves this layer as it was
+    for (int i = touched.nextSetBit(0); i >= 0; i = touched.nextSetBit(i + 1)) {
+      before[taken++] = this.units.getId(i);
+      before[taken++] = this.units.getEncoded(i);
+    }
+
+    for (int i = 0; i < placements.size(); i++) {
+      Placement placement = placements.get(i);
+
+      after[2 * i] = placement.unit.getId();
+      after[2 * i + 1] = UnitCodec.withStartEnd(UnitCodec.encode(placement.unit),
+          placement.startBeat, placement.endBeat);
+    }
+
+    for (int i = 0; i < size; i++) {
+      if (touched.get(i)) {
+        eventStart = Math.min(eventStart, this.units.getStartBeat(i));
+        eventEnd = Math.max(eventEnd, this.units.getEndBeat(i));
+
+        this.unitStarts.remove(this.units.getId(i));
+        this.units.get(i).setLayer(null);
+      } else {
+        kept.add(this.units.get(i));
+      }
+    }
+
+    this.units.clear();
+
+    // the plan has already checked the new beats, so they are set without checking them again
+    // against a store which is part way through being rebuilt
+    this.placingUnits = true;
+
+    try {
+      for (Placement placement : placements) {
+        if (placement.moved) {
+          placement.unit.setStartEnd(placement.startBeat, placement.endBeat, this);
+        }
+      }
+    } finally {
+      this.placingUnits = false;
+    }
+
+    int firstChanged = touched.isEmpty() ? size : touched.nextSetBit(0);
+    int keptIndex = 0;
+
+    for (Placement placement : placements) {
+      while (keptIndex < kept.size()
+          && kept.get(keptIndex).getStartBeat() < placement.startBeat) {
+        this.units.add(this.units.size(), kept.get(keptIndex++));
+      }
+
+      firstChanged = Math.min(firstChanged, this.units.size());
+      eventStart = Math.min(eventStart, placement.startBeat);
+      eventEnd = Math.max(eventEnd, placement.endBeat);
+
+      this.units.add(this.units.size(), placement.unit);
+      this.unitStarts.put(placement.unit.getId(), placement.startBeat);
+
+      if (!this.isPacked()) {
+        placement.unit.setLayer(this);
+      }
+    }
+
+    while (keptIndex < kept.size()) {
+      this.units.add(this.units.size(), kept.get(keptIndex++));
+    }
+
+    // every unit from the first placed one onward has been added again, so the gaps are rebuilt
+    this.gaps.invalidate();
+    return this.unitsChanged(firstChanged, this.lastEndBeat(),
+        new SongEvent(SongEvent.Type.UnitsChanged, this, eventStart, eventEnd, before, after));
+  }
+
+  /**
+   * Checks that the given unit can move to the given beats without overlapping anything else in
+   * this layer, then updates the final beat and the position of the unit in this layer and makes
+   * the given change to its beats, all while no other thread can read or edit this layer. While
+   * this layer is applying a batch, which has already checked the new beats, the change is simply
+   * made.
+   *
+   * @param unit         the unit that is being edited
+   * @param newStartBeat the start beat the unit is being moved to
+   * @param newEndBeat   the end beat the unit is being moved to
+   * @param change       the change which sets the new beats of the unit
+   * @throws IllegalArgumentException if the new beats overlap another unit or a pattern instance
+   *                                  in this layer, in which case nothing is changed
+   */
+  public void checkEditUnit(Unit unit, int newStartBeat, int newEndBeat, Runnable change)
+      throws IllegalArgumentException {
+    this.write(() -> {
+      if (this.placingUnits) {
+        change.run();
+        return null;
+      }
+
+      if (this.rangeOverlapsUnit(newStartBeat, newEndBeat, unit)) {
+        throw new IllegalArgumentException("Unit cannot overlap existing units.");
+      }
+
+      return this.moveUnit(unit, newStartBeat, newEndBeat, change);
+    });
+  }
+
+  /**
+   * Moves the given unit to its new position in this layer and then makes the given change to its
+   * beats. Only the change is made if the given unit is not in this layer.
+   *
+   * @param unit         the unit that is being edited
+   * @param newStartBeat the start beat the unit is being moved to
+   * @param newEndBeat   the end beat the unit is being moved to
+   * @param change       the change which sets the new beats of the unit
+   * @return the event to send, or {@code null} if the unit is not in this layer
+   */
+  private SongEvent moveUnit(Unit unit, int newStartBeat, int newEndBeat, Runnable change) {
+    int index = this.unitsStartingBy(unit.getStartBeat()) - 1;
+
+    if (index < 0 || this.units.get(index) != unit) {
+      change.run();
+      return null;
+    }
+
+    // both versions are encoded before anything changes, so a failed move leaves no trace
+    long oldUnit = this.units.getEncoded(index);
+    long[] before = unitPair(unit.getId(), oldUnit);
+    long[] after =
+        unitPair(unit.getId(), UnitCodec.withStartEnd(oldUnit, newStartBeat, newEndBeat));
+
+    this.units.remove(index);
+    int newIndex = this.unitsStartingBy(newStartBeat);
+    this.units.add(newIndex, unit);
+
+    this.unitStarts.put(unit.getId(), newStartBeat);
+
+    // the unit itself still holds its old beats at this point
+    int lastIndex = this.units.size() - 1;
+
+    int finalBeat = (newIndex == lastIndex) ? newEndBeat : this.units.getEndBeat(lastIndex);
+    finalBeat = Math.max(finalBeat, this.lastInstanceEndBeat());
+
+    SongEvent event = new SongEvent(SongEvent.Type.UnitResized, this,
+        Math.min(unit.getStartBeat(), newStartBeat), Math.max(unit.getEndBeat(), newEndBeat),
+        before, after);
+    change.run();
+
+    // only the gaps on either side of the old and new places of the unit change
+    this.gaps.unitMoved(this.units, index, newIndex);
+    return this.unitsChanged(Math.min(index, newIndex), finalBeat, event);
+  }
+
+  /**
+   * Makes the given change to the instrument, pitch, or octave of the given unit while no other
+   * thread can read this layer, and notifies listeners if the unit is in this layer.
+   *
+   * @param unit   the unit being edited
+   * @param change the change to make to the unit
+   */
+  public void unitEdited(Unit unit, Runnable change) {
+    this.write(() -> {
+      int index = this.unitsStartingBy(unit.getStartBeat()) - 1;
+
+      if (index < 0 || this.units.get(index) != unit) {
+        change.run();
+        return null;
+      }
+
+      // the change only touches the sound of the unit, which always encodes, so once the old
+      // unit is encoded the new one can be too and the change is never left half recorded
+      long oldUnit = this.units.getEncoded(index);
+      change.run();
+
+      // the beats of the unit are not changed, so neither are the gaps
+      return this.unitsChanged(index, this.finalBeat,
+          new SongEvent(SongEvent.Type.UnitEdited, this, unit.getStartBeat(), unit.getEndBeat(),
+              unitPair(unit.getId(), oldUnit), unitPair(unit.getId(), UnitCodec.encode(unit))));
+    });
+  }
+
+  /**
+   * Gets a hash of the name, volume, color, mute setting, units, and pattern instances of this
+   * layer. Layers with the same content always have the same hash, even in a different run of the
+   * program, while unit IDs and whether or not the layer is packed do not affect it. The hash is
+   * kept up to date as this layer is edited, so getting it does not look at any units.
+   *
+   * @return the content hash of this layer
+   */
+  public long contentHash() {
+    return this.lock.read(() -> {
+      long hash = ContentHash.combine(ContentHash.of(this.name), this.volume);
+      hash = ContentHash.combine(hash, ContentHash.of(this.color.name()));
+      hash = ContentHash.combine(hash, this.mute ? 1 : 0);
+      hash = ContentHash.combine(hash, this.unitHash);
+
+      return ContentHash.combine(hash, this.instanceHash);
+    });
+  }
+
+  /**
+   * Returns an immutable snapshot of this layer as it is now. If this layer has not changed since
+   * the last snapshot was taken, the same snapshot is returned.
+   *
+   * @return a snapshot of this layer
+   */
+  public LayerSnapshot snapshot() {
+    return this.lock.readLocked(() -> {
+      synchronized (this.snapshotLock) {
+        return this.updateSnapshot();
+      }
+    });
+  }
+
+  /**
+   * Brings the cached snapshot of this layer up to date, reusing every full run of units which has
+   * not changed since the last snapshot was taken. Must be called while holding the snapshot lock.
+   *
+   * @return the up to date snapshot of this layer
+   */
+  private LayerSnapshot updateSnapshot() {
+    if (this.snapshotCurrent) {
+      return this.snapshot;
+    }
+
+    int size = this.units.size();
+    int runLength = LayerSnapshot.RUN_LENGTH;
+    long[][] runs = new long[(size + runLength - 1) / runLength][];
+
+    // full runs before the first changed unit are identical to those of the previous snapshot
+    int sharedRuns = 0;
+
+    if (this.snapshot != null) {
+      sharedRuns = Math.min(this.unchangedUnits, this.snapshot.getUnitCount()) / runLength;
+    }
+
+    for (int i = 0; i < runs.length; i++) {
+      if (i < sharedRuns) {
+        runs[i] = this.snapshot.getRun(i);
+      } else {
+        long[] run = new long[Math.min(runLength, size - i * runLength)];
+
+        for (int j = 0; j < run.length; j++) {
+          run[j] = this.units.getEncoded(i * runLength + j);
+        }
+
+        runs[i] = run;
+      }
+    }
+
+    this.snapshot = new LayerSnapshot(this.name, this.volume, this.color, this.mute, runs, size,
+        this.instances);
+    this.snapshotCurrent = true;
+    this.unchangedUnits = size;
+
+    return this.snapshot;
+  }
+
+  /**
+   * Determines if the given beat overlaps with any existing units in this layer. This takes
+   * logarithmic time in the number of units, however many beats they cover.
+   *
+   * @param beat the beat to check
+   * @return whether or not the given beat overlaps with any existing units in this layer
+   */
+  public boolean beatOverlapsUnit(int beat) {
+    return this.beatOverlapsUnit(beat, null);
+  }
+
+  /**
+   * Determines if the given beat overlaps with any existing units in this layer, ignoring the given
+   * unit to ignore.
+   *
+   * @param beat         the beat to check
+   * @param unitToIgnore the unit to ignore when checking for overlaps
+   * @return whether or not the given beat overlaps with any existing units in this layer aside from
+   * the given unit
+   */
+  public boolean beatOverlapsUnit(int beat, Unit unitToIgnore) {
+    return this.lock.read(() -> {
+      // only the last unit starting at or before the beat can contain it
+      int index = this.unitsStartingBy(beat) - 1;
+
+      if (index >= 0 && this.units.getEndBeat(index) >= beat
+          && (unitToIgnore == null || this.units.getId(index) != unitToIgnore.getId())) {
+        return true;
+      }
+
+      return this.instanceOverlapping(beat, beat) != null;
+    });
+  }
+
+  /**
+   * Determines if the given range overlaps any existing units in this layer, ignoring the given
+   * unit to ignore.
+   *
+   * @param start        the start beat of the range
+   * @param end          the end beat of the range
+   * @param unitToIgnore the unit to ignore when checking for overlaps
+   * @return whether or not the given range overlaps with any existing units in this layer aside
+   * from the given unit
+   */
+  public boolean rangeOverlapsUnit(int start, int end, Unit unitToIgnore) {
+    return this.lock.read(() -> {
+      // walks forwards from the first unit which ends at or after the start of the range (at most
+      // the ignored unit and one other are seen)
+      for (int i = this.unitsEndingBefore(start);
+          i < this.units.size() && this.units.getStartBeat(i) <= end; i++) {
+        if (unitToIgnore == null || this.units.getId(i) != unitToIgnore.getId()) {
+          return true;
+        }
+      }
+
+      return this.instanceOverlapping(start, end) != null;
+    });
+  }
+
+  /**
+   * Gets the beat farthest to the left of the given beat such that all beats between (and
+   * including) that beat and the given beat are empty. If the beat directly to the left of the
+   * given beat is not empty, then the given beat is returned.
+   *
+   * @param beat the beat to check
+   * @return the furthest free beat to the left of the given beat
+   * @throws IllegalArgumentException if the given beat is less than 0
+   */
+  public int leftFreeBeat(int beat) throws IllegalArgumentException {
+    if (beat < 0) {
+      throw new IllegalArgumentException("Beat cannot be less than 0.");
+    }
+
+    return this.lock.read(() -> {
+      // the free space ends at the last unit which ends before the given beat
+      int index = this.unitsStartingBy(beat) - 1;
+
+      if (index >= 0 && this.units.getEndBeat(index) >= beat) {
+        index--;
+      }
+
+      int leftFreeBeat = (index < 0) ? 0 : this.units.getEndBeat(index) + 1;
+
+      // the same goes for the last pattern instance which ends before the given beat
+      int instanceIndex = this.instancesStartingBy(beat) - 1;
+
+      if (instanceIndex >= 0 && this.instances.get(instanceIndex).getEndBeat() >= beat) {
+        instanceIndex--;
+      }
+
+      if (instanceIndex >= 0) {
+        leftFreeBeat = Math.max(leftFreeBeat, this.instances.get(instanceIndex).getEndBeat() + 1);
+      }
+
+      return leftFreeBeat;
+    });
+  }
+
+  /**
+   * Gets the beat farthest to the left of the start beat of the given unit such that all beats
+   * between (and including) that beat and the start beat are empty. If the beat directly to the
+   * left of the start beat is not empty, then the start beat is returned.
+   *
+   * @param unit the unit to check
+   * @return the furthest free beat to the left of the start beat of the given beat
+   */
+  public int leftFreeBeat(Unit unit) {
+    return this.leftFreeBeat(unit.getStartBeat());
+  }
+
+  /**
+   * Gets the beat farthest to the right of the given beat such that all beats between (and
+   * including) that beat and the given beat are empty. If the beat directly to the right of the
+   * given beat is not empty, then the given beat is returned. If there are no notes to the right of
+   * the given beat, then the maximum song length is returned.
+   *
+   * @param beat the beat to check
+   * @return the furthest free beat to the right of the given beat
+   * @throws IllegalArgumentException if the given beat is less than 0
+   */
+  public int rightFreeBeat(int beat) throws IllegalArgumentException {
+    if (beat < 0) {
+      throw new IllegalArgumentException("Beat cannot be less than 0.");
+    }
+
+    return this.lock.read(() -> {
+      // the free space ends at the first unit or pattern instance which starts after the given beat
+      int index = this.unitsStartingBy(beat);
+      int instanceIndex = this.instancesStartingBy(beat);
+      int rightFreeBeat = MIDI.MAX_BEATS;
+
+      if (index < this.units.size()) {
+        rightFreeBeat = this.units.getStartBeat(index) - 1;
+      }
+
+      if (instanceIndex < this.instances.size()) {
+        rightFreeBeat = Math.min(rightFreeBeat,
+            this.instances.get(instanceIndex).getStartBeat() - 1);
+      }
+
+      return rightFreeBeat;
+    });
+  }
+
+  /**
+   * Gets the beat farthest to the right of the end beat of the given unit such that all beats
+   * between (and including) that beat and the end beat are empty. If the beat directly to the right
+   * of the end beat is not empty, then the end beat is returned. If there are no notes to the right
+   * of the end beat, then the maximum song length is returned.
+   *
+   * @param unit the unit to check
+   * @return the furthest free beat to the right of the end beat of the given beat
+   */
+  public int rightFreeBeat(Unit unit) {
+    return this.rightFreeBeat(unit.getEndBeat());
+  }
+
+  /**
+   * Finds the first beat at or after the given beat from which the given number of beats in a row
+   * are empty, so that a unit or phrase of that length could be placed there.
+   *
+   * @param beat   the first beat to consider
+   * @param length the number of empty beats needed
+   * @return the first beat of the empty run of beats, or -1 if there is no room before the maximum
+   * song length
+   * @throws IllegalArgumentException if the given beat is less than 0 or the given length is less
+   *                                  than 1
+   */
+  public int findGap(int beat, int length) throws IllegalArgumentException {
+    if (beat < 0) {
+      throw new IllegalArgumentException("Beat cannot be less than 0.");
+    }
+
+    if (length < 1) {
+      throw new IllegalArgumentException("Gap must be at least 1 beat long.");
+    }
+
+    // the gap index is updated by the first query after an edit, so queries cannot run
+    // optimistically or at the same time as each other
+    return this.lock.readLocked(() -> {
+      synchronized (this.gaps) {
+        int start = beat;
+
+        while (true) {
+          int found = this.findUnitGap(start, length);
+
+          if (found == -1) {
+            return -1;
+          }
+
+          // pattern instances are few, so any in the way are simply stepped over
+          PatternInstance instance = this.instanceOverlapping(found, found + length - 1);
+
+          if (instance == null) {
+            return found;
+          }
+
+          start = instance.getEndBeat() + 1;
+        }
+      }
+    });
+  }
+
+  /**
+   * Finds the first beat at or after the given beat from which the given number of beats in a row
+   * are free of units, ignoring pattern instances.
+   *
+   * @param beat   the first beat to consider
+   * @param length the number of empty beats needed
+   * @return the first beat of the empty run of beats, or -1 if there is no room
+   */
+  private int findUnitGap(int beat, int length) {
+    int index = this.unitsEndingBefore(beat);
+    long roomAtBeat = (index < this.units.size())
+        ? this.units.getStartBeat(index) - (long) beat : MIDI.MAX_BEATS + 1L - beat;
+
+    if (roomAtBeat >= length) {
+      return beat;
+    }
+
+    int unit = this.gaps.firstGapAfter(this.units, index, length);
+
+    return (unit == -1) ? -1 : this.units.getEndBeat(unit) + 1;
+  }
+
+  /**
+   * Adds the given listener to be notified after every change to the units or settings of this
+   * layer.
+   *
+   * @param listener the listener to add
+   */
+  public void addListener(SongListener listener) {
+    this.listeners.add(listener);
+  }
+
+  /**
+   * Removes the given listener from this layer if it is present.
+   *
+   * @param listener the listener to remove
+   */
+  public void removeListener(SongListener listener) {
+    this.listeners.remove(listener);
+  }
+
+  /**
+   * Makes the given edit to this layer while holding the write lock, then notifies all listeners of
+   * the events from the edit once the lock has been released.
+   *
+   * @param edit the edit to make, which returns the event to send or {@code null} if nothing
+   *             changed
+   */
+  private void write(Supplier<SongEvent> edit) {
+    for (SongEvent event : this.lock.write(edit)) {
+      for (SongListener listener : this.listeners) {
+        listener.songChanged(event);
+      }
+    }
+  }
+
+  /**
+   * Records that the units in this layer from the given index onward may have changed, sets the
+   * final beat of this layer to the given beat, moves on to the next version, and updates the
+   * content hashes of the units and instances in this layer from the ones the given event took out
+   * and put in.
+   *
+   * @param firstChanged the index of the first unit which may have changed
+   * @param finalBeat    the new final beat of this layer
+   * @param event        the change that was made
+   * @return the given event, to be sent once the edit is done
+   */
+  private SongEvent unitsChanged(int firstChanged, int finalBeat, SongEvent event) {
+    this.unchangedUnits = Math.min(this.unchangedUnits, firstChanged);
+    this.snapshotCurrent = false;
+    this.finalBeat = finalBeat;
+    this.version++;
+
+    this.unitHash += unitsHash(event.getAfter()) - unitsHash(event.getBefore());
+    this.instanceHash += instancesHash(event.getAfter()) - instancesHash(event.getBefore());
+
+    return event;
+  }
+
+  /**
+   * Gets the hash of the units recorded by an event, if the given value holds any.
+   *
+   * @param value the value recorded by the event
+   * @return the hash of the units, or 0 if the value does not hold units
+   */
+  private static long unitsHash(Object value) {
+    return (value instanceof long[]) ? ContentHash.ofUnits((long[]) value, 1, 2) : 0;
+  }
+
+  /**
+   * Gets the hash of the pattern instances recorded by an event, if the given value holds any.
+   *
+   * @param value the value recorded by the event
+   * @return the sum of the hashes of the instances, or 0 if the value does not hold instances
+   */
+  private static long instancesHash(Object value) {
+    long hash = 0;
+
+    if (value instanceof PatternInstance[]) {
+      for (PatternInstance instance : (PatternInstance[]) value) {
+        hash += ContentHash.mix(instance.contentHash());
+      }
+    }
+
+    return hash;
+  }
+
+  /**
+   * Records that the settings (name, volume, color, or mute setting) of this layer have changed.
+   *
+   * @param type   the type of setting which changed
+   * @param before the old value of the setting
+   * @param after  the new value of the setting
+   * @return the event to send once the edit is done
+   */
+  private SongEvent settingsChanged(SongEvent.Type type, Object before, Object after) {
+    return this.unitsChanged(this.units.size(), this.finalBeat,
+        new SongEvent(type, this, 0, this.finalBeat, before, after));
+  }
+
+  /**
+   * Pairs the ID of a unit with the unit encoded, as unit changes are recorded by events.
+   *
+   * @param id      the ID of the unit
+   * @param encoded the encoded unit
+   * @return the ID followed by the encoded unit
+   */
+  private static long[] unitPair(long id, long encoded) {
+    return new long[] {id, encoded};
+  }
+
+  /**
+   * Works out where each unit added or moved by the given batch would be placed, marking the index
+   * of every existing unit the batch removes or moves in the given set, filling the given list with
+   * the pattern instances this layer would have, and adding a description of every conflict found
+   * to the given list.
+   *
+   * <p>The placed units are sorted by their new start beat and swept together with the units which
+   * are not changed, comparing each unit only to whichever earlier unit ends last, so the whole
+   * check takes a single pass over this layer.
+   *
+   * @param batch     the batch to plan
+   * @param touched   the set to mark the indices of removed and moved units in
+   * @param instances the list to fill with the pattern instances in this layer once the batch is
+   *                  applied, sorted by start beat
+   * @param conflicts the list to add conflicts to
+   * @return the units added or moved by the batch with their new beats, sorted by start beat
+   */
+  private List<Placement> planBatch(LayerBatch batch, BitSet touched,
+      List<PatternInstance> instances, List<String> conflicts) {
+    List<Placement> placements = new ArrayList<>();
+
+    for (Unit unit : batch.getRemovals()) {
+      this.touchUnit(unit, touched, conflicts);
+    }
+
+    for (LayerBatch.Move move : batch.getMoves()) {
+      int index = this.touchUnit(move.unit, touched, conflicts);
+
+      if (index == -1) {
+        continue;
+      }
+
+      if (move.startBeat < 0 || move.endBeat < move.startBeat
+          || (long) move.endBeat - move.startBeat >= UnitCodec.MAX_DURATION) {
+        conflicts.add(String.format("Unit at beats %d-%d cannot be moved to beats %d-%d.",
+            move.unit.getStartBeat(), move.unit.getEndBeat(), move.startBeat, move.endBeat));
+      } else {
+        placements.add(new Placement(this.units.get(index), move.startBeat, move.endBeat, true));
+      }
+    }
+
+    Set<Long> addedIds = new HashSet<>();
+
+    for (Unit unit : batch.getAdditions()) {
+      int index = this.indexOfUnit(unit.getId());
+
+      if (unit.getStartBeat() < 0) {
+        conflicts.add(String.format("New unit at beats %d-%d starts before the first beat.",
+            unit.getStartBeat(), unit.getEndBeat()));
+      } else if ((index != -1 && !touched.get(index)) || !addedIds.add(unit.getId())) {
+        // a unit can only be added again if the batch also takes it out of its current place
+        conflicts.add(String.format("New unit at beats %d-%d is already in this layer.",
+            unit.getStartBeat(), unit.getEndBeat()));
+      } else {
+        placements.add(new Placement(unit, unit.getStartBeat(), unit.getEndBeat(), false));
+      }
+    }
+
+    placements.sort(Comparator.comparingInt(placement -> placement.startBeat));
+    this.planInstances(batch, touched, instances, conflicts);
+
+    for (Placement placement : placements) {
+      PatternInstance instance =
+          instanceOverlapping(instances, placement.startBeat, placement.endBeat);
+
+      if (instance != null) {
+        conflicts.add(String.format("%s at beats %d-%d overlaps pattern %s at beats %d-%d.",
+            placement.describe(), placement.startBeat, placement.endBeat,
+            instance.getPattern().getName(), instance.getStartBeat(), instance.getEndBeat()));
+      }
+    }
+
+    // each unit only needs comparing to the earlier unit which ends last, and since units which
+    // are not changed never overlap each other, every overlap found involves a placed unit
+    Placement last = null;
+    int index = touched.nextClearBit(0);
+    int placed = 0;
+
+    while (placed < placements.size() || index < this.units.size()) {
+      // once every placed unit ends before an unchanged one, nothing further can overlap
+      if (placed == placements.size() && (last == null || last.unit == null)) {
+        break;
+      }
+
+      Placement next;
+
+      if (index < this.units.size() && (placed == placements.size()
+          || this.units.getStartBeat(index) <= placements.get(placed).startBeat)) {
+        next = new Placement(null, this.units.getStartBeat(index), this.units.getEndBeat(index),
+            false);
+        index = touched.nextClearBit(index + 1);
+      } else {
+        next = placements.get(placed++);
+      }
+
+      if (last != null && last.endBeat >= next.startBeat) {
+        conflicts.add(next.overlapMessage(last));
+      }
+
+      if (last == null || next.endBeat > last.endBeat) {
+        last = next;
+      }
+    }
+
+    return placements;
+  }
+
+  /**
+   * Fills the given list with the pattern instances this layer would have once the given batch is
+   * applied, adding a description of every conflict found to the given list: instances to remove
+   * which are not in this layer or are removed more than once, and added instances which would
+   * overlap other instances or units the batch does not remove or move. Units placed by the batch
+   * are checked against the instances later, once they are known.
+   *
+   * @param batch     the batch to plan
+   * @param touched   the indices of the units the batch removes or moves, which must already be
+   *                  marked if the batch changes any units
+   * @param instances the list to fill with the pattern instances in this layer once the batch is
+   *                  applied, sorted by start beat
+   * @param conflicts the list to add conflicts to
+   */
+  private void planInstances(LayerBatch batch, BitSet touched, List<PatternInstance> instances,
+      List<String> conflicts) {
+    if (!batch.hasInstanceChanges()) {
+      instances.addAll(this.instances);
+      return;
+    }
+
+    Set<PatternInstance> removed = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    for (PatternInstance instance : batch.getRemovedInstances()) {
+      int index = this.instancesStartingBy(instance.getStartBeat()) - 1;
+
+      if (index < 0 || this.instances.get(index) != instance) {
+        conflicts.add(String.format("Pattern %s at beats %d-%d is not in this layer.",
+            instance.getPattern().getName(), instance.getStartBeat(), instance.getEndBeat()));
+      } else if (!removed.add(instance)) {
+        conflicts.add(String.format("Pattern %s at beats %d-%d is removed more than once.",
+            instance.getPattern().getName(), instance.getStartBeat(), instance.getEndBeat()));
+      }
+    }
+
+    List<PatternInstance> added = new ArrayList<>(batch.getAddedInstances());
+    added.sort(Comparator.comparingInt(PatternInstance::getStartBeat));
+
+    for (PatternInstance instance : added) {
+      // units never overlap each other, so only those from the first one ending in the instance
+      // onward can overlap it
+      for (int i = this.unitsEndingBefore(instance.getStartBeat());
+          i < this.units.size() && this.units.getStartBeat(i) <= instance.getEndBeat(); i++) {
+        if (!touched.get(i)) {
+          conflicts.add(String.format("Pattern %s at beats %d-%d overlaps unit at beats %d-%d.",
+              instance.getPattern().getName(), instance.getStartBeat(), instance.getEndBeat(),
+              this.units.getStartBeat(i), this.units.getEndBeat(i)));
+          break;
+        }
+      }
+    }
+
+    int kept = 0;
+    int next = 0;
+
+    while (kept < this.instances.size() || next < added.size()) {
+      PatternInstance instance;
+
+      if (kept < this.instances.size() && (next == added.size()
+          || this.instances.get(kept).getStartBeat() <= added.get(next).getStartBeat())) {
+        instance = this.instances.get(kept++);
+
+        if (removed.contains(instance)) {
+          continue;
+        }
+      } else {
+        instance = added.get(next++);
+      }
+
+      PatternInstance last = instances.isEmpty() ? null : instances.get(instances.size() - 1);
+
+      if (last != null && last.getEndBeat() >= instance.getStartBeat()) {
+        conflicts.add(String.format("Pattern %s at beats %d-%d overlaps pattern %s at beats %d-%d.",
+            instance.getPattern().getName(), instance.getStartBeat(), instance.getEndBeat(),
+            last.getPattern().getName(), last.getStartBeat(), last.getEndBeat()));
+      }
+
+      instances.add(instance);
+    }
+  }
+
+  /**
+   * Marks the index of the given unit in the given set, adding a conflict to the given list if the
+   * unit is not in this layer or has already been marked.
+   *
+   * @param unit      the unit to mark
+   * @param touched   the set of marked indices
+   * @param conflicts the list to add conflicts to
+   * @return the index of the given unit, or -1 if it could not be marked
+   */
+  private int touchUnit(Unit unit, BitSet touched, List<String> conflicts) {
+    int index = this.indexOfUnit(unit.getId());
+
+    if (index == -1) {
+      conflicts.add(String.format("Unit at beats %d-%d is not in this layer.",
+          unit.getStartBeat(), unit.getEndBeat()));
+      return -1;
+    }
+
+    if (touched.get(index)) {
+      conflicts.add(String.format("Unit at beats %d-%d is changed more than once.",
+          unit.getStartBeat(), unit.getEndBeat()));
+      return -1;
+    }
+
+    touched.set(index);
+    return index;
+  }
+
+  /**
+   * Gets the last beat taken up by any unit or pattern instance in this layer.
+   *
+   * @return the last beat taken up in this layer, or 0 if this layer is empty
+   */
+  private int lastEndBeat() {
+    int numUnits = this.units.size();
+    int lastUnitEndBeat = (numUnits == 0) ? 0 : this.units.getEndBeat(numUnits - 1);
+
+    return Math.max(lastUnitEndBeat, this.lastInstanceEndBeat());
+  }
+
+  /**
+   * Gets the last beat of the last pattern instance in this layer.
+   *
+   * @return the end beat of the last pattern instance, or 0 if there are none
+   */
+  private int lastInstanceEndBeat() {
+    int numInstances = this.instances.size();
+
+    return (numInstances == 0) ? 0 : this.instances.get(numInstances - 1).getEndBeat();
+  }
+
+  /**
+   * Gets the units played by the pattern instances in this layer which overlap the given range of
+   * beats, encoded and sorted in order of increasing start beat.
+   *
+   * @param startBeat the first beat of the range
+   * @param endBeat   the last beat of the range
+   * @return the encoded units played by pattern instances in the given range
+   */
+  private long[] expandInstances(int startBeat, int endBeat) {
+    if (this.instances.isEmpty()) {
+      return new long[0];
+    }
+
+    LongStream.Builder builder = LongStream.builder();
+
+    for (int i = this.instancesEndingBefore(startBeat);
+        i < this.instances.size() && this.instances.get(i).getStartBeat() <= endBeat; i++) {
+      this.instances.get(i).forEachEncodedUnit(startBeat, endBeat, builder);
+    }
+
+    return builder.build().toArray();
+  }
+
+  /**
+   * Finds the pattern instance in this layer which overlaps the given range of beats, if any.
+   *
+   * @param startBeat the first beat of the range
+   * @param endBeat   the last beat of the range
+   * @return the first pattern instance overlapping the given range, or {@code null} if there is
+   * none
+   */
+  private PatternInstance instanceOverlapping(int startBeat, int endBeat) {
+    return instanceOverlapping(this.instances, startBeat, endBeat);
+  }
+
+  /**
+   * Finds the pattern instance in the given list which overlaps the given range of beats, if any.
+   *
+   * @param instances pattern instances which do not overlap each other, sorted by start beat
+   * @param startBeat the first beat of the range
+   * @param endBeat   the last beat of the range
+   * @return the first pattern instance overlapping the given range, or {@code null} if there is
+   * none
+   */
+  private static PatternInstance instanceOverlapping(List<PatternInstance> instances,
+      int startBeat, int endBeat) {
+    int low = 0;
+    int high = instances.size();
+
+    // the first instance ending at or after the start of the range is the only one to check
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+
+      if (instances.get(mid).getEndBeat() < startBeat) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+
+    if (low < instances.size() && instances.get(low).getStartBeat() <= endBeat) {
+      return instances.get(low);
+    }
+
+    return null;
+  }
+
+  /**
+   * Counts the pattern instances in this layer which end before the given beat. Since instances
+   * never overlap, this is also the index of the first instance which could contain the given beat
+   * or any later one.
+   *
+   * @param beat the beat to check
+   * @return the number of pattern instances ending before the given beat
+   */
+  private int instancesEndingBefore(int beat) {
+    int index = this.instancesStartingBy(beat) - 1;
+
+    // only the last instance starting at or before the beat can still be playing at it
+    if (index < 0 || this.instances.get(index).getEndBeat() < beat) {
+      index++;
+    }
+
+    return index;
+  }
+
+  /**
+   * Counts the pattern instances in this layer which start at or before the given beat.
+   *
+   * @param beat the beat to check
+   * @return the number of pattern instances starting at or before the given beat
+   */
+  private int instancesStartingBy(int beat) {
+    int low = 0;
+    int high = this.instances.size();
+
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+
+      if (this.instances.get(mid).getStartBeat() <= beat) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+
+    return low;
+  }
+
+  /**
+   * Finds the index of the unit in this layer with the given ID.
+   *
+   * @param id the ID of the unit
+   * @return the index of the unit with the given ID, or -1 if this layer has no such unit
+   */
+  private int indexOfUnit(long id) {
+    Integer startBeat = this.unitStarts.get(id);
+
+    return (startBeat == null) ? -1 : this.unitsStartingBy(startBeat) - 1;
+  }
+
+  /**
+   * Counts the units in this layer which end before the given beat. Since units never overlap,
+   * they are sorted by end beat as well as start beat, so this is also the index of the first unit
+   * which could contain the given beat or any later one.
+   *
+   * @param beat the beat to check
+   * @return the number of units in this layer ending before the given beat
+   */
+  private int unitsEndingBefore(int beat) {
+    int low = 0;
+    int high = this.units.size();
+
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+
+      if (this.units.getEndBeat(mid) < beat) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+
+    return low;
+  }
+
+  /**
+   * Counts the units in this layer which start at or before the given beat. Since units are kept
+   * sorted, this is also the index at which a unit starting right after the given beat would be
+   * inserted.
+   *
+   * @param beat the beat to check
+   * @return the number of units in this layer starting at or before the given beat
+   */
+  private int unitsStartingBy(int beat) {
+    int low = 0;
+    int high = this.units.size();
+
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+
+      if (this.units.getStartBeat(mid) <= beat) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+
+    return low;
+  }
+
+  /**
+   * Represents a unit added or moved by a batch, placed at its new start and end beats, or a unit
+   * which the batch does not change (in which case the unit itself is not needed).
+   */
+  private static final class Placement {
+
+    private final Unit unit;
+    private final int startBeat;
+    private final int endBeat;
+    private final boolean moved;
+
+    /**
+     * Creates a placement of the given unit at the given start and end beats.
+     *
+     * @param unit      the unit being placed, or {@code null} for a unit which is not changed
+     * @param startBeat the start beat of the unit
+     * @param endBeat   the end beat of the unit
+     * @param moved     whether the unit is being moved rather than added
+     */
+    private Placement(Unit unit, int startBeat, int endBeat, boolean moved) {
+      this.unit = unit;
+      this.startBeat = startBeat;
+      this.endBeat = endBeat;
+      this.moved = moved;
+    }
+
+    /**
+     * Describes this placement overlapping the given placement.
+     *
+     * @param other the placement this one overlaps
+     * @return a description of the overlap
+     */
+    private String overlapMessage(Placement other) {
+      return String.format("%s at beats %d-%d overlaps %s at beats %d-%d.", this.describe(),
+          this.startBeat, this.endBeat, other.describe().toLowerCase(), other.startBeat,
+          other.endBeat);
+    }
+
+    /**
+     * Describes what kind of unit this placement is for.
+     *
+     * @return a description of this placement
+     */
+    private String describe() {
+      if (this.unit == null) {
+        return "Existing unit";
+      }
+
+      return this.moved ? "Moved unit" : "New unit";
+    }
   }
 }
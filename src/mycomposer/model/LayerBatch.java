@@ -0,0 +1,285 @@
+package mycomposer.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import mycomposer.model.unit.Unit;
+
+/**
+ * Represents a set of unit additions, removals, and moves, pattern instance additions and
+ * removals, and changes to the settings of a layer to be applied to the layer all at once (see
+ * {@link Layer#applyBatch(LayerBatch)}). Nothing happens to the layer until the batch is applied,
+ * at which point either every change is made or none are.
+ */
+public final class LayerBatch {
+
+  private final List<Unit> additions;
+  private final List<Unit> removals;
+  private final List<Move> moves;
+  private final List<PatternInstance> addedInstances;
+  private final List<PatternInstance> removedInstances;
+
+  private String name;
+  private Integer volume;
+  private LayerColor color;
+  private Boolean mute;
+
+  /**
+   * Creates an empty batch.
+   */
+  public LayerBatch() {
+    this.additions = new ArrayList<>();
+    this.removals = new ArrayList<>();
+    this.moves = new ArrayList<>();
+    this.addedInstances = new ArrayList<>();
+    this.removedInstances = new ArrayList<>();
+
+    this.name = null;
+    this.volume = null;
+    this.color = null;
+    this.mute = null;
+  }
+
+  /**
+   * Adds the given unit to the layer when this batch is applied.
+   *
+   * @param unit the unit to add
+   * @return this batch
+   */
+  public LayerBatch addUnit(Unit unit) {
+    this.additions.add(unit);
+    return this;
+  }
+
+  /**
+   * Removes the given unit from the layer when this batch is applied.
+   *
+   * @param unit the unit to remove
+   * @return this batch
+   */
+  public LayerBatch removeUnit(Unit unit) {
+    this.removals.add(unit);
+    return this;
+  }
+
+  /**
+   * Moves the given unit to the given start and end beats when this batch is applied.
+   *
+   * @param unit      the unit to move
+   * @param startBeat the new start beat of the unit
+   * @param endBeat   the new end beat of the unit
+   * @return this batch
+   */
+  public LayerBatch moveUnit(Unit unit, int startBeat, int endBeat) {
+    this.moves.add(new Move(unit, startBeat, endBeat));
+    return this;
+  }
+
+  /**
+   * Adds the given pattern instance to the layer when this batch is applied.
+   *
+   * @param instance the pattern instance to add
+   * @return this batch
+   */
+  public LayerBatch addPatternInstance(PatternInstance instance) {
+    this.addedInstances.add(instance);
+    return this;
+  }
+
+  /**
+   * Removes the given pattern instance from the layer when this batch is applied.
+   *
+   * @param instance the pattern instance to remove
+   * @return this batch
+   */
+  public LayerBatch removePatternInstance(PatternInstance instance) {
+    this.removedInstances.add(instance);
+    return this;
+  }
+
+  /**
+   * Renames the layer to the given name when this batch is applied.
+   *
+   * @param name the new name for the layer
+   * @return this batch
+   * @throws IllegalArgumentException if the given name is empty
+   */
+  public LayerBatch setName(String name) throws IllegalArgumentException {
+    if (name.length() == 0) {
+      throw new IllegalArgumentException("Layer name cannot be empty.");
+    }
+
+    this.name = name;
+    return this;
+  }
+
+  /**
+   * Sets the volume of the layer to the given value when this batch is applied.
+   *
+   * @param volume the new volume of the layer
+   * @return this batch
+   * @throws IllegalArgumentException if the given volume is less than 0 or greater than 100
+   */
+  public LayerBatch setVolume(int volume) throws IllegalArgumentException {
+    if (volume < 0 || volume > 100) {
+      throw new IllegalArgumentException("Volume must be between 0 and 100 inclusive.");
+    }
+
+    this.volume = volume;
+    return this;
+  }
+
+  /**
+   * Sets the color of the layer to the given color when this batch is applied.
+   *
+   * @param color the new color of the layer
+   * @return this batch
+   */
+  public LayerBatch setColor(LayerColor color) {
+    this.color = color;
+    return this;
+  }
+
+  /**
+   * Mutes or unmutes the layer when this batch is applied.
+   *
+   * @param mute whether or not the layer should be muted
+   * @return this batch
+   */
+  public LayerBatch setMute(boolean mute) {
+    this.mute = mute;
+    return this;
+  }
+
+  /**
+   * Returns whether or not this batch contains no changes.
+   *
+   * @return whether or not this batch is empty
+   */
+  public boolean isEmpty() {
+    return !this.hasUnitChanges() && !this.hasInstanceChanges() && this.name == null
+        && this.volume == null && this.color == null && this.mute == null;
+  }
+
+  /**
+   * Returns whether or not this batch adds, removes, or moves any units.
+   *
+   * @return whether or not this batch changes any units
+   */
+  boolean hasUnitChanges() {
+    return !this.additions.isEmpty() || !this.removals.isEmpty() || !this.moves.isEmpty();
+  }
+
+  /**
+   * Returns whether or not this batch adds or removes any pattern instances.
+   *
+   * @return whether or not this batch changes any pattern instances
+   */
+  boolean hasInstanceChanges() {
+    return !this.addedInstances.isEmpty() || !this.removedInstances.isEmpty();
+  }
+
+  /**
+   * Gets the units to be added by this batch.
+   *
+   * @return the units to be added
+   */
+  List<Unit> getAdditions() {
+    return Collections.unmodifiableList(this.additions);
+  }
+
+  /**
+   * Gets the units to be removed by this batch.
+   *
+   * @return the units to be removed
+   */
+  List<Unit> getRemovals() {
+    return Collections.unmodifiableList(this.removals);
+  }
+
+  /**
+   * Gets the units to be moved by this batch.
+   *
+   * @return the units to be moved
+   */
+  List<Move> getMoves() {
+    return Collections.unmodifiableList(this.moves);
+  }
+
+  /**
+   * Gets the pattern instances to be added by this batch.
+   *
+   * @return the pattern instances to be added
+   */
+  List<PatternInstance> getAddedInstances() {
+    return Collections.unmodifiableList(this.addedInstances);
+  }
+
+  /**
+   * Gets the pattern instances to be removed by this batch.
+   *
+   * @return the pattern instances to be removed
+   */
+  List<PatternInstance> getRemovedInstances() {
+    return Collections.unmodifiableList(this.removedInstances);
+  }
+
+  /**
+   * Gets the new name of the layer.
+   *
+   * @return the new name, or {@code null} if this batch does not rename the layer
+   */
+  String getName() {
+    return this.name;
+  }
+
+  /**
+   * Gets the new volume of the layer.
+   *
+   * @return the new volume, or {@code null} if this batch does not change the volume
+   */
+  Integer getVolume() {
+    return this.volume;
+  }
+
+  /**
+   * Gets the new color of the layer.
+   *
+   * @return the new color, or {@code null} if this batch does not change the color
+   */
+  LayerColor getColor() {
+    return this.color;
+  }
+
+  /**
+   * Gets the new mute setting of the layer.
+   *
+   * @return the new mute setting, or {@code null} if this batch does not change it
+   */
+  Boolean getMute() {
+    return this.mute;
+  }
+
+  /**
+   * Represents a single unit to be moved to new start and end beats.
+   */
+  static final class Move {
+
+    final Unit unit;
+    final int startBeat;
+    final int endBeat;
+
+    /**
+     * Creates a move of the given unit to the given start and end beats.
+     *
+     * @param unit      the unit to move
+     * @param startBeat the new start beat of the unit
+     * @param endBeat   the new end beat of the unit
+     */
+    Move(Unit unit, int startBeat, int endBeat) {
+      this.unit = unit;
+      this.startBeat = startBeat;
+      this.endBeat = endBeat;
+    }
+  }
+}
@@ -0,0 +1,296 @@
+package mycomposer.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import mycomposer.MIDI;
+import mycomposer.model.unit.Unit;
+import mycomposer.model.unit.UnitCodec;
+
+/**
+ * Represents a plan for merging the layers of a song which never play at the same time into fewer
+ * layers, along with a report of how much smaller the song becomes. Each layer in the editor takes
+ * a row of grid cells as wide as the song and each non-empty layer is a track in the MIDI sequence,
+ * so songs built up from many sparse layers get cheaper to show and to play once they are merged.
+ *
+ * <p>Two layers can be merged if they have the same volume, color and mute setting and none of
+ * their units overlap. Layers are taken in order, and each is merged into the first earlier layer
+ * which it can be merged with, checking for overlaps with a linear merge of the two sorted lists of
+ * units. Layers containing pattern instances are left as they are.
+ *
+ * <p>A plan is made with {@link #plan(Song)} and does nothing until it is applied with
+ * {@link #apply()}, so the report can be shown first.
+ */
+public final class LayerCompaction {
+
+  private final Song song;
+  private final Map<Layer, List<Layer>> merges;
+
+  private final int layersBefore;
+  private final int layersAfter;
+  private final int tracksBefore;
+  private final int tracksAfter;
+  private final int cellsPerLayer;
+
+  /**
+   * Creates a plan for the given song with the given merges.
+   *
+   * @param song          the song the plan is for
+   * @param merges        the layers merged into each layer which is kept
+   * @param layersBefore  the number of layers in the song
+   * @param tracksBefore  the number of tracks in the song
+   * @param removedTracks the number of tracks removed by the plan
+   * @param cellsPerLayer the number of grid cells in each layer
+   */
+  private LayerCompaction(Song song, Map<Layer, List<Layer>> merges, int layersBefore,
+      int tracksBefore, int removedTracks, int cellsPerLayer) {
+    this.song = song;
+    this.merges = Collections.unmodifiableMap(merges);
+
+    int removedLayers = 0;
+
+    for (List<Layer> sources : merges.values()) {
+      removedLayers += sources.size();
+    }
+
+    this.layersBefore = layersBefore;
+    this.layersAfter = layersBefore - removedLayers;
+    this.tracksBefore = tracksBefore;
+    this.tracksAfter = tracksBefore - removedTracks;
+    this.cellsPerLayer = cellsPerLayer;
+  }
+
+  /**
+   * Plans how to merge the layers of the given song into as few layers as the greedy approach
+   * described above allows. The song is not changed.
+   *
+   * @param song the song to plan for
+   * @return the plan
+   */
+  public static LayerCompaction plan(Song song) {
+    List<Layer> layers = song.getLayers();
+    List<Layer> targets = new ArrayList<>();
+    List<long[]> targetUnits = new ArrayList<>();
+    Map<Layer, List<Layer>> merges = new LinkedHashMap<>();
+
+    int tracksBefore = 0;
+    int removedTracks = 0;
+
+    for (Layer layer : layers) {
+      long[] units = layer.getEncodedUnits();
+      boolean hasInstances = !layer.getPatternInstances().isEmpty();
+
+      if (units.length > 0 || hasInstances) {
+        tracksBefore++;
+      }
+
+      if (hasInstances) {
+        continue;
+      }
+
+      boolean merged = false;
+
+      for (int i = 0; i < targets.size() && !merged; i++) {
+        Layer target = targets.get(i);
+
+        if (!sameSettings(target, layer)) {
+          continue;
+        }
+
+        long[] combined = mergeDisjoint(targetUnits.get(i), units);
+
+        if (combined != null) {
+          targetUnits.set(i, combined);
+          merges.computeIfAbsent(target, t -> new ArrayList<>()).add(layer);
+          merged = true;
+
+          if (units.length > 0) {
+            removedTracks++;
+          }
+        }
+      }
+
+      if (!merged) {
+        targets.add(layer);
+        targetUnits.add(units);
+      }
+    }
+
+    int finalBeat = song.getFinalBeat();
+    int cellsPerLayer = ((finalBeat == 0) ? 0 : finalBeat + 1) + MIDI.EXTRA_BEATS;
+
+    return new LayerCompaction(song, merges, layers.size(), tracksBefore, removedTracks,
+        cellsPerLayer);
+  }
+
+  /**
+   * Returns whether or not the given layers have the same volume, color and mute setting.
+   *
+   * @param first  the first layer
+   * @param second the second layer
+   * @return whether or not the layers sound and look the same
+   */
+  private static boolean sameSettings(Layer first, Layer second) {
+    return first.getVolume() == second.getVolume() && first.getColor() == second.getColor()
+        && first.isMute() == second.isMute();
+  }
+
+  /**
+   * Merges the given lists of encoded units, each sorted in order of increasing start beat, into a
+   * single sorted list, in time linear in the total number of units.
+   *
+   * @param first  the first list of encoded units
+   * @param second the second list of encoded units
+   * @return the merged list, or {@code null} if any unit in one list overlaps a unit in the other
+   */
+  private static long[] mergeDisjoint(long[] first, long[] second) {
+    long[] merged = new long[first.length + second.length];
+    int i = 0;
+    int j = 0;
+    int lastEnd = -1;
+
+    for (int k = 0; k < merged.length; k++) {
+      long next;
+
+      if (j == second.length || (i < first.length
+          && UnitCodec.getStartBeat(first[i]) <= UnitCodec.getStartBeat(second[j]))) {
+        next = first[i++];
+      } else {
+        next = second[j++];
+      }
+
+      // units within each list never overlap, so any overlap is with the previous unit taken
+      if (UnitCodec.getStartBeat(next) <= lastEnd) {
+        return null;
+      }
+
+      lastEnd = UnitCodec.getEndBeat(next);
+      merged[k] = next;
+    }
+
+    return merged;
+  }
+
+  /**
+   * Gets the layers which will be merged into each layer that is kept, in song order. Layers not
+   * involved in any merge are left out.
+   *
+   * @return the layers merged into each kept layer
+   */
+  public Map<Layer, List<Layer>> getMerges() {
+    return this.merges;
+  }
+
+  /**
+   * Returns whether or not this plan merges any layers.
+   *
+   * @return whether or not applying this plan would change the song
+   */
+  public boolean isEmpty() {
+    return this.merges.isEmpty();
+  }
+
+  /**
+   * Gets the number of layers in the song before this plan is applied.
+   *
+   * @return the number of layers before
+   */
+  public int getLayersBefore() {
+    return this.layersBefore;
+  }
+
+  /**
+   * Gets the number of layers in the song after this plan is applied.
+   *
+   * @return the number of layers after
+   */
+  public int getLayersAfter() {
+    return this.layersAfter;
+  }
+
+  /**
+   * Gets the number of MIDI tracks needed to play the song before this plan is applied, which is
+   * one for each layer with any units or pattern instances.
+   *
+   * @return the number of tracks before
+   */
+  public int getTracksBefore() {
+    return this.tracksBefore;
+  }
+
+  /**
+   * Gets the number of MIDI tracks needed to play the song after this plan is applied.
+   *
+   * @return the number of tracks after
+   */
+  public int getTracksAfter() {
+    return this.tracksAfter;
+  }
+
+  /**
+   * Gets the number of grid cells the editor shows for the layers of the song before this plan is
+   * applied. Each cell is its own node in the scene, apart from the nodes for units, which merging
+   * does not change.
+   *
+   * @return the number of grid cells before
+   */
+  public int getGridCellsBefore() {
+    return this.layersBefore * this.cellsPerLayer;
+  }
+
+  /**
+   * Gets the number of grid cells the editor shows for the layers of the song after this plan is
+   * applied.
+   *
+   * @return the number of grid cells after
+   */
+  public int getGridCellsAfter() {
+    return this.layersAfter * this.cellsPerLayer;
+  }
+
+  /**
+   * Merges the planned layers into the layers they are merged with and removes them from the song,
+   * all in a single batch. Units keep their IDs, and kept layers keep their names and positions.
+   *
+   * @throws BatchConflictException if the song has been changed since this plan was made so that
+   *                                the planned layers overlap or are no longer in the song, in
+   *                                which case the song is not changed
+   */
+  public void apply() throws BatchConflictException {
+    SongBatch batch = new SongBatch();
+
+    // every unit must leave its old layer before it is added to its new one
+    for (List<Layer> sources : this.merges.values()) {
+      for (Layer source : sources) {
+        LayerBatch sourceBatch = batch.forLayer(source);
+
+        for (Unit unit : source.getUnits()) {
+          sourceBatch.removeUnit(unit);
+        }
+      }
+    }
+
+    for (Map.Entry<Layer, List<Layer>> entry : this.merges.entrySet()) {
+      LayerBatch targetBatch = batch.forLayer(entry.getKey());
+
+      for (Layer source : entry.getValue()) {
+        for (Unit unit : source.getUnits()) {
+          targetBatch.addUnit(unit);
+        }
+
+        batch.removeLayer(source);
+      }
+    }
+
+    this.song.applyBatch(batch);
+  }
+
+  @Override
+  public String toString() {
+    return "Layers: " + this.layersBefore + " -> " + this.layersAfter + "\n"
+        + "Tracks: " + this.tracksBefore + " -> " + this.tracksAfter + "\n"
+        + "Grid cells: " + this.getGridCellsBefore() + " -> " + this.getGridCellsAfter();
+  }
+}
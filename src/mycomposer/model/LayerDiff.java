@@ -0,0 +1,326 @@
+package mycomposer.model;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.LongStream;
+import mycomposer.model.unit.UnitCodec;
+
+/**
+ * Represents the differences between two versions of a layer, found by {@link
+ * SongDiff#compare(SongSnapshot, SongSnapshot)}. A layer only in the newer version is added, with
+ * all of its units added, and a layer only in the older version is removed, with all of its units
+ * removed.
+ *
+ * <p>Units are compared by start beat, since no two units in a layer can start on the same beat. A
+ * unit starting on a beat in both versions is changed if anything else about it differs, and is
+ * otherwise the same unit. Pattern instances are compared in the same way. Units are given encoded
+ * (see {@link UnitCodec}) and sorted in order of increasing start beat.
+ */
+public final class LayerDiff {
+
+  private final String name;
+  private final int beforeIndex;
+  private final int afterIndex;
+  private final LayerSnapshot before;
+  private final LayerSnapshot after;
+
+  private final long[] added;
+  private final long[] removed;
+  private final long[] changedBefore;
+  private final long[] changedAfter;
+  private final List<PatternInstance> addedInstances;
+  private final List<PatternInstance> removedInstances;
+
+  /**
+   * Creates a diff with the given differences.
+   *
+   * @param beforeIndex      the index of the layer in the older song, or -1 if it was added
+   * @param before           the older version of the layer, or {@code null} if it was added
+   * @param afterIndex       the index of the layer in the newer song, or -1 if it was removed
+   * @param after            the newer version of the layer, or {@code null} if it was removed
+   * @param added            the units added
+   * @param removed          the units removed
+   * @param changedBefore    the older versions of the changed units
+   * @param changedAfter     the newer versions of the changed units
+   * @param addedInstances   the pattern instances added
+   * @param removedInstances the pattern instances removed
+   */
+  private LayerDiff(int beforeIndex, LayerSnapshot before, int afterIndex, LayerSnapshot after,
+      long[] added, long[] removed, long[] changedBefore, long[] changedAfter,
+      List<PatternInstance> addedInstances, List<PatternInstance> removedInstances) {
+    this.name = (after == null) ? before.getName() : after.getName();
+    this.beforeIndex = beforeIndex;
+    this.afterIndex = afterIndex;
+    this.before = before;
+    this.after = after;
+
+    this.added = added;
+    this.removed = removed;
+    this.changedBefore = changedBefore;
+    this.changedAfter = changedAfter;
+    this.addedInstances = List.copyOf(addedInstances);
+    this.removedInstances = List.copyOf(removedInstances);
+  }
+
+  /**
+   * Compares two versions of a layer, either of which may be missing. Units are compared with a
+   * single merge of the two sorted lists of units, skipping any leading units which the snapshots
+   * share, so this takes time linear in the number of units at most.
+   *
+   * @param beforeIndex the index of the layer in the older song, or -1 if it was added
+   * @param before      the older version of the layer, or {@code null} if it was added
+   * @param afterIndex  the index of the layer in the newer song, or -1 if it was removed
+   * @param after       the newer version of the layer, or {@code null} if it was removed
+   * @return the differences between the two versions
+   */
+  static LayerDiff compare(int beforeIndex, LayerSnapshot before, int afterIndex,
+      LayerSnapshot after) {
+    LongStream.Builder added = LongStream.builder();
+    LongStream.Builder removed = LongStream.builder();
+    LongStream.Builder changedBefore = LongStream.builder();
+    LongStream.Builder changedAfter = LongStream.builder();
+
+    int beforeSize = (before == null) ? 0 : before.getUnitCount();
+    int afterSize = (after == null) ? 0 : after.getUnitCount();
+    int shared = (before == null || after == null) ? 0 : before.sharedUnitCount(after);
+    int i = shared;
+    int j = shared;
+
+    while (i < beforeSize || j < afterSize) {
+      if (j == afterSize || (i < beforeSize && UnitCodec.getStartBeat(before.getEncodedUnit(i))
+          < UnitCodec.getStartBeat(after.getEncodedUnit(j)))) {
+        removed.accept(before.getEncodedUnit(i++));
+      } else if (i == beforeSize || UnitCodec.getStartBeat(after.getEncodedUnit(j))
+          < UnitCodec.getStartBeat(before.getEncodedUnit(i))) {
+        added.accept(after.getEncodedUnit(j++));
+      } else {
+        long beforeUnit = before.getEncodedUnit(i++);
+        long afterUnit = after.getEncodedUnit(j++);
+
+        if (beforeUnit != afterUnit) {
+          changedBefore.accept(beforeUnit);
+          changedAfter.accept(afterUnit);
+        }
+      }
+    }
+
+    List<PatternInstance> beforeInstances = (before == null)
+        ? List.of() : before.getPatternInstances();
+    List<PatternInstance> afterInstances = (after == null)
+        ? List.of() : after.getPatternInstances();
+    List<PatternInstance> addedInstances = new ArrayList<>();
+    List<PatternInstance> removedInstances = new ArrayList<>();
+    i = 0;
+    j = 0;
+
+    while (i < beforeInstances.size() || j < afterInstances.size()) {
+      PatternInstance beforeInstance =
+          (i < beforeInstances.size()) ? beforeInstances.get(i) : null;
+      PatternInstance afterInstance = (j < afterInstances.size()) ? afterInstances.get(j) : null;
+
+      if (afterInstance == null || (beforeInstance != null
+          && beforeInstance.getStartBeat() < afterInstance.getStartBeat())) {
+        removedInstances.add(beforeInstance);
+        i++;
+      } else if (beforeInstance == null
+          || afterInstance.getStartBeat() < beforeInstance.getStartBeat()) {
+        addedInstances.add(afterInstance);
+        j++;
+      } else {
+        if (beforeInstance.contentHash() != afterInstance.contentHash()) {
+          removedInstances.add(beforeInstance);
+          addedInstances.add(afterInstance);
+        }
+
+        i++;
+        j++;
+      }
+    }
+
+    return new LayerDiff(beforeIndex, before, afterIndex, after, added.build().toArray(),
+        removed.build().toArray(), changedBefore.build().toArray(), changedAfter.build().toArray(),
+        addedInstances, removedInstances);
+  }
+
+  /**
+   * Gets the name of the layer.
+   *
+   * @return the name of the layer
+   */
+  public String getName() {
+    return this.name;
+  }
+
+  /**
+   * Gets the index of the layer in the older song.
+   *
+   * @return the index of the layer in the older song, or -1 if the layer was added
+   */
+  public int getBeforeIndex() {
+    return this.beforeIndex;
+  }
+
+  /**
+   * Gets the index of the layer in the newer song.
+   *
+   * @return the index of the layer in the newer song, or -1 if the layer was removed
+   */
+  public int getAfterIndex() {
+    return this.afterIndex;
+  }
+
+  /**
+   * Gets the older version of the layer.
+   *
+   * @return the older version of the layer, or {@code null} if the layer was added
+   */
+  public LayerSnapshot getBefore() {
+    return this.before;
+  }
+
+  /**
+   * Gets the newer version of the layer.
+   *
+   * @return the newer version of the layer, or {@code null} if the layer was removed
+   */
+  public LayerSnapshot getAfter() {
+    return this.after;
+  }
+
+  /**
+   * Returns whether or not the layer is only in the newer song.
+   *
+   * @return whether or not the layer was added
+   */
+  public boolean isLayerAdded() {
+    return this.before == null;
+  }
+
+  /**
+   * Returns whether or not the layer is only in the older song.
+   *
+   * @return whether or not the layer was removed
+   */
+  public boolean isLayerRemoved() {
+    return this.after == null;
+  }
+
+  /**
+   * Returns whether or not the volume, color, or mute setting of the layer changed. Layers which
+   * were added or removed have no changed settings.
+   *
+   * @return whether or not the settings of the layer changed
+   */
+  public boolean isSettingsChanged() {
+    return this.before != null && this.after != null
+        && (this.before.getVolume() != this.after.getVolume()
+        || this.before.getColor() != this.after.getColor()
+        || this.before.isMute() != this.after.isMute());
+  }
+
+  /**
+   * Gets the units added to the layer.
+   *
+   * @return the encoded units added
+   */
+  public long[] getAddedUnits() {
+    return this.added.clone();
+  }
+
+  /**
+   * Gets the units removed from the layer.
+   *
+   * @return the encoded units removed
+   */
+  public long[] getRemovedUnits() {
+    return this.removed.clone();
+  }
+
+  /**
+   * Gets the older versions of the units which changed, in the same order as {@link
+   * #getChangedUnitsAfter()}.
+   *
+   * @return the older versions of the changed units
+   */
+  public long[] getChangedUnitsBefore() {
+    return this.changedBefore.clone();
+  }
+
+  /**
+   * Gets the newer versions of the units which changed, in the same order as {@link
+   * #getChangedUnitsBefore()}.
+   *
+   * @return the newer versions of the changed units
+   */
+  public long[] getChangedUnitsAfter() {
+    return this.changedAfter.clone();
+  }
+
+  /**
+   * Gets the pattern instances added to the layer, including the newer versions of changed ones.
+   *
+   * @return the pattern instances added
+   */
+  public List<PatternInstance> getAddedInstances() {
+    return this.addedInstances;
+  }
+
+  /**
+   * Gets the pattern instances removed from the layer, including the older versions of changed
+   * ones.
+   *
+   * @return the pattern instances removed
+   */
+  public List<PatternInstance> getRemovedInstances() {
+    return this.removedInstances;
+  }
+
+  /**
+   * Returns whether or not the units or pattern instances of the layer changed in any way.
+   *
+   * @return whether or not the contents of the layer changed
+   */
+  public boolean isContentChanged() {
+    return this.added.length > 0 || this.removed.length > 0 || this.changedBefore.length > 0
+        || !this.addedInstances.isEmpty() || !this.removedInstances.isEmpty();
+  }
+
+  /**
+   * Returns whether or not the two versions of the layer are the same, apart from their positions
+   * in the song (see {@link SongDiff#isOrderChanged()}).
+   *
+   * @return whether or not nothing about the layer changed
+   */
+  public boolean isEmpty() {
+    return !this.isLayerAdded() && !this.isLayerRemoved() && !this.isSettingsChanged()
+        && !this.isContentChanged();
+  }
+
+  @Override
+  public String toString() {
+    if (this.isLayerAdded()) {
+      return "+ layer " + this.name + " (" + this.added.length + " units)";
+    } else if (this.isLayerRemoved()) {
+      return "- layer " + this.name + " (" + this.removed.length + " units)";
+    }
+
+    StringBuilder builder = new StringBuilder("~ layer ").append(this.name).append(":");
+
+    if (this.isSettingsChanged()) {
+      builder.append(" settings ").append(this.before.getColor()).append(" ")
+          .append(this.before.getVolume()).append(this.before.isMute() ? " muted" : "")
+          .append(" -> ").append(this.after.getColor()).append(" ")
+          .append(this.after.getVolume()).append(this.after.isMute() ? " muted" : "");
+    }
+
+    builder.append(" +").append(this.added.length).append(" -").append(this.removed.length)
+        .append(" ~").append(this.changedBefore.length).append(" units");
+
+    if (!this.addedInstances.isEmpty() || !this.removedInstances.isEmpty()) {
+      builder.append(" +").append(this.addedInstances.size()).append(" -")
+          .append(this.removedInstances.size()).append(" patterns");
+    }
+
+    return builder.toString();
+  }
+}
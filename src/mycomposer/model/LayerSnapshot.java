@@ -0,0 +1,327 @@
+package mycomposer.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.LongStream;
+import mycomposer.model.unit.Unit;
+import mycomposer.model.unit.UnitCodec;
+
+/**
+ * Represents an immutable copy of a layer at a single point in time. Snapshots can be read from any
+ * thread while the layer they were taken from continues to be edited.
+ *
+ * <p>Units are stored encoded (see {@link UnitCodec}) in runs of {@link #RUN_LENGTH} units. When a
+ * layer is edited, only the runs from the first changed unit onward are rebuilt for its next
+ * snapshot, and every earlier run is shared with the previous snapshot.
+ *
+ * <p>Pattern instances are kept as they are, since both they and their patterns are immutable. As
+ * in the layer, the units they play are only included by the range queries and final beat.
+ */
+public final class LayerSnapshot {
+
+  static final int RUN_LENGTH = 256;
+
+  private final String name;
+  private final int volume;
+  private final LayerColor color;
+  private final boolean mute;
+
+  private final long[][] runs;
+  private final int size;
+  private final List<PatternInstance> instances;
+
+  /**
+   * Creates a snapshot of a layer with the given settings and units.
+   *
+   * @param name      the name of the layer
+   * @param volume    the volume of the layer
+   * @param color     the color of the layer
+   * @param mute      whether or not the layer is muted
+   * @param runs      the encoded units of the layer, in runs of {@link #RUN_LENGTH} units (only
+   *                  the last run may be shorter)
+   * @param size      the number of units in the layer
+   * @param instances the pattern instances in the layer, sorted by start beat
+   */
+  LayerSnapshot(String name, int volume, LayerColor color, boolean mute, long[][] runs, int size,
+      List<PatternInstance> instances) {
+    this.name = name;
+    this.volume = volume;
+    this.color = color;
+    this.mute = mute;
+    this.runs = runs;
+    this.size = size;
+    this.instances = List.copyOf(instances);
+  }
+
+  /**
+   * Gets the name of the layer.
+   *
+   * @return the name of the layer
+   */
+  public String getName() {
+    return this.name;
+  }
+
+  /**
+   * Gets the volume of the layer.
+   *
+   * @return the volume of the layer
+   */
+  public int getVolume() {
+    return this.volume;
+  }
+
+  /**
+   * Gets the color of the layer.
+   *
+   * @return the color of the layer
+   */
+  public LayerColor getColor() {
+    return this.color;
+  }
+
+  /**
+   * Returns whether or not the layer is muted.
+   *
+   * @return whether or not the layer is muted
+   */
+  public boolean isMute() {
+    return this.mute;
+  }
+
+  /**
+   * Returns the final beat number in the layer.
+   *
+   * @return the final beat in the layer
+   */
+  public int getFinalBeat() {
+    int finalBeat = 0;
+
+    if (this.size > 0) {
+      finalBeat = UnitCodec.getEndBeat(this.getEncodedUnit(this.size - 1));
+    }
+
+    if (!this.instances.isEmpty()) {
+      finalBeat = Math.max(finalBeat, this.instances.get(this.instances.size() - 1).getEndBeat());
+    }
+
+    return finalBeat;
+  }
+
+  /**
+   * Returns an unmodifiable list of the pattern instances in the layer, sorted in order of
+   * increasing start beat.
+   *
+   * @return the pattern instances in the layer
+   */
+  public List<PatternInstance> getPatternInstances() {
+    return this.instances;
+  }
+
+  /**
+   * Gets the number of units in the layer.
+   *
+   * @return the number of units in the layer
+   */
+  public int getUnitCount() {
+    return this.size;
+  }
+
+  /**
+   * Gets the encoded unit (see {@link UnitCodec}) at the given index, where units are sorted in
+   * order of increasing start beat.
+   *
+   * @param index the index of the unit
+   * @return the encoded unit at the given index
+   * @throws IndexOutOfBoundsException if the given index is out of range
+   */
+  public long getEncodedUnit(int index) throws IndexOutOfBoundsException {
+    if (index < 0 || index >= this.size) {
+      throw new IndexOutOfBoundsException("Index " + index + " is out of range for length "
+          + this.size + ".");
+    }
+
+    return this.runs[index / RUN_LENGTH][index % RUN_LENGTH];
+  }
+
+  /**
+   * Returns the encoded units (see {@link UnitCodec}) in the layer, sorted in order of increasing
+   * start beat.
+   *
+   * @return the encoded units in the layer
+   */
+  public long[] getEncodedUnits() {
+    long[] encodedUnits = new long[this.size];
+
+    for (int i = 0; i < this.runs.length; i++) {
+      long[] run = this.runs[i];
+      System.arraycopy(run, 0, encodedUnits, i * RUN_LENGTH, run.length);
+    }
+
+    return encodedUnits;
+  }
+
+  /**
+   * Counts the units at the start of this snapshot which are shared with the given snapshot,
+   * because both were taken from the same layer and neither edit since touched those runs of
+   * units. Shared units are the same in both snapshots without having to be compared.
+   *
+   * @param other the snapshot to compare with
+   * @return the number of leading units shared by both snapshots
+   */
+  int sharedUnitCount(LayerSnapshot other) {
+    int runs = 0;
+
+    while (runs < this.runs.length && runs < other.runs.length
+        && this.runs[runs] == other.runs[runs]) {
+      runs++;
+    }
+
+    return Math.min(runs * RUN_LENGTH, Math.min(this.size, other.size));
+  }
+
+  /**
+   * Returns a new list of the units in the layer, sorted in order of increasing start beat.
+   * Editing these units does not change the snapshot.
+   *
+   * @return the list of units in the layer
+   */
+  public List<Unit> getUnits() {
+    List<Unit> units = new ArrayList<>(this.size);
+
+    for (long[] run : this.runs) {
+      for (long encoded : run) {
+        units.add(UnitCodec.decode(encoded));
+      }
+    }
+
+    return units;
+  }
+
+  /**
+   * Returns the encoded units (see {@link UnitCodec}) in the layer which overlap the given range of
+   * beats, including those played by pattern instances, sorted in order of increasing start beat.
+   *
+   * @param startBeat the first beat of the range
+   * @param endBeat   the last beat of the range
+   * @return the encoded units in the layer which overlap the given range
+   * @throws IllegalArgumentException if the given end beat is before the given start beat
+   */
+  public long[] getEncodedUnitsInRange(int startBeat, int endBeat)
+      throws IllegalArgumentException {
+    if (endBeat < startBeat) {
+      throw new IllegalArgumentException("End beat cannot be before start beat.");
+    }
+
+    int first = this.unitsEndingBefore(startBeat);
+    int last = first;
+
+    while (last < this.size && UnitCodec.getStartBeat(this.getEncodedUnit(last)) <= endBeat) {
+      last++;
+    }
+
+    LongStream.Builder builder = LongStream.builder();
+
+    for (int i = first; i < last; i++) {
+      builder.accept(this.getEncodedUnit(i));
+    }
+
+    boolean expanded = false;
+
+    for (int i = this.instancesEndingBefore(startBeat);
+        i < this.instances.size() && this.instances.get(i).getStartBeat() <= endBeat; i++) {
+      this.instances.get(i).forEachEncodedUnit(startBeat, endBeat, builder);
+      expanded = true;
+    }
+
+    long[] encodedUnits = builder.build().toArray();
+
+    // encoded units sort by start beat
+    if (expanded) {
+      Arrays.sort(encodedUnits);
+    }
+
+    return encodedUnits;
+  }
+
+  /**
+   * Returns a new list of the units in the layer which overlap the given range of beats, including
+   * those played by pattern instances, sorted in order of increasing start beat. Editing these
+   * units does not change the snapshot.
+   *
+   * @param startBeat the first beat of the range
+   * @param endBeat   the last beat of the range
+   * @return the units in the layer which overlap the given range
+   * @throws IllegalArgumentException if the given end beat is before the given start beat
+   */
+  public List<Unit> unitsInRange(int startBeat, int endBeat) throws IllegalArgumentException {
+    long[] encodedUnits = this.getEncodedUnitsInRange(startBeat, endBeat);
+    List<Unit> units = new ArrayList<>(encodedUnits.length);
+
+    for (long encoded : encodedUnits) {
+      units.add(UnitCodec.decode(encoded));
+    }
+
+    return units;
+  }
+
+  /**
+   * Counts the units in the layer which end before the given beat, which is also the index of the
+   * first unit which could contain the given beat or any later one.
+   *
+   * @param beat the beat to check
+   * @return the number of units in the layer ending before the given beat
+   */
+  private int unitsEndingBefore(int beat) {
+    int low = 0;
+    int high = this.size;
+
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+
+      if (UnitCodec.getEndBeat(this.getEncodedUnit(mid)) < beat) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+
+    return low;
+  }
+
+  /**
+   * Counts the pattern instances in the layer which end before the given beat, which is also the
+   * index of the first instance which could contain the given beat or any later one.
+   *
+   * @param beat the beat to check
+   * @return the number of pattern instances in the layer ending before the given beat
+   */
+  private int instancesEndingBefore(int beat) {
+    int low = 0;
+    int high = this.instances.size();
+
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+
+      if (this.instances.get(mid).getEndBeat() < beat) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+
+    return low;
+  }
+
+  /**
+   * Gets the run of encoded units at the given run index, so that unchanged runs can be shared by
+   * the next snapshot of the same layer.
+   *
+   * @param runIndex the index of the run
+   * @return the run of encoded units at the given index
+   */
+  long[] getRun(int runIndex) {
+    return this.runs[runIndex];
+  }
+}
@@ -0,0 +1,72 @@
+package mycomposer.model;
+
+import java.util.ArrayList;
+import java.util.List;
+import mycomposer.model.unit.Unit;
+import mycomposer.model.unit.UnitCodec;
+
+/**
+ * Stores units as the unit objects themselves. This is the default storage for layers, and the
+ * only one where units returned by the layer can be edited in place.
+ */
+final class ListUnitStore implements UnitStore {
+
+  private final List<Unit> units;
+
+  /**
+   * Creates an empty unit store.
+   */
+  ListUnitStore() {
+    this.units = new ArrayList<>();
+  }
+
+  @Override
+  public int size() {
+    return this.units.size();
+  }
+
+  @Override
+  public int getStartBeat(int index) {
+    return this.units.get(index).getStartBeat();
+  }
+
+  @Override
+  public int getEndBeat(int index) {
+    return this.units.get(index).getEndBeat();
+  }
+
+  @Override
+  public Unit get(int index) {
+    return this.units.get(index);
+  }
+
+  @Override
+  public long getId(int index) {
+    return this.units.get(index).getId();
+  }
+
+  @Override
+  public long getEncoded(int index) {
+    return UnitCodec.encode(this.units.get(index));
+  }
+
+  @Override
+  public void add(int index, Unit unit) {
+    this.units.add(index, unit);
+  }
+
+  @Override
+  public void remove(int index) {
+    this.units.remove(index);
+  }
+
+  @Override
+  public void clear() {
+    this.units.clear();
+  }
+
+  @Override
+  public List<Unit> toList() {
+    return new ArrayList<>(this.units);
+  }
+}
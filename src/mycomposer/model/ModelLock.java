@@ -0,0 +1,204 @@
+package mycomposer.model;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.IntFunction;
+import java.util.function.IntSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Guards a part of the model (a layer or a song) which is edited by one thread and read by any
+ * number of others.
+ *
+ * <p>Queries are first run without taking the lock at all, using an optimistic read which is
+ * then checked against any edit made at the same time. Only if an edit did happen is the query run
+ * again while holding the read lock, so readers almost never block the writer or each other, and
+ * never see an edit half made. Edits take the write lock, but the thread making an edit may query
+ * or edit the same part of the model again while doing so without deadlocking, which the lock
+ * itself does not allow.
+ *
+ * <p>Events from an edit are handed back only after the write lock has been released, so that
+ * listeners can query the model freely when they are notified.
+ */
+final class ModelLock {
+
+  private final StampedLock lock;
+  private final List<SongEvent> pendingEvents;
+  private volatile Thread writer;
+
+  /**
+   * Creates a new lock which is not held by any thread.
+   */
+  ModelLock() {
+    this.lock = new StampedLock();
+    this.pendingEvents = new ArrayList<>();
+    this.writer = null;
+  }
+
+  /**
+   * Runs the given query without blocking edits, running it again while holding the read lock if
+   * it overlapped an edit. The query must not have any side effects, since it may be run twice, and
+   * must not allocate anything sized by state it reads, since a size read while an edit is half
+   * made can be anything. Queries which copy out a list or an array use {@link
+   * #readLocked(Supplier)} instead.
+   *
+   * @param query the query to run
+   * @param <T>   the type of the query result
+   * @return the result of the query
+   */
+  <T> T read(Supplier<T> query) {
+    if (this.writer == Thread.currentThread()) {
+      return query.get();
+    }
+
+    long stamp = this.lock.tryOptimisticRead();
+
+    if (stamp != 0L) {
+      try {
+        T result = query.get();
+
+        if (this.lock.validate(stamp)) {
+          return result;
+        }
+      } catch (RuntimeException | Error e) {
+        // an edit made while reading can leave the query looking at half-changed state, so a
+        // failure of any kind is only trusted once the query has been run again with the lock
+        // held, where it fails again if it was real
+      }
+    }
+
+    return this.readLocked(query);
+  }
+
+  /**
+   * Runs the given query on the given index the same way as {@link #read(Supplier)}. Hot paths
+   * which read one element at a time keep a single query for this, rather than creating a new
+   * query capturing each index they read.
+   *
+   * @param query the query to run
+   * @param index the index to run the query on
+   * @param <T>   the type of the query result
+   * @return the result of the query
+   */
+  <T> T read(IntFunction<T> query, int index) {
+    if (this.writer == Thread.currentThread()) {
+      return query.apply(index);
+    }
+
+    long stamp = this.lock.tryOptimisticRead();
+
+    if (stamp != 0L) {
+      try {
+        T result = query.apply(index);
+
+        if (this.lock.validate(stamp)) {
+          return result;
+        }
+      } catch (RuntimeException | Error e) {
+        // as in read(Supplier), a failure is only trusted once the query has been run again with
+        // the lock held
+      }
+    }
+
+    stamp = this.lock.readLock();
+
+    try {
+      return query.apply(index);
+    } finally {
+      this.lock.unlockRead(stamp);
+    }
+  }
+
+  /**
+   * Runs the given counting query the same way as {@link #read(Supplier)}, without boxing the
+   * count.
+   *
+   * @param query the query to run
+   * @return the count returned by the query
+   */
+  int readCount(IntSupplier query) {
+    if (this.writer == Thread.currentThread()) {
+      return query.getAsInt();
+    }
+
+    long stamp = this.lock.tryOptimisticRead();
+
+    if (stamp != 0L) {
+      int count = query.getAsInt();
+
+      if (this.lock.validate(stamp)) {
+        return count;
+      }
+    }
+
+    stamp = this.lock.readLock();
+
+    try {
+      return query.getAsInt();
+    } finally {
+      this.lock.unlockRead(stamp);
+    }
+  }
+
+  /**
+   * Runs the given query while holding the read lock, for queries which cannot be run twice. The
+   * query must not edit the part of the model guarded by this lock.
+   *
+   * @param query the query to run
+   * @param <T>   the type of the query result
+   * @return the result of the query
+   */
+  <T> T readLocked(Supplier<T> query) {
+    if (this.writer == Thread.currentThread()) {
+      return query.get();
+    }
+
+    long stamp = this.lock.readLock();
+
+    try {
+      return query.get();
+    } finally {
+      this.lock.unlockRead(stamp);
+    }
+  }
+
+  /**
+   * Runs the given edit while holding the write lock. If the current thread is already making an
+   * edit, the given edit is made as part of it and its event is held until the outer edit is done.
+   *
+   * @param edit the edit to make, which returns the event to send or {@code null} if nothing
+   *             changed
+   * @return the events to send now that the write lock has been released, in the order they
+   * happened
+   */
+  List<SongEvent> write(Supplier<SongEvent> edit) {
+    if (this.writer == Thread.currentThread()) {
+      this.holdEvent(edit.get());
+      return List.of();
+    }
+
+    long stamp = this.lock.writeLock();
+    this.writer = Thread.currentThread();
+
+    try {
+      this.holdEvent(edit.get());
+      return new ArrayList<>(this.pendingEvents);
+    } finally {
+      this.pendingEvents.clear();
+      this.writer = null;
+      this.lock.unlockWrite(stamp);
+    }
+  }
+
+  /**
+   * Holds the given event until the current edit is done.
+   *
+   * @param event the event to hold, or {@code null} if there is none
+   */
+  private void holdEvent(SongEvent event) {
+    if (event != null) {
+      this.pendingEvents.add(event);
+    }
+  }
+}
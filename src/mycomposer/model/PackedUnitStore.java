@@ -0,0 +1,171 @@
+package mycomposer.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import mycomposer.model.unit.Pitch;
+import mycomposer.model.unit.Unit;
+import mycomposer.model.unit.UnitCodec;
+
+/**
+ * Stores units as parallel arrays of primitive values (ID, start beat, end beat, instrument, pitch,
+ * and octave) instead of as unit objects. Each unit takes 19 bytes, compared to the 44 or more
+ * bytes needed for a note or drum beat object and the list slot pointing to it. Units are only
+ * created when they are asked for, keeping the ID of the unit they were stored from, and editing
+ * those units does not change the stored values.
+ */
+final class PackedUnitStore implements UnitStore {
+
+  private static final Pitch[] PITCHES = Pitch.values();
+  private static final byte DRUM = -1;
+  private static final int INITIAL_CAPACITY = 16;
+
+  private int size;
+  private long[] ids;
+  private int[] startBeats;
+  private int[] endBeats;
+  private byte[] instruments;
+  private byte[] pitches;
+  private byte[] octaves;
+
+  /**
+   * Creates an empty unit store.
+   */
+  PackedUnitStore() {
+    this.size = 0;
+    this.ids = new long[INITIAL_CAPACITY];
+    this.startBeats = new int[INITIAL_CAPACITY];
+    this.endBeats = new int[INITIAL_CAPACITY];
+    this.instruments = new byte[INITIAL_CAPACITY];
+    this.pitches = new byte[INITIAL_CAPACITY];
+    this.octaves = new byte[INITIAL_CAPACITY];
+  }
+
+  @Override
+  public int size() {
+    return this.size;
+  }
+
+  @Override
+  public int getStartBeat(int index) {
+    this.checkIndex(index);
+    return this.startBeats[index];
+  }
+
+  @Override
+  public int getEndBeat(int index) {
+    this.checkIndex(index);
+    return this.endBeats[index];
+  }
+
+  @Override
+  public long getId(int index) {
+    this.checkIndex(index);
+    return this.ids[index];
+  }
+
+  @Override
+  public Unit get(int index) {
+    return UnitCodec.decode(this.getEncoded(index), this.ids[index]);
+  }
+
+  @Override
+  public long getEncoded(int index) {
+    this.checkIndex(index);
+
+    Pitch pitch = (this.pitches[index] == DRUM) ? null : PITCHES[this.pitches[index]];
+
+    return UnitCodec.encode(this.startBeats[index], this.endBeats[index], this.instruments[index],
+        pitch, this.octaves[index]);
+  }
+
+  @Override
+  public void add(int index, Unit unit) {
+    if (index < 0 || index > this.size) {
+      throw new IndexOutOfBoundsException("Index " + index + " is out of range for length "
+          + this.size + ".");
+    }
+
+    if (this.size == this.startBeats.length) {
+      int capacity = this.size + (this.size >> 1);
+
+      this.ids = Arrays.copyOf(this.ids, capacity);
+      this.startBeats = Arrays.copyOf(this.startBeats, capacity);
+      this.endBeats = Arrays.copyOf(this.endBeats, capacity);
+      this.instruments = Arrays.copyOf(this.instruments, capacity);
+      this.pitches = Arrays.copyOf(this.pitches, capacity);
+      this.octaves = Arrays.copyOf(this.octaves, capacity);
+    }
+
+    this.shift(index, index + 1, this.size - index);
+
+    this.ids[index] = unit.getId();
+    this.startBeats[index] = unit.getStartBeat();
+    this.endBeats[index] = unit.getEndBeat();
+    this.instruments[index] = (byte) unit.getInstrument();
+
+    if (unit.isDrum()) {
+      this.pitches[index] = DRUM;
+      this.octaves[index] = 0;
+    } else {
+      this.pitches[index] = (byte) unit.getPitch().ordinal();
+      this.octaves[index] = (byte) unit.getOctave();
+    }
+
+    this.size++;
+  }
+
+  @Override
+  public void remove(int index) {
+    this.checkIndex(index);
+
+    this.shift(index + 1, index, this.size - index - 1);
+    this.size--;
+  }
+
+  @Override
+  public void clear() {
+    this.size = 0;
+  }
+
+  @Override
+  public List<Unit> toList() {
+    List<Unit> units = new ArrayList<>(this.size);
+
+    for (int i = 0; i < this.size; i++) {
+      units.add(this.get(i));
+    }
+
+    return units;
+  }
+
+  /**
+   * Copies the given number of units starting at the given index to the given destination index in
+   * every array.
+   *
+   * @param from   the index of the first unit to copy
+   * @param to     the index to copy the first unit to
+   * @param length the number of units to copy
+   */
+  private void shift(int from, int to, int length) {
+    System.arraycopy(this.ids, from, this.ids, to, length);
+    System.arraycopy(this.startBeats, from, this.startBeats, to, length);
+    System.arraycopy(this.endBeats, from, this.endBeats, to, length);
+    System.arraycopy(this.instruments, from, this.instruments, to, length);
+    System.arraycopy(this.pitches, from, this.pitches, to, length);
+    System.arraycopy(this.octaves, from, this.octaves, to, length);
+  }
+
+  /**
+   * Checks that the given index refers to a unit in this store.
+   *
+   * @param index the index to check
+   * @throws IndexOutOfBoundsException if the given index is out of range
+   */
+  private void checkIndex(int index) throws IndexOutOfBoundsException {
+    if (index < 0 || index >= this.size) {
+      throw new IndexOutOfBoundsException("Index " + index + " is out of range for length "
+          + this.size + ".");
+    }
+  }
+}
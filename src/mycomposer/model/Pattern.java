@@ -0,0 +1,228 @@
+package mycomposer.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.LongConsumer;
+import mycomposer.model.unit.Unit;
+import mycomposer.model.unit.UnitCodec;
+
+/**
+ * Represents a named group of units which can be placed in layers any number of times (see {@link
+ * PatternInstance}). The units of a pattern are stored encoded (see {@link UnitCodec}) with beats
+ * counted from the start of the pattern, and must all fit within its length.
+ *
+ * <p>Patterns are immutable, so they can be shared by any number of layers and snapshots. To edit
+ * a pattern, create an edited copy with {@link #withUnit(Unit)} or {@link #withoutUnit(Unit)} and
+ * swap it in for the original with {@link Song#replacePattern(Pattern, Pattern)}, which updates
+ * every instance of the pattern in the song at once.
+ */
+public final class Pattern {
+
+  private final String name;
+  private final int length;
+  private final long[] units;
+  private final long contentHash;
+
+  /**
+   * Creates an empty pattern with the given name and length.
+   *
+   * @param name   the name of the pattern
+   * @param length the number of beats in the pattern
+   * @throws IllegalArgumentException if the given name is empty or the given length is less than 1
+   */
+  public Pattern(String name, int length) throws IllegalArgumentException {
+    this(name, length, new long[0]);
+  }
+
+  /**
+   * Creates a pattern with the given name, length, and sorted encoded units.
+   *
+   * @param name   the name of the pattern
+   * @param length the number of beats in the pattern
+   * @param units  the encoded units of the pattern, sorted by start beat
+   * @throws IllegalArgumentException if the given name is empty or the given length is less than 1
+   */
+  private Pattern(String name, int length, long[] units) throws IllegalArgumentException {
+    if (name.length() == 0) {
+      throw new IllegalArgumentException("Pattern name cannot be empty.");
+    }
+
+    if (length < 1) {
+      throw new IllegalArgumentException("Pattern must be at least 1 beat long.");
+    }
+
+    this.name = name;
+    this.length = length;
+    this.units = units;
+    this.contentHash = ContentHash.combine(
+        ContentHash.combine(ContentHash.of(name), length), ContentHash.ofUnits(units, 0, 1));
+  }
+
+  /**
+   * Gets the name of this pattern.
+   *
+   * @return the name of this pattern
+   */
+  public String getName() {
+    return this.name;
+  }
+
+  /**
+   * Gets the number of beats in this pattern. Each repeat of an instance of this pattern takes up
+   * this many beats, whether or not the units in this pattern fill them.
+   *
+   * @return the number of beats in this pattern
+   */
+  public int getLength() {
+    return this.length;
+  }
+
+  /**
+   * Gets a hash of the name, length, and units of this pattern, which is the same for any pattern
+   * with the same content.
+   *
+   * @return the content hash of this pattern
+   */
+  public long contentHash() {
+    return this.contentHash;
+  }
+
+  /**
+   * Gets the number of units in this pattern.
+   *
+   * @return the number of units in this pattern
+   */
+  public int getUnitCount() {
+    return this.units.length;
+  }
+
+  /**
+   * Gets the encoded unit (see {@link UnitCodec}) at the given index, where units are sorted in
+   * order of increasing start beat and beats are counted from the start of this pattern.
+   *
+   * @param index the index of the unit
+   * @return the encoded unit at the given index
+   * @throws IndexOutOfBoundsException if the given index is out of range
+   */
+  public long getEncodedUnit(int index) throws IndexOutOfBoundsException {
+    if (index < 0 || index >= this.units.length) {
+      throw new IndexOutOfBoundsException("Index " + index + " is out of range for length "
+          + this.units.length + ".");
+    }
+
+    return this.units[index];
+  }
+
+  /**
+   * Returns a new list of the units in this pattern, sorted in order of increasing start beat,
+   * with beats counted from the start of this pattern. Editing these units does not change the
+   * pattern.
+   *
+   * @return the list of units in this pattern
+   */
+  public List<Unit> getUnits() {
+    List<Unit> units = new ArrayList<>(this.units.length);
+
+    for (long encoded : this.units) {
+      units.add(UnitCodec.decode(encoded));
+    }
+
+    return units;
+  }
+
+  /**
+   * Returns a copy of this pattern with the given unit added, where the beats of the unit are
+   * counted from the start of the pattern.
+   *
+   * @param unit the unit to add
+   * @return a copy of this pattern with the given unit added
+   * @throws IllegalArgumentException if the given unit does not fit within the length of this
+   *                                  pattern or overlaps a unit already in it
+   */
+  public Pattern withUnit(Unit unit) throws IllegalArgumentException {
+    if (unit.getStartBeat() < 0 || unit.getEndBeat() >= this.length) {
+      throw new IllegalArgumentException("Pattern units must fit within the pattern.");
+    }
+
+    int index = this.unitsEndingBefore(unit.getStartBeat());
+
+    if (index < this.units.length
+        && UnitCodec.getStartBeat(this.units[index]) <= unit.getEndBeat()) {
+      throw new IllegalArgumentException("New unit cannot overlap existing units.");
+    }
+
+    long[] units = new long[this.units.length + 1];
+    System.arraycopy(this.units, 0, units, 0, index);
+    units[index] = UnitCodec.encode(unit);
+    System.arraycopy(this.units, index, units, index + 1, this.units.length - index);
+
+    return new Pattern(this.name, this.length, units);
+  }
+
+  /**
+   * Returns a copy of this pattern without the given unit. Returns this pattern if it does not
+   * contain a unit equal to the given unit.
+   *
+   * @param unit the unit to remove
+   * @return a copy of this pattern without the given unit
+   */
+  public Pattern withoutUnit(Unit unit) {
+    long encoded = UnitCodec.encode(unit);
+    int index = Arrays.binarySearch(this.units, encoded);
+
+    if (index < 0) {
+      return this;
+    }
+
+    long[] units = new long[this.units.length - 1];
+    System.arraycopy(this.units, 0, units, 0, index);
+    System.arraycopy(this.units, index + 1, units, index, units.length - index);
+
+    return new Pattern(this.name, this.length, units);
+  }
+
+  /**
+   * Performs the given action on each unit of this pattern which overlaps the given range of
+   * beats, with the unit moved forward by the given offset, in order of increasing start beat. The
+   * range is given in beats counted from the start of this pattern.
+   *
+   * @param startBeat the first beat of the range
+   * @param endBeat   the last beat of the range
+   * @param offset    the number of beats to move each unit forward by
+   * @param action    the action to perform on each encoded unit
+   */
+  void forEachEncodedUnit(int startBeat, int endBeat, int offset, LongConsumer action) {
+    for (int i = this.unitsEndingBefore(startBeat);
+        i < this.units.length && UnitCodec.getStartBeat(this.units[i]) <= endBeat; i++) {
+      long unit = this.units[i];
+
+      action.accept(UnitCodec.withStartEnd(unit, UnitCodec.getStartBeat(unit) + offset,
+          UnitCodec.getEndBeat(unit) + offset));
+    }
+  }
+
+  /**
+   * Counts the units in this pattern which end before the given beat, which is also the index of
+   * the first unit which could contain the given beat or any later one.
+   *
+   * @param beat the beat to check, counted from the start of this pattern
+   * @return the number of units in this pattern ending before the given beat
+   */
+  private int unitsEndingBefore(int beat) {
+    int low = 0;
+    int high = this.units.length;
+
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+
+      if (UnitCodec.getEndBeat(this.units[mid]) < beat) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+
+    return low;
+  }
+}
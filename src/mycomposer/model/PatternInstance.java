@@ -0,0 +1,133 @@
+package mycomposer.model;
+
+import java.util.function.LongConsumer;
+import mycomposer.MIDI;
+
+/**
+ * Represents a pattern placed in a layer, starting at a given beat and played a given number of
+ * times back to back. An instance takes up every beat from its start beat to the end of its last
+ * repeat, and no units or other instances in the same layer may overlap it. The units of the
+ * pattern are never copied into the layer: they are worked out from the pattern whenever they are
+ * needed.
+ */
+public final class PatternInstance {
+
+  private final Pattern pattern;
+  private final int startBeat;
+  private final int repeats;
+
+  /**
+   * Creates an instance of the given pattern starting at the given beat and repeated the given
+   * number of times.
+   *
+   * @param pattern   the pattern to play
+   * @param startBeat the beat the first repeat starts on
+   * @param repeats   the number of times to play the pattern
+   * @throws IllegalArgumentException if the start beat is before beat 0, the number of repeats is
+   *                                  less than 1, or the instance would end after the last beat
+   *                                  a song can have
+   */
+  public PatternInstance(Pattern pattern, int startBeat, int repeats)
+      throws IllegalArgumentException {
+    if (startBeat < 0) {
+      throw new IllegalArgumentException("Pattern instance cannot start before the first beat.");
+    }
+
+    if (repeats < 1) {
+      throw new IllegalArgumentException("Pattern instance must repeat at least once.");
+    }
+
+    if ((long) startBeat + (long) pattern.getLength() * repeats - 1 > MIDI.MAX_BEATS) {
+      throw new IllegalArgumentException("Pattern instance cannot end after the last beat.");
+    }
+
+    this.pattern = pattern;
+    this.startBeat = startBeat;
+    this.repeats = repeats;
+  }
+
+  /**
+   * Gets the pattern played by this instance.
+   *
+   * @return the pattern played by this instance
+   */
+  public Pattern getPattern() {
+    return this.pattern;
+  }
+
+  /**
+   * Gets the beat the first repeat of this instance starts on.
+   *
+   * @return the start beat of this instance
+   */
+  public int getStartBeat() {
+    return this.startBeat;
+  }
+
+  /**
+   * Gets the number of times the pattern is played by this instance.
+   *
+   * @return the number of repeats of this instance
+   */
+  public int getRepeats() {
+    return this.repeats;
+  }
+
+  /**
+   * Gets the last beat of the last repeat of this instance.
+   *
+   * @return the end beat of this instance
+   */
+  public int getEndBeat() {
+    return this.startBeat + this.pattern.getLength() * this.repeats - 1;
+  }
+
+  /**
+   * Returns a copy of this instance which plays the given pattern instead, starting at the same
+   * beat with the same number of repeats.
+   *
+   * @param pattern the pattern for the copy to play
+   * @return a copy of this instance playing the given pattern
+   * @throws IllegalArgumentException if the copy would end after the last beat a song can have
+   */
+  public PatternInstance withPattern(Pattern pattern) throws IllegalArgumentException {
+    return new PatternInstance(pattern, this.startBeat, this.repeats);
+  }
+
+  /**
+   * Performs the given action on each unit played by this instance which overlaps the given range
+   * of beats, encoded (see {@link mycomposer.model.unit.UnitCodec}) at the beats it is played on,
+   * in order of increasing start beat. Only the repeats overlapping the range are looked at.
+   *
+   * @param startBeat the first beat of the range
+   * @param endBeat   the last beat of the range
+   * @param action    the action to perform on each encoded unit
+   */
+  public void forEachEncodedUnit(int startBeat, int endBeat, LongConsumer action) {
+    int length = this.pattern.getLength();
+    int first = (int) Math.max(0, ((long) startBeat - this.startBeat) / length);
+    int last = (int) Math.min(this.repeats - 1L, ((long) endBeat - this.startBeat) / length);
+
+    for (int repeat = first; repeat <= last; repeat++) {
+      int offset = this.startBeat + repeat * length;
+
+      this.pattern.forEachEncodedUnit(startBeat - offset, endBeat - offset, offset, action);
+    }
+  }
+
+  /**
+   * Gets a hash of the pattern, start beat, and number of repeats of this instance, which is the
+   * same for any instance with the same content.
+   *
+   * @return the content hash of this instance
+   */
+  public long contentHash() {
+    return ContentHash.combine(ContentHash.combine(this.pattern.contentHash(), this.startBeat),
+        this.repeats);
+  }
+
+  @Override
+  public String toString() {
+    return this.startBeat + " " + this.repeats + " " + this.pattern.getName();
+  }
+}
@@ -0,0 +1,102 @@
+package mycomposer.model;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import mycomposer.model.unit.Unit;
+
+/**
+ * Contains methods for splitting units which may overlap each other, such as the notes of chords,
+ * across as few layers as possible. Since each layer can only play one unit at a time, this lets
+ * polyphonic material be placed into a song without choosing a layer for each unit by hand.
+ *
+ * <p>Units are assigned by sweeping over them in order of start beat, keeping the layers in use in
+ * a priority queue ordered by the beat their last unit ends on. Each unit goes into the layer which
+ * became free the earliest, or into a new layer if every layer is still playing. This colours the
+ * interval graph of the units greedily, which for intervals always uses the fewest layers possible:
+ * exactly as many as the largest number of units sounding at any one beat. The sweep takes
+ * O(n log n) time for n units.
+ */
+public final class PolyphonySplitter {
+
+  /**
+   * Assigns the given units to the fewest groups possible such that no two units in the same group
+   * overlap. Each group is sorted in order of increasing start beat.
+   *
+   * @param units the units to assign, which may overlap each other
+   * @return the units in each group, where every group is non-empty
+   */
+  public static List<List<Unit>> assignLayers(Collection<? extends Unit> units) {
+    List<Unit> sorted = new ArrayList<>(units);
+    sorted.sort(Comparator.comparingInt(Unit::getStartBeat));
+
+    List<List<Unit>> groups = new ArrayList<>();
+    List<Integer> groupEnds = new ArrayList<>();
+    PriorityQueue<Integer> playing = new PriorityQueue<>(Comparator.comparingInt(groupEnds::get));
+
+    for (Unit unit : sorted) {
+      int group;
+
+      // the group which became free the earliest is the only one worth checking
+      if (!playing.isEmpty() && groupEnds.get(playing.peek()) < unit.getStartBeat()) {
+        group = playing.poll();
+      } else {
+        group = groups.size();
+        groups.add(new ArrayList<>());
+        groupEnds.add(0);
+      }
+
+      groups.get(group).add(unit);
+      groupEnds.set(group, unit.getEndBeat());
+      playing.add(group);
+    }
+
+    return groups;
+  }
+
+  /**
+   * Splits the given units across the fewest new layers possible (see {@link
+   * #assignLayers(Collection)}) and adds those layers to the end of the given song, all in a single
+   * batch. Layers are named with the given name followed by their number, starting from 1. The
+   * given units must not already be in a layer.
+   *
+   * @param song   the song to add the layers to
+   * @param units  the units to split, which may overlap each other
+   * @param name   the name to give the new layers
+   * @param volume the volume of the new layers
+   * @param color  the color of the new layers
+   * @return the layers added to the song, in order
+   * @throws IllegalArgumentException if the given name is empty or the given volume is less than 0
+   *                                  or greater than 100
+   * @throws BatchConflictException   if any of the given units start before the first beat, in
+   *                                  which case the song is not changed
+   */
+  public static List<Layer> splitIntoLayers(Song song, Collection<? extends Unit> units,
+      String name, int volume, LayerColor color)
+      throws IllegalArgumentException, BatchConflictException {
+    if (name.length() == 0) {
+      throw new IllegalArgumentException("Layer name cannot be empty.");
+    }
+
+    List<List<Unit>> groups = assignLayers(units);
+    List<Layer> layers = new ArrayList<>(groups.size());
+    SongBatch batch = new SongBatch();
+
+    for (int i = 0; i < groups.size(); i++) {
+      Layer layer = new Layer(name + " " + (i + 1), volume, color, false);
+      LayerBatch layerBatch = batch.addLayer(layer).forLayer(layer);
+
+      for (Unit unit : groups.get(i)) {
+        layerBatch.addUnit(unit);
+      }
+
+      layers.add(layer);
+    }
+
+    song.applyBatch(batch);
+
+    return layers;
+  }
+}
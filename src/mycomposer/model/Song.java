@@ -1,6 +1,7 @@
 package mycomposer.model;
 
 import java.util.List;
+import mycomposer.model.unit.Unit;
 
 /**
  * Represents a song for the composer program. Songs have a tempo and are comprised of layers, each
@@ -32,6 +33,22 @@ public interface Song {
    */
   List<Layer> getLayers();
 
+  /**
+   * Gets the number of layers in this song.
+   *
+   * @return the number of layers in this song
+   */
+  int getLayerCount();
+
+  /**
+   * Gets the layer at the given index without copying the list of layers.
+   *
+   * @param index the index of the layer
+   * @return the layer at the given index
+   * @throws IndexOutOfBoundsException if the given index is out of range
+   */
+  Layer getLayer(int index) throws IndexOutOfBoundsException;
+
   /**
    * Returns the final beat of this song.
    *
@@ -39,6 +56,24 @@ public interface Song {
    */
   int getFinalBeat();
 
+  /**
+   * Gets the number of changes made to this song since it was created, counting every change to
+   * its layers as well as to the song itself.
+   *
+   * @return the version of this song
+   */
+  long getVersion();
+
+  /**
+   * Gets the number of changes made to the structure of this song since it was created: adding,
+   * removing, or moving layers, and changing the tempo. Changes within layers are counted by each
+   * layer instead (see {@link Layer#getVersion()}), so a cache of per-layer results only needs to
+   * compare this version and the version of each layer to know what is out of date.
+   *
+   * @return the structure version of this song
+   */
+  long getStructureVersion();
+
   /**
    * Adds the given layer to this song.
    *
@@ -53,6 +88,150 @@ public interface Song {
    */
   void removeLayer(Layer layer);
 
+  /**
+   * Moves the given layer to the given index in this song, shifting the layers in between.
+   *
+   * @param layer the layer to move
+   * @param index the index to move the layer to
+   * @throws IllegalArgumentException if the given layer is not in this song
+   * @throws IndexOutOfBoundsException if the given index is out of range
+   */
+  void moveLayer(Layer layer, int index) throws IllegalArgumentException, IndexOutOfBoundsException;
+
+  /**
+   * Gets the unit in this song with the given ID (see {@link Unit#getId()}), if there is one. The
+   * song keeps track of the layer holding each unit and each layer finds its units by ID directly,
+   * so this takes constant time however many layers the song has.
+   *
+   * @param id the ID of the unit
+   * @return the unit with the given ID, or {@code null} if this song has no such unit
+   */
+  Unit getUnitById(long id);
+
+  /**
+   * Gets the layer in this song holding the unit with the given ID, if there is one, in constant
+   * time.
+   *
+   * @param id the ID of the unit
+   * @return the layer holding the unit with the given ID, or {@code null} if this song has no such
+   * unit
+   */
+  Layer getLayerOfUnit(long id);
+
+  /**
+   * Returns the units in this song which overlap the given range of beats. Units are grouped by
+   * layer, in the same order as the layers of this song, and sorted by start beat within each
+   * layer. Each layer is binary searched for the first unit in the range, so only the units in the
+   * range are looked at.
+   *
+   * @param startBeat the first beat of the range
+   * @param endBeat   the last beat of the range
+   * @return the units in this song which overlap the given range
+   * @throws IllegalArgumentException if the given end beat is before the given start beat
+   */
+  List<Unit> unitsInRange(int startBeat, int endBeat) throws IllegalArgumentException;
+
+  /**
+   * Returns the units in this song which are sounding at the given beat, at most one per layer, in
+   * the same order as the layers of this song. The layers playing something at the beat are found
+   * in a song-wide index in logarithmic time, and only those layers are searched for their unit.
+   *
+   * @param beat the beat to check
+   * @return the units sounding at the given beat
+   */
+  List<Unit> unitsAt(int beat);
+
+  /**
+   * Returns every beat in the given range at which some unit in this song starts or stops
+   * sounding, in increasing order and without duplicates. Between two consecutive change points,
+   * {@link #unitsAt(int)} returns the same units. The change points are read from a song-wide index
+   * in logarithmic time plus the time to list them, and only layers with pattern instances in the
+   * range are searched.
+   *
+   * @param startBeat the first beat of the range
+   * @param endBeat   the last beat of the range
+   * @return the beats in the given range where the units sounding change
+   * @throws IllegalArgumentException if the given end beat is before the given start beat
+   */
+  int[] changePointsInRange(int startBeat, int endBeat) throws IllegalArgumentException;
+
+  /**
+   * Finds the earliest beat at or after the given beat from which the given number of beats in a
+   * row are empty in some layer of this song (see {@link Layer#findGap(int, int)}). If several
+   * layers have room at that beat, the first of them is chosen. The free beats of every layer are
+   * kept in one song-wide index, so this takes logarithmic time however many layers there are.
+   *
+   * @param beat   the first beat to consider
+   * @param length the number of empty beats needed
+   * @return the layer and first beat of the empty run of beats, or {@code null} if no layer has
+   * room
+   * @throws IllegalArgumentException if the given beat is less than 0 or the given length is less
+   *                                  than 1
+   */
+  FreeSlot findFreeSlot(int beat, int length) throws IllegalArgumentException;
+
+  /**
+   * Applies every change in the given batch to this song at once. The whole batch is checked
+   * before anything is changed, and listeners are notified once after every change has been made.
+   *
+   * @param batch the batch to apply
+   * @throws BatchConflictException if the batch adds a layer which is already in this song,
+   *                                changes, removes or moves a layer which is not in this song,
+   *                                removes a layer more than once, moves a layer past the end of
+   *                                the song, or has any conflicts within a layer (see {@link
+   *                                Layer#checkBatch(LayerBatch)}), in which case this song is not
+   *                                changed
+   */
+  void applyBatch(SongBatch batch) throws BatchConflictException;
+
+  /**
+   * Makes every instance of the given pattern in every layer of this song play the given
+   * replacement pattern instead, which is how patterns are edited (see {@link Pattern}). Listeners
+   * are notified once after every instance has been updated.
+   *
+   * @param pattern     the pattern to replace
+   * @param replacement the edited copy of the pattern to replace it with
+   * @throws IllegalArgumentException if any instance would overlap other units or pattern
+   *                                  instances once it plays the replacement pattern, in which case
+   *                                  this song is not changed
+   */
+  void replacePattern(Pattern pattern, Pattern replacement) throws IllegalArgumentException;
+
+  /**
+   * Adds the given listener to be notified after every change to this song, including changes to
+   * the units and settings of any of its layers.
+   *
+   * @param listener the listener to add
+   */
+  void addListener(SongListener listener);
+
+  /**
+   * Removes the given listener from this song if it is present.
+   *
+   * @param listener the listener to remove
+   */
+  void removeListener(SongListener listener);
+
+  /**
+   * Returns an immutable snapshot of this song as it is now, which can safely be read from other
+   * threads while this song continues to be edited. Taking a snapshot only copies the layers which
+   * have changed since the previous snapshot, and returns the previous snapshot unchanged if
+   * nothing has changed at all.
+   *
+   * @return a snapshot of this song
+   */
+  SongSnapshot snapshot();
+
+  /**
+   * Gets a hash of the tempo of this song and the content of its layers in order (see {@link
+   * Layer#contentHash()}). Songs with the same content always have the same hash, even in a
+   * different run of the program. This takes time in proportion to the number of layers, not the
+   * number of units.
+   *
+   * @return the content hash of this song
+   */
+  long contentHash();
+
   /**
    * Outputs a formatted string containing all data needed to represent this song, including the
    * colors and mute settings of all layers. The string returned by this method can be read into the
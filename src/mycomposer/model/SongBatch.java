@@ -0,0 +1,154 @@
+package mycomposer.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Represents a set of changes to be applied to a song all at once (see {@link
+ * Song#applyBatch(SongBatch)}): new layers to add, a {@link LayerBatch} of changes for any number
+ * of layers, layers to remove, new positions for layers and a new tempo. Nothing happens to the
+ * song until the batch is applied, at which point either every change is made or none are.
+ */
+public final class SongBatch {
+
+  private final List<Layer> newLayers;
+  private final Map<Layer, LayerBatch> layerBatches;
+  private final List<Layer> removedLayers;
+  private final Map<Layer, Integer> layerMoves;
+  private Integer tempo;
+
+  /**
+   * Creates an empty batch.
+   */
+  public SongBatch() {
+    this.newLayers = new ArrayList<>();
+    this.layerBatches = new LinkedHashMap<>();
+    this.removedLayers = new ArrayList<>();
+    this.layerMoves = new LinkedHashMap<>();
+    this.tempo = null;
+  }
+
+  /**
+   * Adds the given layer to the end of the song when this batch is applied.
+   *
+   * @param layer the layer to add
+   * @return this batch
+   */
+  public SongBatch addLayer(Layer layer) {
+    this.newLayers.add(layer);
+    return this;
+  }
+
+  /**
+   * Removes the given layer from the song when this batch is applied, after the unit changes for
+   * every layer have been made.
+   *
+   * @param layer the layer to remove
+   * @return this batch
+   */
+  public SongBatch removeLayer(Layer layer) {
+    this.removedLayers.add(layer);
+    return this;
+  }
+
+  /**
+   * Moves the given layer to the given index in the song when this batch is applied, after layers
+   * have been added and removed. Layers are moved in the order they are first passed to this
+   * method, so moving layers in order of increasing index leaves each at the index given for it.
+   *
+   * @param layer the layer to move
+   * @param index the index to move the layer to
+   * @return this batch
+   */
+  public SongBatch moveLayer(Layer layer, int index) {
+    this.layerMoves.put(layer, index);
+    return this;
+  }
+
+  /**
+   * Sets the tempo of the song when this batch is applied.
+   *
+   * @param tempo the new tempo in beats per minute
+   * @return this batch
+   * @throws IllegalArgumentException if the tempo is not between 10 and 500 BPM inclusive
+   */
+  public SongBatch setTempo(int tempo) throws IllegalArgumentException {
+    if (tempo < 10 || tempo > 500) {
+      throw new IllegalArgumentException("Tempo must be between 10 and 500 BPM inclusive.");
+    }
+
+    this.tempo = tempo;
+    return this;
+  }
+
+  /**
+   * Gets the batch of changes for the given layer, creating an empty one if this batch does
+   * not have one yet. The layer may be one that is already in the song or one added by this batch.
+   * Layers are changed in the order they are first passed to this method.
+   *
+   * @param layer the layer to change
+   * @return the batch of changes for the given layer
+   */
+  public LayerBatch forLayer(Layer layer) {
+    return this.layerBatches.computeIfAbsent(layer, key -> new LayerBatch());
+  }
+
+  /**
+   * Returns whether or not this batch contains no changes.
+   *
+   * @return whether or not this batch is empty
+   */
+  public boolean isEmpty() {
+    return this.newLayers.isEmpty() && this.removedLayers.isEmpty()
+        && this.layerMoves.isEmpty() && this.tempo == null
+        && this.layerBatches.values().stream().allMatch(LayerBatch::isEmpty);
+  }
+
+  /**
+   * Gets the layers to be added by this batch, in order.
+   *
+   * @return the layers to be added
+   */
+  List<Layer> getNewLayers() {
+    return Collections.unmodifiableList(this.newLayers);
+  }
+
+  /**
+   * Gets the layers to be removed by this batch, in order.
+   *
+   * @return the layers to be removed
+   */
+  List<Layer> getRemovedLayers() {
+    return Collections.unmodifiableList(this.removedLayers);
+  }
+
+  /**
+   * Gets the index each layer moved by this batch is moved to, in the order they are moved.
+   *
+   * @return the new index of each moved layer
+   */
+  Map<Layer, Integer> getLayerMoves() {
+    return Collections.unmodifiableMap(this.layerMoves);
+  }
+
+  /**
+   * Gets the tempo set by this batch.
+   *
+   * @return the new tempo, or {@code null} if this batch does not change the tempo
+   */
+  Integer getTempo() {
+    return this.tempo;
+  }
+
+  /**
+   * Gets the batch of unit changes for each layer changed by this batch.
+   *
+   * @return the unit changes for each layer
+   */
+  Map<Layer, LayerBatch> getLayerBatches() {
+    return Collections.unmodifiableMap(this.layerBatches);
+  }
+}
@@ -0,0 +1,407 @@
+package mycomposer.model;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import mycomposer.model.unit.Unit;
+import mycomposer.model.unit.UnitCodec;
+
+/**
+ * Represents the differences between two versions of a song, such as the song being edited and the
+ * song last saved to its file. Layers are matched up by name, in order if several layers share a
+ * name, and each matched pair is compared unit by unit (see {@link LayerDiff}).
+ *
+ * <p>Comparing two snapshots of the same song skips every run of units the snapshots share, so
+ * only the parts of each layer edited in between are looked at. Otherwise, each layer is compared
+ * in a single pass over its units.
+ *
+ * <p>A diff can also be applied to a song matching its older version with {@link #applyTo(Song)},
+ * which changes only what differs rather than replacing the whole song, so a song can be reloaded
+ * from its file without losing its undo history or the unit objects shown by the editor.
+ */
+public final class SongDiff {
+
+  private final int tempoBefore;
+  private final int tempoAfter;
+  private final List<LayerDiff> layers;
+
+  /**
+   * Creates a diff with the given differences.
+   *
+   * @param tempoBefore the tempo of the older song
+   * @param tempoAfter  the tempo of the newer song
+   * @param layers      the differences between each layer
+   */
+  private SongDiff(int tempoBefore, int tempoAfter, List<LayerDiff> layers) {
+    this.tempoBefore = tempoBefore;
+    this.tempoAfter = tempoAfter;
+    this.layers = List.copyOf(layers);
+  }
+
+  /**
+   * Compares two versions of a song.
+   *
+   * @param before the older version of the song
+   * @param after  the newer version of the song
+   * @return the differences between the two versions
+   */
+  public static SongDiff compare(SongSnapshot before, SongSnapshot after) {
+    List<LayerSnapshot> beforeLayers = before.getLayers();
+    List<LayerSnapshot> afterLayers = after.getLayers();
+    Map<String, ArrayDeque<Integer>> afterIndices = new HashMap<>();
+
+    for (int i = 0; i < afterLayers.size(); i++) {
+      afterIndices.computeIfAbsent(afterLayers.get(i).getName(), name -> new ArrayDeque<>())
+          .add(i);
+    }
+
+    List<LayerDiff> layers = new ArrayList<>();
+    boolean[] matched = new boolean[afterLayers.size()];
+
+    for (int i = 0; i < beforeLayers.size(); i++) {
+      ArrayDeque<Integer> indices = afterIndices.get(beforeLayers.get(i).getName());
+
+      if (indices == null || indices.isEmpty()) {
+        layers.add(LayerDiff.compare(i, beforeLayers.get(i), -1, null));
+      } else {
+        int j = indices.poll();
+        matched[j] = true;
+        layers.add(LayerDiff.compare(i, beforeLayers.get(i), j, afterLayers.get(j)));
+      }
+    }
+
+    for (int j = 0; j < afterLayers.size(); j++) {
+      if (!matched[j]) {
+        layers.add(LayerDiff.compare(-1, null, j, afterLayers.get(j)));
+      }
+    }
+
+    return new SongDiff(before.getTempo(), after.getTempo(), layers);
+  }
+
+  /**
+   * Gets the tempo of the older song.
+   *
+   * @return the tempo before
+   */
+  public int getTempoBefore() {
+    return this.tempoBefore;
+  }
+
+  /**
+   * Gets the tempo of the newer song.
+   *
+   * @return the tempo after
+   */
+  public int getTempoAfter() {
+    return this.tempoAfter;
+  }
+
+  /**
+   * Gets the differences for every layer in either song: first each layer of the older song, in
+   * order, and then each layer only in the newer song, in order.
+   *
+   * @return the differences between each layer
+   */
+  public List<LayerDiff> getLayerDiffs() {
+    return this.layers;
+  }
+
+  /**
+   * Returns whether or not the layers found in both songs are in a different order in the newer
+   * song.
+   *
+   * @return whether or not the layers were reordered
+   */
+  public boolean isOrderChanged() {
+    int lastIndex = -1;
+
+    for (LayerDiff layer : this.layers) {
+      if (layer.getBeforeIndex() != -1 && layer.getAfterIndex() != -1) {
+        if (layer.getAfterIndex() < lastIndex) {
+          return true;
+        }
+
+        lastIndex = layer.getAfterIndex();
+      }
+    }
+
+    return false;
+  }
+
+  /**
+   * Returns whether or not the two versions of the song are the same.
+   *
+   * @return whether or not nothing changed
+   */
+  public boolean isEmpty() {
+    if (this.tempoBefore != this.tempoAfter || this.isOrderChanged()) {
+      return false;
+    }
+
+    for (LayerDiff layer : this.layers) {
+      if (!layer.isEmpty()) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  /**
+   * Changes the given song, which must match the older version of the song, into the newer
+   * version. Every change is made in a single batch (see {@link Song#applyBatch(SongBatch)}):
+   * units, pattern instances and layer settings, layers added or removed, the order of the layers
+   * and the tempo, so either the whole diff is applied or nothing is changed, and an undo history
+   * records it as one step. Units which are only moved or resized stay the same unit objects, and
+   * changed units keep their IDs.
+   *
+   * @param song the song to change
+   * @throws IllegalArgumentException if the number or names of the layers of the given song do
+   *                                  not match the layers of the older version, in which case the
+   *                                  song is not changed
+   * @throws BatchConflictException   if the units or pattern instances of the given song do not
+   *                                  match those of the older version, in which case the song is
+   *                                  not changed
+   */
+  public void applyTo(Song song) throws IllegalArgumentException, BatchConflictException {
+    List<Layer> songLayers = song.getLayers();
+    Layer[] targets = new Layer[this.layers.size()];
+    SongBatch batch = new SongBatch();
+    List<String> conflicts = new ArrayList<>();
+    int beforeLayers = 0;
+
+    for (LayerDiff diff : this.layers) {
+      if (!diff.isLayerAdded()) {
+        beforeLayers++;
+      }
+    }
+
+    if (songLayers.size() != beforeLayers) {
+      throw new IllegalArgumentException("Song has " + songLayers.size() + " layers, but "
+          + beforeLayers + " were expected.");
+    }
+
+    for (int i = 0; i < targets.length; i++) {
+      LayerDiff diff = this.layers.get(i);
+
+      if (diff.isLayerAdded()) {
+        LayerSnapshot after = diff.getAfter();
+        targets[i] = new Layer(after.getName(), after.getVolume(), after.getColor(),
+            after.isMute());
+        batch.addLayer(targets[i]);
+        addUnits(batch.forLayer(targets[i]), diff.getAddedUnits());
+        addInstances(batch.forLayer(targets[i]), diff.getAddedInstances());
+        continue;
+      }
+
+      int index = diff.getBeforeIndex();
+
+      if (index >= songLayers.size() || !songLayers.get(index).getName().equals(diff.getName())) {
+        throw new IllegalArgumentException("Song does not have layer " + diff.getName()
+            + " at index " + index + ".");
+      }
+
+      targets[i] = songLayers.get(index);
+
+      if (diff.isLayerRemoved()) {
+        batch.removeLayer(targets[i]);
+        continue;
+      }
+
+      if (diff.isContentChanged()) {
+        LayerBatch layerBatch = batch.forLayer(targets[i]);
+        removeUnits(targets[i], layerBatch, diff.getRemovedUnits(), conflicts);
+        changeUnits(targets[i], layerBatch, diff.getChangedUnitsBefore(),
+            diff.getChangedUnitsAfter(), conflicts);
+        addUnits(layerBatch, diff.getAddedUnits());
+        removeInstances(targets[i], layerBatch, diff.getRemovedInstances(), conflicts);
+        addInstances(layerBatch, diff.getAddedInstances());
+      }
+
+      if (diff.isSettingsChanged()) {
+        LayerSnapshot after = diff.getAfter();
+        batch.forLayer(targets[i]).setVolume(after.getVolume()).setColor(after.getColor())
+            .setMute(after.isMute());
+      }
+    }
+
+    if (this.tempoBefore != this.tempoAfter) {
+      batch.setTempo(this.tempoAfter);
+    }
+
+    // moving each layer to its index in order leaves every earlier layer where it belongs
+    Layer[] order = new Layer[targets.length];
+
+    for (int i = 0; i < targets.length; i++) {
+      if (!this.layers.get(i).isLayerRemoved()) {
+        order[this.layers.get(i).getAfterIndex()] = targets[i];
+      }
+    }
+
+    for (int i = 0; i < order.length && order[i] != null; i++) {
+      batch.moveLayer(order[i], i);
+    }
+
+    if (!conflicts.isEmpty()) {
+      throw new BatchConflictException(conflicts);
+    }
+
+    song.applyBatch(batch);
+  }
+
+  /**
+   * Adds the given encoded units to the given batch as new units.
+   *
+   * @param layerBatch the batch to add the units to
+   * @param units      the encoded units to add
+   */
+  private static void addUnits(LayerBatch layerBatch, long[] units) {
+    for (long unit : units) {
+      layerBatch.addUnit(UnitCodec.decode(unit));
+    }
+  }
+
+  /**
+   * Adds the given pattern instances to the given batch.
+   *
+   * @param layerBatch the batch to add the instances to
+   * @param instances  the pattern instances to add
+   */
+  private static void addInstances(LayerBatch layerBatch, List<PatternInstance> instances) {
+    for (PatternInstance instance : instances) {
+      layerBatch.addPatternInstance(instance);
+    }
+  }
+
+  /**
+   * Adds the removal of each pattern instance in the given layer starting where one of the given
+   * pattern instances starts to the given batch, adding a conflict to the given list for each
+   * instance which is not in the layer.
+   *
+   * @param layer      the layer to remove pattern instances from
+   * @param layerBatch the batch to add the removals to
+   * @param instances  the pattern instances to remove
+   * @param conflicts  the list to add conflicts to
+   */
+  private static void removeInstances(Layer layer, LayerBatch layerBatch,
+      List<PatternInstance> instances, List<String> conflicts) {
+    List<PatternInstance> current = layer.getPatternInstances();
+
+    for (PatternInstance removed : instances) {
+      PatternInstance found = null;
+
+      for (PatternInstance instance : current) {
+        if (instance.getStartBeat() == removed.getStartBeat()) {
+          found = instance;
+          break;
+        }
+      }
+
+      if (found == null) {
+        conflicts.add(String.format(
+            "Layer %s has no pattern instance matching the one at beats %d-%d.",
+            layer.getName(), removed.getStartBeat(), removed.getEndBeat()));
+      } else {
+        layerBatch.removePatternInstance(found);
+      }
+    }
+  }
+
+  /**
+   * Adds the removal of each unit in the given layer matching one of the given encoded units to
+   * the given batch, adding a conflict to the given list for each unit which is not in the layer.
+   *
+   * @param layer      the layer to remove units from
+   * @param layerBatch the batch to add the removals to
+   * @param units      the encoded units to remove
+   * @param conflicts  the list to add conflicts to
+   */
+  private static void removeUnits(Layer layer, LayerBatch layerBatch, long[] units,
+      List<String> conflicts) {
+    for (long unit : units) {
+      Unit found = findUnit(layer, unit, conflicts);
+
+      if (found != null) {
+        layerBatch.removeUnit(found);
+      }
+    }
+  }
+
+  /**
+   * Adds the change of each unit in the given layer matching one of the given older encoded units
+   * into the matching newer encoded unit to the given batch, adding a conflict to the given list
+   * for each unit which is not in the layer.
+   *
+   * @param layer      the layer to change units in
+   * @param layerBatch the batch to add the changes to
+   * @param before     the older versions of the units
+   * @param after      the newer versions of the units
+   * @param conflicts  the list to add conflicts to
+   */
+  private static void changeUnits(Layer layer, LayerBatch layerBatch, long[] before,
+      long[] after, List<String> conflicts) {
+    for (int i = 0; i < before.length; i++) {
+      Unit found = findUnit(layer, before[i], conflicts);
+
+      if (found == null) {
+        continue;
+      }
+
+      int startBeat = UnitCodec.getStartBeat(after[i]);
+      int endBeat = UnitCodec.getEndBeat(after[i]);
+
+      if (after[i] == UnitCodec.withStartEnd(before[i], startBeat, endBeat)) {
+        layerBatch.moveUnit(found, startBeat, endBeat);
+      } else {
+        layerBatch.removeUnit(found);
+        layerBatch.addUnit(UnitCodec.decode(after[i], found.getId()));
+      }
+    }
+  }
+
+  /**
+   * Finds the unit in the given layer which matches the given encoded unit, adding a conflict to
+   * the given list if there is none.
+   *
+   * @param layer     the layer to search
+   * @param unit      the encoded unit to find
+   * @param conflicts the list to add conflicts to
+   * @return the matching unit, or {@code null} if there is none
+   */
+  private static Unit findUnit(Layer layer, long unit, List<String> conflicts) {
+    Unit found = layer.unitAt(UnitCodec.getStartBeat(unit));
+
+    if (found == null || !layer.containsUnit(found.getId()) || UnitCodec.encode(found) != unit) {
+      conflicts.add(String.format("Layer %s has no unit matching the one at beats %d-%d.",
+          layer.getName(), UnitCodec.getStartBeat(unit), UnitCodec.getEndBeat(unit)));
+      return null;
+    }
+
+    return found;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder();
+
+    if (this.tempoBefore != this.tempoAfter) {
+      builder.append("tempo ").append(this.tempoBefore).append(" -> ").append(this.tempoAfter)
+          .append("\n");
+    }
+
+    if (this.isOrderChanged()) {
+      builder.append("layers reordered\n");
+    }
+
+    for (LayerDiff layer : this.layers) {
+      if (!layer.isEmpty()) {
+        builder.append(layer).append("\n");
+      }
+    }
+
+    return builder.toString();
+  }
+}
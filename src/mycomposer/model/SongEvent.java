@@ -0,0 +1,153 @@
+package mycomposer.model;
+
+import java.util.List;
+
+/**
+ * Represents a single change to a song or to one of its layers. Each event has a type, the layer
+ * that was affected (if any), and the range of beats which may sound different because of the
+ * change.
+ *
+ * <p>Events also record what was changed, before and after the change, so that the change can be
+ * undone (see {@link UndoHistory}). Unit changes record the units taken out of and put into the
+ * layer as pairs of {@code long}s, the ID of each unit followed by the unit encoded (see
+ * {@link mycomposer.model.unit.UnitCodec}); pattern changes record the instances taken out and put
+ * in; setting changes record the old and new value; and layer changes record the index of the layer
+ * in the song before and after, or {@code null} where the layer is not in the song. An event made
+ * up of several others, such as for a batch, records those events instead.
+ */
+public final class SongEvent {
+
+  /**
+   * The kinds of changes which can be made to a song or layer.
+   */
+  public enum Type {
+    UnitAdded, UnitRemoved, UnitResized, UnitEdited, UnitsChanged, LayerAdded, LayerRemoved,
+    LayerMoved, LayerRenamed, VolumeChanged, MuteChanged, ColorChanged, TempoChanged, PatternAdded,
+    PatternRemoved, PatternEdited
+  }
+
+  private final Type type;
+  private final Layer layer;
+  private final int startBeat;
+  private final int endBeat;
+  private final Object before;
+  private final Object after;
+  private final List<SongEvent> parts;
+
+  /**
+   * Creates an event with the given type, layer, and range of affected beats, which records what
+   * was changed before and after the change.
+   *
+   * @param type      the type of change
+   * @param layer     the layer that was changed, or {@code null} if the change applies to the
+   *                  whole song
+   * @param startBeat the first beat affected by the change
+   * @param endBeat   the last beat affected by the change
+   * @param before    what was changed, as it was before the change
+   * @param after     what was changed, as it is after the change
+   */
+  SongEvent(Type type, Layer layer, int startBeat, int endBeat, Object before, Object after) {
+    this.type = type;
+    this.layer = layer;
+    this.startBeat = startBeat;
+    this.endBeat = endBeat;
+    this.before = before;
+    this.after = after;
+    this.parts = null;
+  }
+
+  /**
+   * Creates an event with the given type, layer, and range of affected beats, which is made up of
+   * the given events.
+   *
+   * @param type      the type of change
+   * @param layer     the layer that was changed, or {@code null} if more than one was changed
+   * @param startBeat the first beat affected by the change
+   * @param endBeat   the last beat affected by the change
+   * @param parts     the events making up this event, in the order they happened
+   */
+  SongEvent(Type type, Layer layer, int startBeat, int endBeat, List<SongEvent> parts) {
+    this.type = type;
+    this.layer = layer;
+    this.startBeat = startBeat;
+    this.endBeat = endBeat;
+    this.before = null;
+    this.after = null;
+    this.parts = List.copyOf(parts);
+  }
+
+  /**
+   * Gets the type of this change.
+   *
+   * @return the type of this change
+   */
+  public Type getType() {
+    return this.type;
+  }
+
+  /**
+   * Gets the layer affected by this change. Returns {@code null} for changes to the whole song,
+   * such as a change in tempo, and for batches of changes made to more than one layer.
+   *
+   * @return the layer affected by this change
+   */
+  public Layer getLayer() {
+    return this.layer;
+  }
+
+  /**
+   * Gets the first beat which may sound different because of this change. For changes to a unit,
+   * this covers the unit both before and after the change. For changes to a whole layer or song,
+   * this is 0.
+   *
+   * @return the first beat affected by this change
+   */
+  public int getStartBeat() {
+    return this.startBeat;
+  }
+
+  /**
+   * Gets the last beat which may sound different because of this change. For changes to a unit,
+   * this covers the unit both before and after the change. For changes to a whole layer or song,
+   * this is the final beat of that layer or song.
+   *
+   * @return the last beat affected by this change
+   */
+  public int getEndBeat() {
+    return this.endBeat;
+  }
+
+  /**
+   * Gets what was changed, as it was before this change.
+   *
+   * @return what was changed before this change, or {@code null} if there was nothing
+   */
+  Object getBefore() {
+    return this.before;
+  }
+
+  /**
+   * Gets what was changed, as it is after this change.
+   *
+   * @return what was changed after this change, or {@code null} if there is nothing
+   */
+  Object getAfter() {
+    return this.after;
+  }
+
+  /**
+   * Gets the events which make up this event, if it is made up of several.
+   *
+   * @return the events making up this event in the order they happened, or {@code null} if this
+   * event is a single change
+   */
+  List<SongEvent> getParts() {
+    return this.parts;
+  }
+
+  @Override
+  public String toString() {
+    String layerName = (this.layer == null) ? "song" : this.layer.getName();
+    return this.type + " " + layerName + " " + this.startBeat + "-" + this.endBeat;
+  }
+}
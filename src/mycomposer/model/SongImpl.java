@@ -1,25 +1,90 @@
 package mycomposer.model;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.IntFunction;
+import java.util.function.IntSupplier;
+import java.util.function.Supplier;
 import mycomposer.model.unit.Unit;
 
 /**
  * Represents an implementation of the song implementing all methods to allow the user to create and
  * modify songs.
+ *
+ * <p>The final beat of the song is kept up to date as layers change rather than computed on
+ * request. The song counts how many of its layers end on each beat, and each layer notifies the
+ * song when it changes, so the song only ever has to look at the largest count. The most recent
+ * snapshot of the song is kept in the same way until the song or one of its layers changes, as is
+ * the layer holding each unit, found from the units each change took out and put in, and a column
+ * index of what every layer is playing at each beat (see {@link ColumnIndex}). Every
+ * change to a layer is passed on to the listeners of the song, except that a batch of changes is
+ * passed on as a single event once the whole batch has been applied.
+ *
+ * <p>Songs are safe for one thread to edit while any number of other threads read them, in the
+ * same way as layers (see {@link ModelLock}). Batches and pattern replacements hold the write lock
+ * of the song until every layer has been changed, so readers of the song see either none or all of
+ * their changes.
  */
 public class SongImpl implements Song {
 
+  private final ModelLock lock;
   private final List<Layer> layers;
-  private int tempo;
+  private final IntFunction<Layer> layerAt;
+  private final IntSupplier layerCount;
+  private volatile int tempo;
+
+  private final NavigableMap<Integer, Integer> finalBeatCounts;
+  private final Map<Layer, Integer> layerFinalBeats;
+  private final SongListener layerListener;
+  private volatile int finalBeat;
+
+  private final Map<Long, Layer> unitLayers;
+  private final ColumnIndex columns;
+
+  private volatile long version;
+  private volatile long structureVersion;
+
+  private final List<SongListener> listeners;
+  private List<SongEvent> heldEvents;
+
+  private volatile SongSnapshot snapshot;
 
   /**
    * Constructs a new song with a default tempo of 60 BPM (beats per minute) and an empty list of
    * layers.
    */
   public SongImpl() {
+    this.lock = new ModelLock();
     this.layers = new ArrayList<>();
+    this.layerAt = this.layers::get;
+    this.layerCount = this.layers::size;
     this.tempo = 60;
+
+    this.finalBeatCounts = new TreeMap<>();
+    this.layerFinalBeats = new HashMap<>();
+    this.columns = new ColumnIndex();
+    this.layerListener = event -> this.write(() -> {
+      this.updateLayerFinalBeat(event.getLayer());
+      this.updateUnitLayers(event);
+      this.columns.update(event);
+      return this.changed(event);
+    });
+    this.finalBeat = 0;
+
+    this.unitLayers = new HashMap<>();
+
+    this.version = 0;
+    this.structureVersion = 0;
+
+    this.listeners = new CopyOnWriteArrayList<>();
+    this.heldEvents = null;
+
+    this.snapshot = null;
   }
 
   @Override
@@ -33,70 +98,482 @@ public class SongImpl implements Song {
       throw new IllegalArgumentException("Tempo must be between 10 and 500 BPM inclusive.");
     }
 
-    this.tempo = tempo;
+    this.write(() -> {
+      int before = this.tempo;
+      this.tempo = tempo;
+
+      return this.changed(new SongEvent(SongEvent.Type.TempoChanged, null, 0, this.finalBeat,
+          before, tempo));
+    });
   }
 
   @Override
   public List<Layer> getLayers() {
-    return new ArrayList<>(this.layers);
+    return this.lock.readLocked(() -> new ArrayList<>(this.layers));
+  }
+
+  @Override
+  public int getLayerCount() {
+    return this.lock.readCount(this.layerCount);
+  }
+
+  @Override
+  public Layer getLayer(int index) throws IndexOutOfBoundsException {
+    return this.lock.read(this.layerAt, index);
   }
 
   @Override
   public int getFinalBeat() {
-    int longestTrack = 0;
+    return this.finalBeat;
+  }
 
-    for (Layer layer : this.layers) {
-      int beatsInTrack = layer.getFinalBeat();
-      if (beatsInTrack > longestTrack) {
-        longestTrack = beatsInTrack;
-      }
-    }
+  @Override
+  public long getVersion() {
+    return this.version;
+  }
 
-    return longestTrack;
+  @Override
+  public long getStructureVersion() {
+    return this.structureVersion;
   }
 
   @Override
   public void addLayer(Layer layer) {
-    this.layers.add(layer);
+    this.write(() -> {
+      this.layers.add(layer);
+
+      layer.addListener(this.layerListener);
+      this.updateLayerFinalBeat(layer);
+      layer.forEachUnitId(id -> this.unitLayers.put(id, layer));
+      this.columns.addLayer(layer);
+      this.columns.setOrder(this.layers);
+      return this.changed(new SongEvent(SongEvent.Type.LayerAdded, layer, 0,
+          layer.getFinalBeat(), null, this.layers.size() - 1));
+    });
   }
 
   @Override
   public void removeLayer(Layer layer) {
-    this.layers.remove(layer);
+    this.write(() -> {
+      int index = this.layers.indexOf(layer);
+
+      if (index == -1) {
+        return null;
+      }
+
+      this.layers.remove(index);
+      layer.removeListener(this.layerListener);
+      this.removeFinalBeat(this.layerFinalBeats.remove(layer));
+      layer.forEachUnitId(id -> this.unitLayers.remove(id, layer));
+      this.columns.removeLayer(layer);
+      this.columns.setOrder(this.layers);
+
+      return this.changed(new SongEvent(SongEvent.Type.LayerRemoved, layer, 0,
+          layer.getFinalBeat(), index, null));
+    });
+  }
+
+  @Override
+  public void moveLayer(Layer layer, int index)
+      throws IllegalArgumentException, IndexOutOfBoundsException {
+    this.write(() -> {
+      int oldIndex = this.layers.indexOf(layer);
+
+      if (oldIndex == -1) {
+        throw new IllegalArgumentException("Layer is not in this song.");
+      }
+
+      if (index < 0 || index >= this.layers.size()) {
+        throw new IndexOutOfBoundsException("Index " + index + " is out of range for length "
+            + this.layers.size() + ".");
+      }
+
+      this.layers.remove(oldIndex);
+      this.layers.add(index, layer);
+      this.columns.setOrder(this.layers);
+      return this.changed(new SongEvent(SongEvent.Type.LayerMoved, layer, 0,
+          layer.getFinalBeat(), oldIndex, index));
+    });
+  }
+
+  @Override
+  public Unit getUnitById(long id) {
+    Layer layer = this.getLayerOfUnit(id);
+
+    return (layer == null) ? null : layer.getUnitById(id);
+  }
+
+  @Override
+  public Layer getLayerOfUnit(long id) {
+    return this.lock.read(() -> this.unitLayers.get(id));
+  }
+
+  @Override
+  public List<Unit> unitsInRange(int startBeat, int endBeat) throws IllegalArgumentException {
+    if (endBeat < startBeat) {
+      throw new IllegalArgumentException("End beat cannot be before start beat.");
+    }
+
+    return this.lock.readLocked(() -> {
+      List<Unit> units = new ArrayList<>();
+
+      for (Layer layer : this.layers) {
+        units.addAll(layer.unitsInRange(startBeat, endBeat));
+      }
+
+      return units;
+    });
+  }
+
+  @Override
+  public List<Unit> unitsAt(int beat) {
+    return this.lock.readLocked(() -> {
+      List<Unit> units = new ArrayList<>();
+
+      for (Layer layer : this.columns.layersAt(beat)) {
+        Unit unit = layer.unitAt(beat);
+
+        if (unit != null) {
+          units.add(unit);
+        }
+      }
+
+      return units;
+    });
+  }
+
+  @Override
+  public int[] changePointsInRange(int startBeat, int endBeat) throws IllegalArgumentException {
+    if (endBeat < startBeat) {
+      throw new IllegalArgumentException("End beat cannot be before start beat.");
+    }
+
+    return this.lock.readLocked(() -> this.columns.changePoints(startBeat, endBeat));
+  }
+
+  @Override
+  public FreeSlot findFreeSlot(int beat, int length) throws IllegalArgumentException {
+    if (beat < 0) {
+      throw new IllegalArgumentException("Beat cannot be less than 0.");
+    }
+
+    if (length < 1) {
+      throw new IllegalArgumentException("Gap must be at least 1 beat long.");
+    }
+
+    return this.lock.readLocked(() -> this.columns.findFreeSlot(beat, length));
+  }
+
+  @Override
+  public void applyBatch(SongBatch batch) throws BatchConflictException {
+    this.write(() -> {
+      List<String> conflicts = new ArrayList<>();
+      List<Layer> newLayers = batch.getNewLayers();
+
+      for (int i = 0; i < newLayers.size(); i++) {
+        Layer layer = newLayers.get(i);
+
+        if (this.layers.contains(layer) || newLayers.subList(0, i).contains(layer)) {
+          conflicts.add("Layer " + layer.getName() + " is already in this song.");
+        }
+      }
+
+      List<Layer> removedLayers = batch.getRemovedLayers();
+
+      for (int i = 0; i < removedLayers.size(); i++) {
+        Layer layer = removedLayers.get(i);
+
+        if (!this.layers.contains(layer) && !newLayers.contains(layer)) {
+          conflicts.add("Layer " + layer.getName() + " is not in this song.");
+        } else if (removedLayers.subList(0, i).contains(layer)) {
+          conflicts.add("Layer " + layer.getName() + " is removed more than once.");
+        }
+      }
+
+      for (Map.Entry<Layer, LayerBatch> entry : batch.getLayerBatches().entrySet()) {
+        Layer layer = entry.getKey();
+
+        if (!this.layers.contains(layer) && !newLayers.contains(layer)) {
+          conflicts.add("Layer " + layer.getName() + " is not in this song.");
+        }
+
+        for (String conflict : layer.checkBatch(entry.getValue())) {
+          conflicts.add(layer.getName() + ": " + conflict);
+        }
+      }
+
+      int finalSize = this.layers.size() + newLayers.size() - removedLayers.size();
+
+      for (Map.Entry<Layer, Integer> entry : batch.getLayerMoves().entrySet()) {
+        Layer layer = entry.getKey();
+        int index = entry.getValue();
+
+        if ((!this.layers.contains(layer) && !newLayers.contains(layer))
+            || removedLayers.contains(layer)) {
+          conflicts.add("Layer " + layer.getName() + " is not in this song.");
+        } else if (index < 0 || index >= finalSize) {
+          conflicts.add("Layer " + layer.getName() + " cannot be moved to index " + index + ".");
+        }
+      }
+
+      if (!conflicts.isEmpty()) {
+        throw new BatchConflictException(conflicts);
+      }
+
+      if (batch.isEmpty()) {
+        return null;
+      }
+
+      // nothing from here on can fail, so there is never anything to roll back: every layer batch
+      // has been checked against the layer it changes, which no other edit can reach while the
+      // write lock is held, a checked layer batch always applies in full (see Layer#applyBatch),
+      // and the layers to add, remove and move have all been checked against the final layers
+      List<SongEvent> events = new ArrayList<>();
+      this.heldEvents = events;
+
+      try {
+        for (Layer layer : newLayers) {
+          this.addLayer(layer);
+        }
+
+        for (Map.Entry<Layer, LayerBatch> entry : batch.getLayerBatches().entrySet()) {
+          entry.getKey().applyBatch(entry.getValue());
+        }
+
+        for (Layer layer : removedLayers) {
+          this.removeLayer(layer);
+        }
+
+        for (Map.Entry<Layer, Integer> entry : batch.getLayerMoves().entrySet()) {
+          if (this.layers.indexOf(entry.getKey()) != entry.getValue()) {
+            this.moveLayer(entry.getKey(), entry.getValue());
+          }
+        }
+
+        if (batch.getTempo() != null && batch.getTempo() != this.tempo) {
+          this.setTempo(batch.getTempo());
+        }
+      } finally {
+        this.heldEvents = null;
+      }
+
+      return this.changed(this.combineEvents(SongEvent.Type.UnitsChanged, events));
+    });
+  }
+
+  @Override
+  public void replacePattern(Pattern pattern, Pattern replacement)
+      throws IllegalArgumentException {
+    this.write(() -> {
+      for (Layer layer : this.layers) {
+        if (!layer.canReplacePattern(pattern, replacement)) {
+          throw new IllegalArgumentException("Replacement pattern cannot overlap existing units.");
+        }
+      }
+
+      List<SongEvent> events = new ArrayList<>();
+      this.heldEvents = events;
+
+      try {
+        for (Layer layer : this.layers) {
+          layer.replacePattern(pattern, replacement);
+        }
+      } finally {
+        this.heldEvents = null;
+      }
+
+      if (events.isEmpty()) {
+        return null;
+      }
+
+      return this.changed(this.combineEvents(SongEvent.Type.PatternEdited, events));
+    });
+  }
+
+  @Override
+  public void addListener(SongListener listener) {
+    this.listeners.add(listener);
+  }
+
+  @Override
+  public void removeListener(SongListener listener) {
+    this.listeners.remove(listener);
+  }
+
+  @Override
+  public SongSnapshot snapshot() {
+    SongSnapshot snapshot = this.snapshot;
+
+    if (snapshot != null) {
+      return snapshot;
+    }
+
+    // the cached snapshot is only set while edits to the song are locked out, so an edit can never
+    // clear it before a stale snapshot is stored
+    return this.lock.readLocked(() -> {
+      if (this.snapshot == null) {
+        List<LayerSnapshot> layerSnapshots = new ArrayList<>(this.layers.size());
+
+        for (Layer layer : this.layers) {
+          layerSnapshots.add(layer.snapshot());
+        }
+
+        this.snapshot = new SongSnapshot(this.tempo, layerSnapshots);
+      }
+
+      return this.snapshot;
+    });
+  }
+
+  @Override
+  public long contentHash() {
+    return this.lock.read(() -> {
+      long hash = ContentHash.mix(this.tempo);
+
+      for (Layer layer : this.layers) {
+        hash = ContentHash.combine(hash, layer.contentHash());
+      }
+
+      return hash;
+    });
   }
 
   @Override
   public String songInfo() {
-    StringBuilder builder = new StringBuilder();
+    return this.snapshot().songInfo();
+  }
 
-    builder.append("tempo ").append(this.tempo).append("\n\n");
+  /**
+   * Makes the given edit to this song while holding the write lock, then notifies all listeners of
+   * the events from the edit once the lock has been released.
+   *
+   * @param edit the edit to make, which returns the event to send or {@code null} if nothing
+   *             changed
+   */
+  private void write(Supplier<SongEvent> edit) {
+    for (SongEvent event : this.lock.write(edit)) {
+      for (SongListener listener : this.listeners) {
+        listener.songChanged(event);
+      }
+    }
+  }
+
+  /**
+   * Updates the layer recorded for each unit the given change to a layer took out or put in. A
+   * unit taken out is only forgotten if it is still recorded in the changed layer, since a batch
+   * may already have put it into another layer.
+   *
+   * @param event the change made to a layer
+   */
+  private void updateUnitLayers(SongEvent event) {
+    if (event.getParts() != null) {
+      for (SongEvent part : event.getParts()) {
+        this.updateUnitLayers(part);
+      }
+      return;
+    }
 
-    for (Layer layer : this.layers) {
-      String layerName = layer.getName();
+    if (event.getBefore() instanceof long[]) {
+      long[] before = (long[]) event.getBefore();
 
-      if (layer.isMute()) {
-        builder.append("*");
+      for (int i = 0; i < before.length; i += 2) {
+        this.unitLayers.remove(before[i], event.getLayer());
       }
+    }
+
+    if (event.getAfter() instanceof long[]) {
+      long[] after = (long[]) event.getAfter();
 
-      builder.append("layer ").append(layer.getColor()).append(" ").append(layer.getVolume())
-          .append(" ").append(layerName).append("\n");
+      for (int i = 0; i < after.length; i += 2) {
+        this.unitLayers.put(after[i], event.getLayer());
+      }
     }
+  }
 
-    for (Layer layer : this.layers) {
-      layer.sortUnits();
+  /**
+   * Clears the cached snapshot of this song, moves on to the next version (and the next structure
+   * version, if the event changed the layers or tempo of the song), and returns the given event to
+   * be sent once the edit is done. While a batch is being applied, the event is held instead so
+   * that a single event can be sent once the batch is done.
+   *
+   * @param event the change that was made
+   * @return the given event, or {@code null} if it is being held
+   */
+  private SongEvent changed(SongEvent event) {
+    this.snapshot = null;
+    this.version++;
+
+    switch (event.getType()) {
+      case LayerAdded:
+      case LayerRemoved:
+      case LayerMoved:
+      case TempoChanged:
+        this.structureVersion++;
+        break;
+      default:
+        break;
+    }
+
+    if (this.heldEvents != null) {
+      this.heldEvents.add(event);
+      return null;
+    }
 
-      String layerName = layer.getName();
+    return event;
+  }
 
-      builder.append("--------------------------").append("\n\n").append(layerName).append("\n");
+  /**
+   * Combines the given held events into a single event of the given type covering every one of
+   * them. The event names a layer only if every held event is for that layer.
+   *
+   * @param type   the type of the combined event
+   * @param events the held events to combine, of which there must be at least one
+   * @return the combined event
+   */
+  private SongEvent combineEvents(SongEvent.Type type, List<SongEvent> events) {
+    Layer layer = events.get(0).getLayer();
+    int startBeat = Integer.MAX_VALUE;
+    int endBeat = 0;
 
-      for (Unit unit : layer.getUnits()) {
-        builder.append("\n");
-        builder.append(unit.toString());
+    for (SongEvent event : events) {
+      if (event.getLayer() != layer) {
+        layer = null;
       }
 
-      builder.append("\n");
+      startBeat = Math.min(startBeat, event.getStartBeat());
+      endBeat = Math.max(endBeat, event.getEndBeat());
+    }
+
+    return new SongEvent(type, layer, startBeat, endBeat, events);
+  }
+
+  /**
+   * Updates the recorded final beat of the given layer and the final beat of this song if the
+   * final beat of the given layer has changed.
+   *
+   * @param layer the layer to update
+   */
+  private void updateLayerFinalBeat(Layer layer) {
+    int newFinalBeat = layer.getFinalBeat();
+    Integer oldFinalBeat = this.layerFinalBeats.put(layer, newFinalBeat);
+
+    if (oldFinalBeat == null || oldFinalBeat != newFinalBeat) {
+      this.removeFinalBeat(oldFinalBeat);
+      this.finalBeatCounts.merge(newFinalBeat, 1, Integer::sum);
+      this.finalBeat = this.finalBeatCounts.lastKey();
     }
+  }
 
-    return builder.toString();
+  /**
+   * Records that one less layer in this song ends on the given beat and updates the final beat of
+   * this song. Does nothing if the given beat is {@code null}.
+   *
+   * @param beat the previous final beat of the layer
+   */
+  private void removeFinalBeat(Integer beat) {
+    if (beat != null) {
+      this.finalBeatCounts.computeIfPresent(beat, (key, count) -> (count == 1) ? null : count - 1);
+      this.finalBeat = this.finalBeatCounts.isEmpty() ? 0 : this.finalBeatCounts.lastKey();
+    }
   }
 }
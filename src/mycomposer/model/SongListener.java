@@ -0,0 +1,14 @@
+package mycomposer.model;
+
+/**
+ * Listens for changes to a song or to a layer.
+ */
+public interface SongListener {
+
+  /**
+   * Called after a change is made to the song or layer this listener was added to.
+   *
+   * @param event the change that was made
+   */
+  void songChanged(SongEvent event);
+}
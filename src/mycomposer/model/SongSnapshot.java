@@ -0,0 +1,177 @@
+package mycomposer.model;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import mycomposer.model.unit.Unit;
+import mycomposer.model.unit.UnitCodec;
+
+/**
+ * Represents an immutable copy of a song at a single point in time. Snapshots can be read from any
+ * thread (for example to compile, export, or save the song in the background) while the song they
+ * were taken from continues to be edited. Layers which have not changed between two snapshots are
+ * shared by both.
+ */
+public final class SongSnapshot {
+
+  private final int tempo;
+  private final List<LayerSnapshot> layers;
+
+  /**
+   * Creates a snapshot of a song with the given tempo and layers.
+   *
+   * @param tempo  the tempo of the song
+   * @param layers snapshots of the layers of the song
+   */
+  SongSnapshot(int tempo, List<LayerSnapshot> layers) {
+    this.tempo = tempo;
+    this.layers = List.copyOf(layers);
+  }
+
+  /**
+   * Gets the tempo of the song.
+   *
+   * @return the tempo of the song
+   */
+  public int getTempo() {
+    return this.tempo;
+  }
+
+  /**
+   * Returns an unmodifiable list of snapshots of the layers in the song.
+   *
+   * @return the layers in the song
+   */
+  public List<LayerSnapshot> getLayers() {
+    return this.layers;
+  }
+
+  /**
+   * Returns the final beat of the song.
+   *
+   * @return the final beat of the song
+   */
+  public int getFinalBeat() {
+    int finalBeat = 0;
+
+    for (LayerSnapshot layer : this.layers) {
+      finalBeat = Math.max(finalBeat, layer.getFinalBeat());
+    }
+
+    return finalBeat;
+  }
+
+  /**
+   * Returns the units in the song which overlap the given range of beats, in the same order as
+   * {@link Song#unitsInRange(int, int)}. Editing these units does not change the snapshot.
+   *
+   * @param startBeat the first beat of the range
+   * @param endBeat   the last beat of the range
+   * @return the units in the song which overlap the given range
+   * @throws IllegalArgumentException if the given end beat is before the given start beat
+   */
+  public List<Unit> unitsInRange(int startBeat, int endBeat) throws IllegalArgumentException {
+    if (endBeat < startBeat) {
+      throw new IllegalArgumentException("End beat cannot be before start beat.");
+    }
+
+    List<Unit> units = new ArrayList<>();
+
+    for (LayerSnapshot layer : this.layers) {
+      units.addAll(layer.unitsInRange(startBeat, endBeat));
+    }
+
+    return units;
+  }
+
+  /**
+   * Outputs a formatted string containing all data needed to represent the song, in the same
+   * format as {@link Song#songInfo()}. Each pattern used by the song is written out once, before
+   * the units of the layers, under a number which is unique within the written song, and each layer
+   * lists its instances of patterns after its units, naming each pattern by its number. Different
+   * patterns can share a name, so their names are never used to tell them apart.
+   *
+   * @return a formatted string representation of the song
+   */
+  public String songInfo() {
+    StringBuilder builder = new StringBuilder();
+
+    builder.append("tempo ").append(this.tempo).append("\n\n");
+
+    for (LayerSnapshot layer : this.layers) {
+      if (layer.isMute()) {
+        builder.append("*");
+      }
+
+      builder.append("layer ").append(layer.getColor()).append(" ").append(layer.getVolume())
+          .append(" ").append(layer.getName()).append("\n");
+    }
+
+    Map<Pattern, Integer> patternIds = new IdentityHashMap<>();
+
+    for (LayerSnapshot layer : this.layers) {
+      for (PatternInstance instance : layer.getPatternInstances()) {
+        Pattern pattern = instance.getPattern();
+
+        if (!patternIds.containsKey(pattern)) {
+          patternIds.put(pattern, patternIds.size());
+
+          builder.append("\n").append("pattern ").append(patternIds.get(pattern)).append(" ")
+              .append(pattern.getLength()).append(" ").append(pattern.getName());
+
+          for (int i = 0; i < pattern.getUnitCount(); i++) {
+            builder.append("\n");
+            appendUnit(builder, pattern.getEncodedUnit(i));
+          }
+
+          builder.append("\n").append("endpattern").append("\n");
+        }
+      }
+    }
+
+    for (LayerSnapshot layer : this.layers) {
+      builder.append("--------------------------").append("\n\n").append(layer.getName())
+          .append("\n");
+
+      for (int i = 0; i < layer.getUnitCount(); i++) {
+        builder.append("\n");
+        appendUnit(builder, layer.getEncodedUnit(i));
+      }
+
+      for (PatternInstance instance : layer.getPatternInstances()) {
+        builder.append("\n").append("instance ").append(instance.getStartBeat()).append(" ")
+            .append(instance.getRepeats()).append(" ")
+            .append(patternIds.get(instance.getPattern()));
+      }
+
+      builder.append("\n");
+    }
+
+    return builder.toString();
+  }
+
+  /**
+   * Appends the given encoded unit to the given builder in the format used by {@link
+   * #songInfo()}.
+   *
+   * @param builder the builder to append to
+   * @param unit    the encoded unit to append
+   */
+  private static void appendUnit(StringBuilder builder, long unit) {
+    if (UnitCodec.isDrum(unit)) {
+      builder.append("drum ");
+    } else {
+      builder.append("note ");
+    }
+
+    builder.append(UnitCodec.getStartBeat(unit)).append(" ")
+        .append(UnitCodec.getEndBeat(unit)).append(" ")
+        .append(UnitCodec.getInstrument(unit));
+
+    if (!UnitCodec.isDrum(unit)) {
+      builder.append(" ").append(UnitCodec.getPitch(unit)).append(" ")
+          .append(UnitCodec.getOctave(unit));
+    }
+  }
+}
@@ -0,0 +1,344 @@
+package mycomposer.model;
+
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Holds spans of beats from the layers of a song in a treap ordered by start beat, where every
+ * node also holds the latest end beat and the longest span below it. The spans overlapping a range
+ * of beats, and the first span after a beat which is long enough to hold a given number of beats,
+ * are found by walking down only into subtrees which could hold them, in logarithmic time plus the
+ * time to report each span found.
+ *
+ * <p>Spans are told apart by their start beat and the serial of their layer, so no two spans of
+ * the same layer may start on the same beat. This class is not thread safe.
+ */
+final class SpanTree {
+
+  private final Random priorities;
+  private Span root;
+
+  /**
+   * Creates a tree with no spans.
+   */
+  SpanTree() {
+    this.priorities = new Random();
+    this.root = null;
+  }
+
+  /**
+   * Adds a span of beats in the given layer.
+   *
+   * @param layer     the layer holding the span
+   * @param serial    the serial of the layer, which orders spans starting on the same beat
+   * @param startBeat the first beat of the span
+   * @param endBeat   the last beat of the span
+   * @param instance  whether the span is a pattern instance rather than a unit
+   */
+  void add(Layer layer, int serial, int startBeat, int endBeat, boolean instance) {
+    this.root = insert(this.root,
+        new Span(layer, serial, startBeat, endBeat, instance, this.priorities.nextInt()));
+  }
+
+  /**
+   * Removes the span starting at the given beat in the layer with the given serial, if there is
+   * one.
+   *
+   * @param startBeat the first beat of the span
+   * @param serial    the serial of the layer holding the span
+   */
+  void remove(int startBeat, int serial) {
+    this.root = delete(this.root, startBeat, serial);
+  }
+
+  /**
+   * Collects the spans which start at or before the given last beat and end at or after the given
+   * first beat, in order of increasing start beat. When the first beat is before the last beat,
+   * these are the spans overlapping the range between them; when it is after, they are the spans
+   * covering every beat from the last beat to the first.
+   *
+   * @param firstBeat     the beat the spans must end at or after
+   * @param lastBeat      the beat the spans must start at or before
+   * @param instancesOnly whether to collect only pattern instances
+   * @param spans         the list to add the spans found to
+   */
+  void collect(int firstBeat, int lastBeat, boolean instancesOnly, List<Span> spans) {
+    collect(this.root, firstBeat, lastBeat, instancesOnly, spans);
+  }
+
+  /**
+   * Finds the span which starts first after the given beat among those holding at least the given
+   * number of beats.
+   *
+   * @param beat   the beat the span must start after
+   * @param length the number of beats the span must hold
+   * @return the span found, or {@code null} if there is none
+   */
+  Span firstAfter(int beat, int length) {
+    return firstAfter(this.root, beat, length - 1);
+  }
+
+  /**
+   * Collects the spans below the given node which start at or before the given last beat and end
+   * at or after the given first beat. Subtrees which end too early or start too late are skipped.
+   *
+   * @param node          the root of the subtree to search
+   * @param firstBeat     the beat the spans must end at or after
+   * @param lastBeat      the beat the spans must start at or before
+   * @param instancesOnly whether to collect only pattern instances
+   * @param spans         the list to add the spans found to
+   */
+  private static void collect(Span node, int firstBeat, int lastBeat, boolean instancesOnly,
+      List<Span> spans) {
+    if (node == null || node.latestEndBeat < firstBeat) {
+      return;
+    }
+
+    collect(node.left, firstBeat, lastBeat, instancesOnly, spans);
+
+    if (node.startBeat > lastBeat) {
+      return;
+    }
+
+    if (node.endBeat >= firstBeat && (node.instance || !instancesOnly)) {
+      spans.add(node);
+    }
+
+    collect(node.right, firstBeat, lastBeat, instancesOnly, spans);
+  }
+
+  /**
+   * Finds the span below the given node which starts first after the given beat among those
+   * spanning at least the given number of beats after their first.
+   *
+   * @param node  the root of the subtree to search
+   * @param beat  the beat the span must start after
+   * @param width the number of beats the span must reach past its first beat
+   * @return the span found, or {@code null} if there is none
+   */
+  private static Span firstAfter(Span node, int beat, int width) {
+    if (node == null || node.widest < width) {
+      return null;
+    }
+
+    if (node.startBeat > beat) {
+      Span found = firstAfter(node.left, beat, width);
+
+      if (found != null) {
+        return found;
+      }
+
+      if (node.endBeat - node.startBeat >= width) {
+        return node;
+      }
+    }
+
+    return firstAfter(node.right, beat, width);
+  }
+
+  /**
+   * Inserts the given span below the given node.
+   *
+   * @param node the root of the subtree to insert into
+   * @param span the span to insert
+   * @return the new root of the subtree
+   */
+  private static Span insert(Span node, Span span) {
+    if (node == null) {
+      return span;
+    }
+
+    if (span.compareTo(node.startBeat, node.serial) < 0) {
+      node.left = insert(node.left, span);
+
+      if (node.left.priority > node.priority) {
+        node = rotateRight(node);
+      }
+    } else {
+      node.right = insert(node.right, span);
+
+      if (node.right.priority > node.priority) {
+        node = rotateLeft(node);
+      }
+    }
+
+    node.update();
+    return node;
+  }
+
+  /**
+   * Deletes the span with the given start beat and layer serial from below the given node.
+   *
+   * @param node      the root of the subtree to delete from
+   * @param startBeat the first beat of the span
+   * @param serial    the serial of the layer holding the span
+   * @return the new root of the subtree
+   */
+  private static Span delete(Span node, int startBeat, int serial) {
+    if (node == null) {
+      return null;
+    }
+
+    int comparison = node.compareTo(startBeat, serial);
+
+    if (comparison == 0) {
+      return merge(node.left, node.right);
+    }
+
+    if (comparison > 0) {
+      node.left = delete(node.left, startBeat, serial);
+    } else {
+      node.right = delete(node.right, startBeat, serial);
+    }
+
+    node.update();
+    return node;
+  }
+
+  /**
+   * Joins two subtrees, where every span in the first comes before every span in the second.
+   *
+   * @param left  the subtree of earlier spans
+   * @param right the subtree of later spans
+   * @return the root of the joined subtree
+   */
+  private static Span merge(Span left, Span right) {
+    if (left == null) {
+      return right;
+    }
+
+    if (right == null) {
+      return left;
+    }
+
+    if (left.priority > right.priority) {
+      left.right = merge(left.right, right);
+      left.update();
+      return left;
+    }
+
+    right.left = merge(left, right.left);
+    right.update();
+    return right;
+  }
+
+  /**
+   * Rotates the given node down to the right, lifting its left child.
+   *
+   * @param node the node to rotate
+   * @return the new root of the subtree
+   */
+  private static Span rotateRight(Span node) {
+    Span left = node.left;
+    node.left = left.right;
+    left.right = node;
+    node.update();
+
+    return left;
+  }
+
+  /**
+   * Rotates the given node down to the left, lifting its right child.
+   *
+   * @param node the node to rotate
+   * @return the new root of the subtree
+   */
+  private static Span rotateLeft(Span node) {
+    Span right = node.right;
+    node.right = right.left;
+    right.left = node;
+    node.update();
+
+    return right;
+  }
+
+  /**
+   * A span of beats in a layer, stored as a node of the treap.
+   */
+  static final class Span {
+
+    private final Layer layer;
+    private final int serial;
+    private final int startBeat;
+    private final int endBeat;
+    private final boolean instance;
+    private final int priority;
+
+    private int latestEndBeat;
+    private int widest;
+    private Span left;
+    private Span right;
+
+    /**
+     * Creates a span with no children.
+     *
+     * @param layer     the layer holding the span
+     * @param serial    the serial of the layer, which orders spans starting on the same beat
+     * @param startBeat the first beat of the span
+     * @param endBeat   the last beat of the span
+     * @param instance  whether the span is a pattern instance rather than a unit
+     * @param priority  the random priority of the node, which keeps the treap balanced
+     */
+    private Span(Layer layer, int serial, int startBeat, int endBeat, boolean instance,
+        int priority) {
+      this.layer = layer;
+      this.serial = serial;
+      this.startBeat = startBeat;
+      this.endBeat = endBeat;
+      this.instance = instance;
+      this.priority = priority;
+      this.latestEndBeat = endBeat;
+      this.widest = endBeat - startBeat;
+    }
+
+    /**
+     * Gets the layer holding this span.
+     *
+     * @return the layer holding this span
+     */
+    Layer getLayer() {
+      return this.layer;
+    }
+
+    /**
+     * Gets the first beat of this span.
+     *
+     * @return the first beat of this span
+     */
+    int getStartBeat() {
+      return this.startBeat;
+    }
+
+    /**
+     * Compares this span to the span with the given start beat and layer serial.
+     *
+     * @param startBeat the first beat of the other span
+     * @param serial    the serial of the layer holding the other span
+     * @return a negative number, zero, or a positive number as this span comes before, is the same
+     * as, or comes after the other span
+     */
+    private int compareTo(int startBeat, int serial) {
+      int comparison = Integer.compare(this.startBeat, startBeat);
+
+      return (comparison != 0) ? comparison : Integer.compare(this.serial, serial);
+    }
+
+    /**
+     * Works out the latest end beat and the widest span below this node again from its children.
+     */
+    private void update() {
+      this.latestEndBeat = this.endBeat;
+      this.widest = this.endBeat - this.startBeat;
+
+      if (this.left != null) {
+        this.latestEndBeat = Math.max(this.latestEndBeat, this.left.latestEndBeat);
+        this.widest = Math.max(this.widest, this.left.widest);
+      }
+
+      if (this.right != null) {
+        this.latestEndBeat = Math.max(this.latestEndBeat, this.right.latestEndBeat);
+        this.widest = Math.max(this.widest, this.right.widest);
+      }
+    }
+  }
+}
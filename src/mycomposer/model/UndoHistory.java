@@ -0,0 +1,601 @@
+package mycomposer.model;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import mycomposer.model.unit.UnitCodec;
+
+/**
+ * Records the changes made to a song so that they can be undone and redone.
+ *
+ * <p>The history does not copy the song. It listens to the song and keeps each event, which
+ * records only what the change took out of and put into the song (see {@link SongEvent}), so
+ * undoing or redoing a change costs time and memory in proportion to the size of the change rather
+ * than the size of the song. Changes which are part of one action, such as removing a unit and
+ * adding its replacement, can be grouped into a single step with {@link #beginEdit()} and
+ * {@link #endEdit()}; otherwise each change is its own step. A step is undone or redone as a single
+ * batch (see {@link Song#applyBatch(SongBatch)}), so it either takes effect completely or not at
+ * all.
+ *
+ * <p>The memory used by the recorded steps is estimated as they are added. Whenever it goes over
+ * the budget given to the history, the oldest steps are forgotten until it fits again, so a long
+ * editing session never holds more than the budget (apart from the newest step, which is always
+ * kept).
+ */
+public final class UndoHistory {
+
+  private static final long EVENT_BYTES = 48;
+  private static final long VALUE_BYTES = 16;
+  private static final long INSTANCE_BYTES = 32;
+  private static final long UNIT_BYTES = 48;
+
+  private final Song song;
+  private final long memoryBudget;
+  private final SongListener listener;
+
+  private final Deque<Step> undoSteps;
+  private final Deque<Step> redoSteps;
+  private long memoryUsed;
+
+  private List<SongEvent> openEdit;
+  private int editDepth;
+  private boolean applying;
+
+  /**
+   * Creates a history which records every change made to the given song from now on, using no
+   * more than about the given number of bytes.
+   *
+   * @param song         the song to record changes to
+   * @param memoryBudget the number of bytes the recorded changes may take up
+   * @throws IllegalArgumentException if the given memory budget is not positive
+   */
+  public UndoHistory(Song song, long memoryBudget) throws IllegalArgumentException {
+    if (memoryBudget <= 0) {
+      throw new IllegalArgumentException("Memory budget must be positive.");
+    }
+
+    this.song = song;
+    this.memoryBudget = memoryBudget;
+    this.listener = this::record;
+
+    this.undoSteps = new ArrayDeque<>();
+    this.redoSteps = new ArrayDeque<>();
+    this.memoryUsed = 0;
+
+    this.openEdit = null;
+    this.editDepth = 0;
+    this.applying = false;
+
+    song.addListener(this.listener);
+  }
+
+  /**
+   * Starts grouping changes into a single step, until the matching call to {@link #endEdit()}.
+   * Calls can be nested, in which case the step ends with the outermost edit.
+   */
+  public void beginEdit() {
+    if (this.editDepth++ == 0) {
+      this.openEdit = new ArrayList<>();
+    }
+  }
+
+  /**
+   * Ends grouping changes into a single step. If this ends the outermost edit and any changes were
+   * made, they are recorded as one step.
+   *
+   * @throws IllegalStateException if no edit has been started
+   */
+  public void endEdit() throws IllegalStateException {
+    if (this.editDepth == 0) {
+      throw new IllegalStateException("No edit has been started.");
+    }
+
+    if (--this.editDepth == 0) {
+      List<SongEvent> events = this.openEdit;
+      this.openEdit = null;
+
+      if (!events.isEmpty()) {
+        this.push(new Step(events));
+      }
+    }
+  }
+
+  /**
+   * Returns whether or not there is a step which can be undone.
+   *
+   * @return whether or not there is a step to undo
+   */
+  public boolean canUndo() {
+    return !this.undoSteps.isEmpty();
+  }
+
+  /**
+   * Returns whether or not there is an undone step which can be redone.
+   *
+   * @return whether or not there is a step to redo
+   */
+  public boolean canRedo() {
+    return !this.redoSteps.isEmpty();
+  }
+
+  /**
+   * Undoes the most recent step, putting back everything its changes took out of the song and
+   * taking out everything they put in.
+   *
+   * @throws IllegalStateException if there is nothing to undo, an edit is in progress, or the song
+   *                               has been changed in a way this history did not see so that the
+   *                               step can no longer be undone (in which case neither the song nor
+   *                               the history is changed)
+   */
+  public void undo() throws IllegalStateException {
+    if (!this.canUndo()) {
+      throw new IllegalStateException("There is nothing to undo.");
+    }
+
+    if (this.editDepth > 0) {
+      throw new IllegalStateException("Cannot undo while an edit is in progress.");
+    }
+
+    Step step = this.undoSteps.getLast();
+    this.apply(step, true);
+
+    this.undoSteps.removeLast();
+    this.redoSteps.addLast(step);
+  }
+
+  /**
+   * Redoes the most recently undone step, leaving the song as its changes first left it.
+   *
+   * @throws IllegalStateException if there is nothing to redo, an edit is in progress, or the song
+   *                               has been changed in a way this history did not see so that the
+   *                               step can no longer be redone (in which case neither the song nor
+   *                               the history is changed)
+   */
+  public void redo() throws IllegalStateException {
+    if (!this.canRedo()) {
+      throw new IllegalStateException("There is nothing to redo.");
+    }
+
+    if (this.editDepth > 0) {
+      throw new IllegalStateException("Cannot redo while an edit is in progress.");
+    }
+
+    Step step = this.redoSteps.getLast();
+    this.apply(step, false);
+
+    this.redoSteps.removeLast();
+    this.undoSteps.addLast(step);
+  }
+
+  /**
+   * Forgets every recorded step.
+   */
+  public void clear() {
+    this.undoSteps.clear();
+    this.redoSteps.clear();
+    this.memoryUsed = 0;
+  }
+
+  /**
+   * Gets the approximate number of bytes used by the recorded steps.
+   *
+   * @return the memory used by this history in bytes
+   */
+  public long getMemoryUsed() {
+    return this.memoryUsed;
+  }
+
+  /**
+   * Stops recording changes to the song and forgets every recorded step.
+   */
+  public void detach() {
+    this.song.removeListener(this.listener);
+    this.clear();
+  }
+
+  /**
+   * Records the given change to the song, unless it was made by undoing or redoing a step. Any
+   * undone steps can no longer be redone once a new change is made.
+   *
+   * @param event the change that was made
+   */
+  private void record(SongEvent event) {
+    if (this.applying) {
+      return;
+    }
+
+    if (this.openEdit != null) {
+      this.openEdit.add(event);
+    } else {
+      this.push(new Step(List.of(event)));
+    }
+  }
+
+  /**
+   * Adds the given step to the end of the history, clearing the steps which could be redone and
+   * forgetting the oldest steps until the history fits within its memory budget.
+   *
+   * @param step the step to add
+   */
+  private void push(Step step) {
+    for (Step undone : this.redoSteps) {
+      this.memoryUsed -= undone.memory;
+    }
+
+    this.redoSteps.clear();
+    this.undoSteps.addLast(step);
+    this.memoryUsed += step.memory;
+
+    while (this.memoryUsed > this.memoryBudget && this.undoSteps.size() > 1) {
+      this.memoryUsed -= this.undoSteps.removeFirst().memory;
+    }
+  }
+
+  /**
+   * Undoes or redoes the given step as a single batch, without recording the changes this makes to
+   * the song.
+   *
+   * @param step the step to undo or redo
+   * @param undo whether to undo the step rather than redo it
+   * @throws IllegalStateException if the step cannot be undone or redone in the song as it is now,
+   *                               in which case the song is not changed
+   */
+  private void apply(Step step, boolean undo) throws IllegalStateException {
+    this.applying = true;
+
+    try {
+      this.song.applyBatch(this.batchFor(step, undo));
+    } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+      throw new IllegalStateException("The song no longer matches its undo history.", e);
+    } finally {
+      this.applying = false;
+    }
+  }
+
+  /**
+   * Works out the batch which puts the song back the way it was before the given step, or the way
+   * it was after it. Only the overall effect of the step matters, so each unit, pattern instance,
+   * setting and layer it touched is compared as it was before the step's first change to it and
+   * after its last, and anything the step changed and then changed back is left alone.
+   *
+   * @param step the step to undo or redo
+   * @param undo whether to undo the step rather than redo it
+   * @return the batch which undoes or redoes the step
+   * @throws IllegalArgumentException  if the batch cannot be built because the song has been
+   *                                   changed in a way this history did not see
+   * @throws IndexOutOfBoundsException if the layers of the song are no longer where the step left
+   *                                   them
+   */
+  private SongBatch batchFor(Step step, boolean undo)
+      throws IllegalArgumentException, IndexOutOfBoundsException {
+    List<SongEvent> changes = new ArrayList<>();
+
+    for (SongEvent event : step.events) {
+      flatten(event, changes);
+    }
+
+    // each value maps to a pair of what it was before the step and what it was after it, with
+    // null standing for a unit or instance which was not in the layer
+    Map<Layer, Map<Long, Object[]>> units = new LinkedHashMap<>();
+    Map<Layer, Map<PatternInstance, Object[]>> instances = new LinkedHashMap<>();
+    Map<Layer, Map<SongEvent.Type, Object[]>> settings = new LinkedHashMap<>();
+    Map<Object, Object[]> tempo = new HashMap<>();
+    List<SongEvent> layerChanges = new ArrayList<>();
+
+    for (SongEvent change : changes) {
+      Layer layer = change.getLayer();
+
+      switch (change.getType()) {
+        case UnitAdded:
+        case UnitRemoved:
+        case UnitResized:
+        case UnitEdited:
+        case UnitsChanged:
+          Map<Long, Long> before = unitsById((long[]) change.getBefore());
+          Map<Long, Long> after = unitsById((long[]) change.getAfter());
+          Map<Long, Object[]> layerUnits = units.computeIfAbsent(layer, key -> new HashMap<>());
+
+          for (Map.Entry<Long, Long> unit : before.entrySet()) {
+            track(layerUnits, unit.getKey(), unit.getValue(), after.get(unit.getKey()));
+          }
+
+          for (Map.Entry<Long, Long> unit : after.entrySet()) {
+            if (!before.containsKey(unit.getKey())) {
+              track(layerUnits, unit.getKey(), null, unit.getValue());
+            }
+          }
+          break;
+        case PatternAdded:
+        case PatternRemoved:
+        case PatternEdited:
+          Map<PatternInstance, Object[]> layerInstances =
+              instances.computeIfAbsent(layer, key -> new IdentityHashMap<>());
+
+          for (PatternInstance instance : (PatternInstance[]) change.getBefore()) {
+            track(layerInstances, instance, Boolean.TRUE, null);
+          }
+
+          for (PatternInstance instance : (PatternInstance[]) change.getAfter()) {
+            track(layerInstances, instance, null, Boolean.TRUE);
+          }
+          break;
+        case LayerRenamed:
+        case VolumeChanged:
+        case ColorChanged:
+        case MuteChanged:
+          track(settings.computeIfAbsent(layer, key -> new LinkedHashMap<>()), change.getType(),
+              change.getBefore(), change.getAfter());
+          break;
+        case TempoChanged:
+          track(tempo, change.getType(), change.getBefore(), change.getAfter());
+          break;
+        case LayerAdded:
+        case LayerRemoved:
+        case LayerMoved:
+          layerChanges.add(change);
+          break;
+        default:
+          throw new IllegalArgumentException("Unknown change type.");
+      }
+    }
+
+    // index 0 of each pair is the value now and index 1 the value to go back to
+    int now = undo ? 1 : 0;
+    int target = 1 - now;
+    SongBatch batch = new SongBatch();
+
+    for (Map.Entry<Layer, Map<Long, Object[]>> entry : units.entrySet()) {
+      for (Map.Entry<Long, Object[]> unit : entry.getValue().entrySet()) {
+        replaceUnit(batch.forLayer(entry.getKey()), unit.getKey(),
+            (Long) unit.getValue()[now], (Long) unit.getValue()[target]);
+      }
+    }
+
+    for (Map.Entry<Layer, Map<PatternInstance, Object[]>> entry : instances.entrySet()) {
+      for (Map.Entry<PatternInstance, Object[]> instance : entry.getValue().entrySet()) {
+        Object[] pair = instance.getValue();
+
+        if (pair[now] != null && pair[target] == null) {
+          batch.forLayer(entry.getKey()).removePatternInstance(instance.getKey());
+        } else if (pair[now] == null && pair[target] != null) {
+          batch.forLayer(entry.getKey()).addPatternInstance(instance.getKey());
+        }
+      }
+    }
+
+    for (Map.Entry<Layer, Map<SongEvent.Type, Object[]>> entry : settings.entrySet()) {
+      for (Map.Entry<SongEvent.Type, Object[]> setting : entry.getValue().entrySet()) {
+        Object value = setting.getValue()[target];
+
+        if (Objects.equals(setting.getValue()[now], value)) {
+          continue;
+        }
+
+        LayerBatch layerBatch = batch.forLayer(entry.getKey());
+
+        if (setting.getKey() == SongEvent.Type.LayerRenamed) {
+          layerBatch.setName((String) value);
+        } else if (setting.getKey() == SongEvent.Type.VolumeChanged) {
+          layerBatch.setVolume((Integer) value);
+        } else if (setting.getKey() == SongEvent.Type.ColorChanged) {
+          layerBatch.setColor((LayerColor) value);
+        } else {
+          layerBatch.setMute((Boolean) value);
+        }
+      }
+    }
+
+    for (Object[] pair : tempo.values()) {
+      if (!Objects.equals(pair[now], pair[target])) {
+        batch.setTempo((Integer) pair[target]);
+      }
+    }
+
+    if (!layerChanges.isEmpty()) {
+      this.arrangeLayers(batch, layerChanges, undo);
+    }
+
+    return batch;
+  }
+
+  /**
+   * Adds the layers to the given batch which the given changes to the layers of the song took out
+   * or put in, and moves every layer to where it was before the changes or after them. The order
+   * of the layers is found by making the changes (or undoing them) on a copy of the list of layers.
+   *
+   * @param batch   the batch to add to
+   * @param changes the changes to the layers of the song, in the order they were made
+   * @param undo    whether to undo the changes rather than redo them
+   * @throws IllegalArgumentException  if a layer is not where the changes left it
+   * @throws IndexOutOfBoundsException if the song has fewer layers than the changes need
+   */
+  private void arrangeLayers(SongBatch batch, List<SongEvent> changes, boolean undo)
+      throws IllegalArgumentException, IndexOutOfBoundsException {
+    List<Layer> current = this.song.getLayers();
+    List<Layer> layers = new ArrayList<>(current);
+
+    for (int i = 0; i < changes.size(); i++) {
+      SongEvent change = changes.get(undo ? changes.size() - 1 - i : i);
+      Integer from = (Integer) (undo ? change.getAfter() : change.getBefore());
+      Integer to = (Integer) (undo ? change.getBefore() : change.getAfter());
+
+      if (from != null && layers.remove((int) from) != change.getLayer()) {
+        throw new IllegalArgumentException("Layer " + change.getLayer().getName()
+            + " is not where it was left.");
+      }
+
+      if (to != null) {
+        layers.add(to, change.getLayer());
+      }
+    }
+
+    for (Layer layer : current) {
+      if (!layers.contains(layer)) {
+        batch.removeLayer(layer);
+      }
+    }
+
+    // with every layer moved in order of increasing index, each move leaves the layers before it
+    // where they are
+    for (int i = 0; i < layers.size(); i++) {
+      if (!current.contains(layers.get(i))) {
+        batch.addLayer(layers.get(i));
+      }
+
+      batch.moveLayer(layers.get(i), i);
+    }
+  }
+
+  /**
+   * Adds the change to the given batch which replaces one version of a unit with another, moving
+   * the unit if only its beats differ. Units are given encoded, and the unit put in keeps its ID.
+   *
+   * @param batch  the batch to add to
+   * @param id     the ID of the unit
+   * @param now    the unit as it is now, or {@code null} if it is not in the layer
+   * @param target the unit as it should be, or {@code null} if it should not be in the layer
+   */
+  private static void replaceUnit(LayerBatch batch, long id, Long now, Long target) {
+    if (Objects.equals(now, target)) {
+      return;
+    }
+
+    if (now != null && target != null && UnitCodec.withStartEnd(now,
+        UnitCodec.getStartBeat(target), UnitCodec.getEndBeat(target)) == target) {
+      batch.moveUnit(UnitCodec.decode(now, id), UnitCodec.getStartBeat(target),
+          UnitCodec.getEndBeat(target));
+      return;
+    }
+
+    if (now != null) {
+      batch.removeUnit(UnitCodec.decode(now, id));
+    }
+
+    if (target != null) {
+      batch.addUnit(UnitCodec.decode(target, id));
+    }
+  }
+
+  /**
+   * Records that the value with the given key went from one value to another, keeping the value it
+   * had before the first change recorded for it and the value it had after the last.
+   *
+   * @param values the values recorded so far, as pairs of the value before and the value after
+   * @param key    the key of the value which changed
+   * @param before the value before the change
+   * @param after  the value after the change
+   * @param <K>    the type of key
+   */
+  private static <K> void track(Map<K, Object[]> values, K key, Object before, Object after) {
+    values.computeIfAbsent(key, k -> new Object[] {before, null})[1] = after;
+  }
+
+  /**
+   * Gets the encoded units recorded by a change by their IDs.
+   *
+   * @param pairs the units as pairs of IDs and encoded units, or {@code null} if there are none
+   * @return the encoded units by ID
+   */
+  private static Map<Long, Long> unitsById(long[] pairs) {
+    Map<Long, Long> units = new LinkedHashMap<>();
+
+    if (pairs != null) {
+      for (int i = 0; i < pairs.length; i += 2) {
+        units.put(pairs[i], pairs[i + 1]);
+      }
+    }
+
+    return units;
+  }
+
+  /**
+   * Adds the given change to the given list, or its parts if it is made up of other changes, in
+   * the order they were made.
+   *
+   * @param event   the change to add
+   * @param changes the list to add to
+   */
+  private static void flatten(SongEvent event, List<SongEvent> changes) {
+    if (event.getParts() == null) {
+      changes.add(event);
+      return;
+    }
+
+    for (SongEvent part : event.getParts()) {
+      flatten(part, changes);
+    }
+  }
+
+  /**
+   * Estimates the number of bytes used to record the given change.
+   *
+   * @param event the change to estimate
+   * @return the approximate size of the change in bytes
+   */
+  private static long memoryOf(SongEvent event) {
+    long memory = EVENT_BYTES + memoryOf(event.getBefore()) + memoryOf(event.getAfter());
+
+    if (event.getParts() != null) {
+      for (SongEvent part : event.getParts()) {
+        memory += memoryOf(part);
+      }
+    }
+
+    // a removed layer is kept alive by the history, along with all of its units
+    if (event.getType() == SongEvent.Type.LayerRemoved) {
+      memory += event.getLayer().getUnitCount() * UNIT_BYTES;
+    }
+
+    return memory;
+  }
+
+  /**
+   * Estimates the number of bytes used to record the given value of a change.
+   *
+   * @param value the recorded value
+   * @return the approximate size of the value in bytes
+   */
+  private static long memoryOf(Object value) {
+    if (value instanceof long[]) {
+      return VALUE_BYTES + 8L * ((long[]) value).length;
+    } else if (value instanceof PatternInstance[]) {
+      return VALUE_BYTES + INSTANCE_BYTES * ((PatternInstance[]) value).length;
+    } else if (value instanceof String) {
+      return VALUE_BYTES + 2L * ((String) value).length();
+    }
+
+    return (value == null) ? 0 : VALUE_BYTES;
+  }
+
+  /**
+   * Represents a group of changes which are undone and redone together.
+   */
+  private static final class Step {
+
+    private final List<SongEvent> events;
+    private final long memory;
+
+    /**
+     * Creates a step made up of the given changes.
+     *
+     * @param events the changes in the step, in the order they were made
+     */
+    private Step(List<SongEvent> events) {
+      this.events = events;
+
+      long memory = 0;
+
+      for (SongEvent event : events) {
+        memory += memoryOf(event);
+      }
+
+      this.memory = memory;
+    }
+  }
+}
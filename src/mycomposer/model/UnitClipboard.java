@@ -0,0 +1,242 @@
+package mycomposer.model;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import mycomposer.MIDI;
+import mycomposer.model.unit.UnitCodec;
+
+/**
+ * Represents a range of beats copied from a group of layers, which can be pasted at any beat into
+ * the same number of layers in any song.
+ *
+ * <p>The copied units are kept as encoded units (see {@link UnitCodec}) in a single array, with
+ * beats counted from the start of the copied range and the units of each layer stored one after
+ * another. Copying only looks at the units in the range of each layer and creates no unit objects,
+ * and the clipboard can be turned into bytes and back (see {@link #toBytes()}) to pass it between
+ * windows or through the system clipboard. The bytes hold a header followed by the number of units
+ * copied from each layer and then the encoded units themselves, 8 bytes each.
+ *
+ * <p>Clipboards are immutable.
+ */
+public final class UnitClipboard {
+
+  private static final int MAGIC = 0x4D43_4350;
+  private static final int HEADER_BYTES = 12;
+
+  private final int length;
+  private final int[] layerStarts;
+  private final long[] units;
+
+  /**
+   * Creates a clipboard holding the given units.
+   *
+   * @param length      the number of beats copied
+   * @param layerStarts the index in the given units of the first unit from each layer, followed by
+   *                    the total number of units
+   * @param units       the encoded units, with beats counted from the start of the copied range
+   */
+  private UnitClipboard(int length, int[] layerStarts, long[] units) {
+    this.length = length;
+    this.layerStarts = layerStarts;
+    this.units = units;
+  }
+
+  /**
+   * Copies every unit which starts within the given range of beats in each of the given layers,
+   * including units played by pattern instances.
+   *
+   * @param layers    the layers to copy from, in order
+   * @param startBeat the first beat of the range
+   * @param endBeat   the last beat of the range
+   * @return a clipboard holding the copied units
+   * @throws IllegalArgumentException if the given end beat is before the given start beat
+   */
+  public static UnitClipboard copy(List<Layer> layers, int startBeat, int endBeat)
+      throws IllegalArgumentException {
+    if (endBeat < startBeat) {
+      throw new IllegalArgumentException("End beat cannot be before start beat.");
+    }
+
+    long[][] copied = new long[layers.size()][];
+    int[] layerStarts = new int[layers.size() + 1];
+
+    for (int i = 0; i < copied.length; i++) {
+      copied[i] = layers.get(i).getEncodedUnitsInRange(startBeat, endBeat);
+
+      // only the first unit can start before the range, since units in a layer never overlap
+      int skipped = 0;
+
+      while (skipped < copied[i].length
+          && UnitCodec.getStartBeat(copied[i][skipped]) < startBeat) {
+        skipped++;
+      }
+
+      layerStarts[i + 1] = layerStarts[i] + copied[i].length - skipped;
+    }
+
+    long[] units = new long[layerStarts[copied.length]];
+
+    for (int i = 0; i < copied.length; i++) {
+      int skipped = copied[i].length - (layerStarts[i + 1] - layerStarts[i]);
+
+      for (int j = skipped; j < copied[i].length; j++) {
+        long unit = copied[i][j];
+
+        units[layerStarts[i] + j - skipped] = UnitCodec.withStartEnd(unit,
+            UnitCodec.getStartBeat(unit) - startBeat, UnitCodec.getEndBeat(unit) - startBeat);
+      }
+    }
+
+    return new UnitClipboard(endBeat - startBeat + 1, layerStarts, units);
+  }
+
+  /**
+   * Reads a clipboard from the bytes written by {@link #toBytes()}.
+   *
+   * @param bytes the bytes to read
+   * @return the clipboard held by the given bytes
+   * @throws IllegalArgumentException if the given bytes do not hold a valid clipboard
+   */
+  public static UnitClipboard fromBytes(byte[] bytes) throws IllegalArgumentException {
+    ByteBuffer buffer = ByteBuffer.wrap(bytes);
+
+    try {
+      if (buffer.getInt() != MAGIC) {
+        throw new IllegalArgumentException("Bytes do not hold a clipboard.");
+      }
+
+      int length = buffer.getInt();
+      int layerCount = buffer.getInt();
+
+      if (length < 1 || layerCount < 0 || layerCount > buffer.remaining() / 4) {
+        throw new IllegalArgumentException("Clipboard header is not valid.");
+      }
+
+      int[] layerStarts = new int[layerCount + 1];
+
+      for (int i = 0; i < layerCount; i++) {
+        int count = buffer.getInt();
+
+        if (count < 0 || count > buffer.remaining() / 8 - layerStarts[i]) {
+          throw new IllegalArgumentException("Clipboard unit counts are not valid.");
+        }
+
+        layerStarts[i + 1] = layerStarts[i] + count;
+      }
+
+      if (buffer.remaining() != 8 * layerStarts[layerCount]) {
+        throw new IllegalArgumentException("Clipboard unit counts are not valid.");
+      }
+
+      long[] units = new long[layerStarts[layerCount]];
+      buffer.asLongBuffer().get(units);
+
+      // the bytes may come from anywhere, so every field of every unit is checked before any
+      // unit is decoded
+      for (int i = 0; i < units.length; i++) {
+        if (!UnitCodec.isValid(units[i]) || UnitCodec.getStartBeat(units[i]) >= length) {
+          throw new IllegalArgumentException("Clipboard unit " + i + " is not valid.");
+        }
+      }
+
+      return new UnitClipboard(length, layerStarts, units);
+    } catch (BufferUnderflowException e) {
+      throw new IllegalArgumentException("Clipboard data is incomplete.", e);
+    }
+  }
+
+  /**
+   * Writes this clipboard as bytes, which can be read back with {@link #fromBytes(byte[])}.
+   *
+   * @return the bytes of this clipboard
+   */
+  public byte[] toBytes() {
+    int layerCount = this.getLayerCount();
+    ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + 4 * layerCount + 8 * this.units.length);
+
+    buffer.putInt(MAGIC).putInt(this.length).putInt(layerCount);
+
+    for (int i = 0; i < layerCount; i++) {
+      buffer.putInt(this.layerStarts[i + 1] - this.layerStarts[i]);
+    }
+
+    buffer.asLongBuffer().put(this.units);
+
+    return buffer.array();
+  }
+
+  /**
+   * Gets the number of beats copied.
+   *
+   * @return the length of the copied range
+   */
+  public int getLength() {
+    return this.length;
+  }
+
+  /**
+   * Gets the number of layers copied.
+   *
+   * @return the number of layers copied
+   */
+  public int getLayerCount() {
+    return this.layerStarts.length - 1;
+  }
+
+  /**
+   * Gets the total number of units copied from every layer.
+   *
+   * @return the number of units copied
+   */
+  public int getUnitCount() {
+    return this.units.length;
+  }
+
+  /**
+   * Pastes the copied units into the given layers so that the copied range starts at the given
+   * beat, with the units from each copied layer going into the layer at the same position in the
+   * given list. Every layer is checked in a single batch before anything is changed (see {@link
+   * Song#applyBatch(SongBatch)}), so either every unit is pasted or none are.
+   *
+   * @param song   the song to paste into
+   * @param layers the layers of the song to paste into, one for each copied layer
+   * @param beat   the beat to paste the start of the copied range at
+   * @throws IllegalArgumentException if the number of given layers does not match the number of
+   *                                  copied layers, the given beat is less than 0, or the pasted
+   *                                  units would end after the maximum song length
+   * @throws BatchConflictException   if any pasted unit would overlap a unit or pattern instance
+   *                                  already in its layer, in which case the song is not changed
+   */
+  public void paste(Song song, List<Layer> layers, int beat)
+      throws IllegalArgumentException, BatchConflictException {
+    if (layers.size() != this.getLayerCount()) {
+      throw new IllegalArgumentException("Clipboard holds " + this.getLayerCount()
+          + " layers, but " + layers.size() + " were given to paste into.");
+    }
+
+    if (beat < 0) {
+      throw new IllegalArgumentException("Beat cannot be less than 0.");
+    }
+
+    SongBatch batch = new SongBatch();
+
+    for (int i = 0; i < layers.size(); i++) {
+      LayerBatch layerBatch = batch.forLayer(layers.get(i));
+
+      for (int j = this.layerStarts[i]; j < this.layerStarts[i + 1]; j++) {
+        long unit = this.units[j];
+
+        if ((long) beat + UnitCodec.getEndBeat(unit) > MIDI.MAX_BEATS) {
+          throw new IllegalArgumentException(
+              "Pasted units cannot end after the maximum song length.");
+        }
+
+        layerBatch.addUnit(UnitCodec.decode(UnitCodec.withStartEnd(unit,
+            UnitCodec.getStartBeat(unit) + beat, UnitCodec.getEndBeat(unit) + beat)));
+      }
+    }
+
+    song.applyBatch(batch);
+  }
+}
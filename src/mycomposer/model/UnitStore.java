@@ -0,0 +1,87 @@
+package mycomposer.model;
+
+import java.util.List;
+import mycomposer.model.unit.Unit;
+
+/**
+ * Stores the units of a layer in order of increasing start beat. Layers only ever insert units at
+ * the position which keeps this order, so implementations do not need to sort.
+ */
+interface UnitStore {
+
+  /**
+   * Gets the number of units in this store.
+   *
+   * @return the number of units in this store
+   */
+  int size();
+
+  /**
+   * Gets the start beat of the unit at the given index.
+   *
+   * @param index the index of the unit
+   * @return the start beat of the unit at the given index
+   */
+  int getStartBeat(int index);
+
+  /**
+   * Gets the end beat of the unit at the given index.
+   *
+   * @param index the index of the unit
+   * @return the end beat of the unit at the given index
+   */
+  int getEndBeat(int index);
+
+  /**
+   * Gets the unit at the given index. Stores which do not keep unit objects create a new unit with
+   * the stored values, which is not connected to this store in any way.
+   *
+   * @param index the index of the unit
+   * @return the unit at the given index
+   */
+  Unit get(int index);
+
+  /**
+   * Gets the ID of the unit at the given index.
+   *
+   * @param index the index of the unit
+   * @return the ID of the unit at the given index
+   */
+  long getId(int index);
+
+  /**
+   * Gets the unit at the given index encoded as a single {@code long} (see {@link
+   * mycomposer.model.unit.UnitCodec}).
+   *
+   * @param index the index of the unit
+   * @return the encoded unit at the given index
+   */
+  long getEncoded(int index);
+
+  /**
+   * Inserts the given unit at the given index, shifting all following units up by one.
+   *
+   * @param index the index to insert the unit at
+   * @param unit  the unit to insert
+   */
+  void add(int index, Unit unit);
+
+  /**
+   * Removes the unit at the given index, shifting all following units down by one.
+   *
+   * @param index the index of the unit to remove
+   */
+  void remove(int index);
+
+  /**
+   * Removes all units from this store.
+   */
+  void clear();
+
+  /**
+   * Returns a new list containing all units in this store in order.
+   *
+   * @return a list of all units in this store
+   */
+  List<Unit> toList();
+}
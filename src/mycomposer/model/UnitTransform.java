@@ -0,0 +1,33 @@
+package mycomposer.model;
+
+import mycomposer.model.unit.UnitCodec;
+
+/**
+ * Represents a change made to every unit in a selection, such as transposing or shifting them (see
+ * {@link BulkTransform}). Transforms work on encoded units (see {@link UnitCodec}) so that they can
+ * be run over many units without creating any unit objects, and they must not have side effects,
+ * since they may be run on many threads at once.
+ */
+@FunctionalInterface
+public interface UnitTransform {
+
+  /**
+   * Transforms the given encoded unit.
+   *
+   * @param encoded the encoded unit to transform
+   * @return the transformed encoded unit
+   * @throws IllegalArgumentException if the unit cannot be transformed, such as when it would be
+   *                                  moved before the first beat
+   */
+  long apply(long encoded) throws IllegalArgumentException;
+
+  /**
+   * Returns a transform which makes this transform and then the given transform.
+   *
+   * @param next the transform to make after this one
+   * @return the combined transform
+   */
+  default UnitTransform andThen(UnitTransform next) {
+    return encoded -> next.apply(this.apply(encoded));
+  }
+}
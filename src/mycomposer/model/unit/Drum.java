@@ -1,7 +1,5 @@
 package mycomposer.model.unit;
 
-import java.util.Objects;
-
 /**
  * Represents a drum beat.
  */
@@ -13,8 +11,9 @@ public final class Drum extends UnitImpl {
    * @param startBeat  the first beat of the drum beat
    * @param endBeat    the last beat of the drum beat
    * @param instrument the instrument of the drum beat (MIDI index from 34-80, inclusive)
-   * @throws IllegalArgumentException if the start beat is after the end beat or the instrument
-   *                                  index is less than 34 or greater than 80
+   * @throws IllegalArgumentException if the start beat is after the end beat, the drum beat is
+   *                                  longer than {@link UnitCodec#MAX_DURATION} beats, or the
+   *                                  instrument index is less than 34 or greater than 80
    */
   public Drum(int startBeat, int endBeat, int instrument) throws IllegalArgumentException {
     super(startBeat, endBeat, instrument);
@@ -45,7 +44,7 @@ public final class Drum extends UnitImpl {
 
   @Override
   public int hashCode() {
-    return Objects.hash(this.startBeat, this.endBeat, this.instrument);
+    return 31 * (31 * this.startBeat + this.endBeat) + this.instrument;
   }
 
   @Override
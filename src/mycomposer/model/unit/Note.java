@@ -1,7 +1,5 @@
 package mycomposer.model.unit;
 
-import java.util.Objects;
-
 /**
  * Represents a note.
  */
@@ -19,9 +17,10 @@ public final class Note extends UnitImpl {
    * @param instrument the instrument of the note (MIDI index from 0-127, inclusive)
    * @param pitch      the pitch of the note
    * @param octave     the octave of the note
-   * @throws IllegalArgumentException if the start beat is after the end beat, the instrument index
-   *                                  is less than 0 or greater than 127, or the octave is less than
-   *                                  -1 or greater than 7
+   * @throws IllegalArgumentException if the start beat is after the end beat, the note is longer
+   *                                  than {@link UnitCodec#MAX_DURATION} beats, the instrument
+   *                                  index is less than 0 or greater than 127, or the octave is less
+   *                                  than -1 or greater than 7
    */
   public Note(int startBeat, int endBeat, int instrument, Pitch pitch, int octave)
       throws IllegalArgumentException {
@@ -70,7 +69,7 @@ public final class Note extends UnitImpl {
 
   @Override
   public void setPitch(Pitch pitch) {
-    this.pitch = pitch;
+    this.edit(() -> this.pitch = pitch);
   }
 
   @Override
@@ -79,7 +78,7 @@ public final class Note extends UnitImpl {
       throw new IllegalArgumentException("Octave must be from -1 through 7 inclusive.");
     }
 
-    this.octave = octave;
+    this.edit(() -> this.octave = octave);
   }
 
   @Override
@@ -89,7 +88,11 @@ public final class Note extends UnitImpl {
 
   @Override
   public int hashCode() {
-    return Objects.hash(this.startBeat, this.endBeat, this.instrument, this.pitch, this.octave);
+    int hash = 31 * this.startBeat + this.endBeat;
+    hash = 31 * hash + this.instrument;
+    hash = 31 * hash + this.pitch.ordinal();
+
+    return 31 * hash + this.octave;
   }
 
   @Override
@@ -7,6 +7,15 @@ import mycomposer.model.Layer;
  */
 public interface Unit extends Comparable<Unit> {
 
+  /**
+   * Gets the ID of this unit. Every unit is given an ID when it is created which no other unit
+   * created by this program shares, so units with the same beats and sound can still be told
+   * apart. The ID never changes as the unit is edited.
+   *
+   * @return the ID of this unit
+   */
+  long getId();
+
   /**
    * Gets the start beat of this unit.
    *
@@ -85,12 +94,23 @@ public interface Unit extends Comparable<Unit> {
    * @param startBeat the new start beat
    * @param endBeat   the new end beat
    * @param layer     the layer that this unit is in
-   * @throws IllegalArgumentException if the end beat is before the start beat or if the new start
-   *                                  and end beats will cause this unit to overlap any other
-   *                                  existing units in the given layer
+   * @throws IllegalArgumentException if the end beat is before the start beat, the start beat is
+   *                                  less than 0, the unit would be longer than {@link
+   *                                  UnitCodec#MAX_DURATION} beats, or if the new start and end
+   *                                  beats will cause this unit to overlap any other existing units
+   *                                  in the given layer
    */
   void setStartEnd(int startBeat, int endBeat, Layer layer) throws IllegalArgumentException;
 
+  /**
+   * Sets the layer which this unit belongs to. That layer is notified whenever the instrument,
+   * pitch, or octave of this unit changes. Layers set this themselves when units are added or
+   * removed, so this should not need to be called otherwise.
+   *
+   * @param layer the layer this unit belongs to, or {@code null} if it is not in a layer
+   */
+  void setLayer(Layer layer);
+
   /**
    * Sets the instrument of this unit to the given instrument indicated by the given MIDI instrument
    * index.
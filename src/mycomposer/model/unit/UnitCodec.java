@@ -0,0 +1,263 @@
+package mycomposer.model.unit;
+
+/**
+ * Contains methods for encoding a unit as a single {@code long} and reading the properties of a
+ * unit back out of that encoding. Encoded units can be stored, copied, sorted, hashed, and compared
+ * as primitive values without creating any note or drum beat objects.
+ *
+ * <p>The bits of an encoded unit are laid out as follows, from most to least significant:
+ *
+ * <ul>
+ *   <li>1 bit which is always 0, so that encoded units are never negative.</li>
+ *   <li>31 bits for the start beat.</li>
+ *   <li>15 bits for the duration minus 1 (so units can be up to 32768 beats long).</li>
+ *   <li>1 bit which is set for drum beats.</li>
+ *   <li>7 bits for the instrument.</li>
+ *   <li>5 bits for the pitch (0 for drum beats).</li>
+ *   <li>4 bits for the octave plus 1 (0 for drum beats).</li>
+ * </ul>
+ *
+ * <p>Since the start beat occupies the most significant bits, sorting encoded units numerically
+ * sorts them by start beat.
+ */
+public final class UnitCodec {
+
+  public static final int MAX_DURATION = 1 << 15;
+
+  private static final Pitch[] PITCHES = Pitch.values();
+
+  private static final int START_SHIFT = 32;
+  private static final int DURATION_SHIFT = 17;
+  private static final int DRUM_SHIFT = 16;
+  private static final int INSTRUMENT_SHIFT = 9;
+  private static final int PITCH_SHIFT = 4;
+
+  private static final long START_MASK = 0x7FFFFFFFL;
+  private static final long DURATION_MASK = 0x7FFFL;
+  private static final long INSTRUMENT_MASK = 0x7FL;
+  private static final long PITCH_MASK = 0x1FL;
+  private static final long OCTAVE_MASK = 0xFL;
+
+  /**
+   * Encodes the given unit as a single {@code long}.
+   *
+   * @param unit the unit to encode
+   * @return the encoded unit
+   * @throws IllegalArgumentException if the unit starts before beat 0 or is longer than {@link
+   *                                  #MAX_DURATION} beats
+   */
+  public static long encode(Unit unit) throws IllegalArgumentException {
+    return encode(unit.getStartBeat(), unit.getEndBeat(), unit.getInstrument(), unit.getPitch(),
+        unit.getOctave());
+  }
+
+  /**
+   * Encodes a unit with the given properties as a single {@code long}. A {@code null} pitch
+   * indicates a drum beat, in which case the octave is ignored.
+   *
+   * @param startBeat  the start beat of the unit
+   * @param endBeat    the end beat of the unit
+   * @param instrument the MIDI index of the instrument of the unit
+   * @param pitch      the pitch of the unit, or {@code null} for drum beats
+   * @param octave     the octave of the unit
+   * @return the encoded unit
+   * @throws IllegalArgumentException if the unit starts before beat 0 or is longer than {@link
+   *                                  #MAX_DURATION} beats
+   */
+  public static long encode(int startBeat, int endBeat, int instrument, Pitch pitch, int octave)
+      throws IllegalArgumentException {
+    if (pitch == null) {
+      return pack(startBeat, endBeat, instrument, true, 0, 0);
+    }
+
+    return pack(startBeat, endBeat, instrument, false, pitch.ordinal(), octave + 1);
+  }
+
+  /**
+   * Packs the given properties of a unit into a single {@code long}.
+   *
+   * @param startBeat  the start beat of the unit
+   * @param endBeat    the end beat of the unit
+   * @param instrument the MIDI index of the instrument of the unit
+   * @param drum       whether or not the unit is a drum beat
+   * @param pitch      the ordinal of the pitch of the unit
+   * @param octaveCode the octave of the unit plus 1
+   * @return the encoded unit
+   * @throws IllegalArgumentException if the unit starts before beat 0 or is longer than {@link
+   *                                  #MAX_DURATION} beats
+   */
+  private static long pack(int startBeat, int endBeat, int instrument, boolean drum, int pitch,
+      int octaveCode) throws IllegalArgumentException {
+    if (startBeat < 0) {
+      throw new IllegalArgumentException("Encoded units cannot start before the first beat.");
+    }
+
+    long duration = (long) endBeat - startBeat;
+
+    if (duration < 0 || duration >= MAX_DURATION) {
+      throw new IllegalArgumentException(
+          "Encoded units must be between 1 and " + MAX_DURATION + " beats long.");
+    }
+
+    return ((long) startBeat << START_SHIFT) | (duration << DURATION_SHIFT)
+        | ((drum ? 1L : 0L) << DRUM_SHIFT) | ((instrument & INSTRUMENT_MASK) << INSTRUMENT_SHIFT)
+        | ((pitch & PITCH_MASK) << PITCH_SHIFT) | (octaveCode & OCTAVE_MASK);
+  }
+
+  /**
+   * Returns whether or not the given {@code long} is a valid encoded unit, such as one read from
+   * outside this program. A valid encoded unit is not negative, does not end after the last
+   * possible beat, and has fields which a note or drum beat could have: drum beats have an
+   * instrument from 34-80 inclusive and no pitch or octave, while notes have a known pitch and an
+   * octave from -1 through 7 inclusive. Only valid encoded units can be decoded.
+   *
+   * @param encoded the {@code long} to check
+   * @return whether or not the given {@code long} is a valid encoded unit
+   */
+  public static boolean isValid(long encoded) {
+    if (encoded < 0
+        || getStartBeat(encoded) + ((encoded >>> DURATION_SHIFT) & DURATION_MASK) > START_MASK) {
+      return false;
+    }
+
+    int pitch = (int) ((encoded >>> PITCH_SHIFT) & PITCH_MASK);
+    int octaveCode = (int) (encoded & OCTAVE_MASK);
+
+    if (isDrum(encoded)) {
+      return getInstrument(encoded) >= 34 && getInstrument(encoded) <= 80 && pitch == 0
+          && octaveCode == 0;
+    }
+
+    return pitch < PITCHES.length && octaveCode <= 8;
+  }
+
+  /**
+   * Creates a new note or drum beat from the given encoded unit.
+   *
+   * @param encoded the encoded unit
+   * @return the unit represented by the given encoded unit
+   */
+  public static Unit decode(long encoded) {
+    if (isDrum(encoded)) {
+      return new Drum(getStartBeat(encoded), getEndBeat(encoded), getInstrument(encoded));
+    }
+
+    return new Note(getStartBeat(encoded), getEndBeat(encoded), getInstrument(encoded),
+        getPitch(encoded), getOctave(encoded));
+  }
+
+  /**
+   * Creates a new note or drum beat from the given encoded unit, giving it the given ID rather than
+   * a new one (see {@link Unit#getId()}).
+   *
+   * @param encoded the encoded unit
+   * @param id      the ID of the unit
+   * @return the unit represented by the given encoded unit
+   */
+  public static Unit decode(long encoded, long id) {
+    Unit unit = decode(encoded);
+    ((UnitImpl) unit).setId(id);
+
+    return unit;
+  }
+
+  /**
+   * Gets the start beat of the given encoded unit.
+   *
+   * @param encoded the encoded unit
+   * @return the start beat of the given encoded unit
+   */
+  public static int getStartBeat(long encoded) {
+    return (int) ((encoded >>> START_SHIFT) & START_MASK);
+  }
+
+  /**
+   * Gets the end beat of the given encoded unit.
+   *
+   * @param encoded the encoded unit
+   * @return the end beat of the given encoded unit
+   */
+  public static int getEndBeat(long encoded) {
+    return getStartBeat(encoded) + (int) ((encoded >>> DURATION_SHIFT) & DURATION_MASK);
+  }
+
+  /**
+   * Gets the MIDI index of the instrument of the given encoded unit.
+   *
+   * @param encoded the encoded unit
+   * @return the MIDI index of the instrument of the given encoded unit
+   */
+  public static int getInstrument(long encoded) {
+    return (int) ((encoded >>> INSTRUMENT_SHIFT) & INSTRUMENT_MASK);
+  }
+
+  /**
+   * Returns whether or not the given encoded unit is a drum beat.
+   *
+   * @param encoded the encoded unit
+   * @return true if the given encoded unit is a drum beat, false otherwise
+   */
+  public static boolean isDrum(long encoded) {
+    return ((encoded >>> DRUM_SHIFT) & 1L) == 1L;
+  }
+
+  /**
+   * Gets the pitch of the given encoded unit. Returns {@code null} for drum beats.
+   *
+   * @param encoded the encoded unit
+   * @return the pitch of the given encoded unit
+   */
+  public static Pitch getPitch(long encoded) {
+    if (isDrum(encoded)) {
+      return null;
+    }
+
+    return PITCHES[(int) ((encoded >>> PITCH_SHIFT) & PITCH_MASK)];
+  }
+
+  /**
+   * Gets the octave of the given encoded unit. Returns 0 for drum beats.
+   *
+   * @param encoded the encoded unit
+   * @return the octave of the given encoded unit
+   */
+  public static int getOctave(long encoded) {
+    if (isDrum(encoded)) {
+      return 0;
+    }
+
+    return (int) (encoded & OCTAVE_MASK) - 1;
+  }
+
+  /**
+   * Gets the MIDI pitch of the given encoded unit. Returns 0 for drum beats.
+   *
+   * @param encoded the encoded unit
+   * @return the MIDI pitch of the given encoded unit
+   */
+  public static int getMIDINumber(long encoded) {
+    if (isDrum(encoded)) {
+      return 0;
+    }
+
+    return getPitch(encoded).getPitchNumber() + 12 * (getOctave(encoded) + 1);
+  }
+
+  /**
+   * Returns a copy of the given encoded unit moved to the given start and end beats.
+   *
+   * @param encoded   the encoded unit
+   * @param startBeat the new start beat
+   * @param endBeat   the new end beat
+   * @return the encoded unit with the given start and end beats
+   * @throws IllegalArgumentException if the new start beat is before beat 0 or the new duration is
+   *                                  not between 1 and {@link #MAX_DURATION} beats
+   */
+  public static long withStartEnd(long encoded, int startBeat, int endBeat)
+      throws IllegalArgumentException {
+    long sound = encoded & ((1L << DURATION_SHIFT) - 1);
+    long moved = pack(startBeat, endBeat, 0, false, 0, 0);
+
+    return moved | sound;
+  }
+}
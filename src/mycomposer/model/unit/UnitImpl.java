@@ -1,5 +1,6 @@
 package mycomposer.model.unit;
 
+import java.util.concurrent.atomic.AtomicLong;
 import mycomposer.model.Layer;
 
 /**
@@ -7,18 +8,24 @@ import mycomposer.model.Layer;
  */
 public class UnitImpl implements Unit {
 
+  private static final AtomicLong NEXT_ID = new AtomicLong();
+
+  private long id;
   protected int startBeat;
   protected int endBeat;
   protected int instrument;
 
+  private Layer layer;
+
   /**
    * Constructs a sound unit with the given start beat, end beat, instrument, and velocity.
    *
    * @param startBeat  the first beat of the note
    * @param endBeat    the last beat of the note
    * @param instrument the instrument of the note (given by the valid MIDI index)
-   * @throws IllegalArgumentException if the start beat is after the end beat, the instrument index
-   *                                  is invalid
+   * @throws IllegalArgumentException if the start beat is after the end beat, the unit is longer
+   *                                  than {@link UnitCodec#MAX_DURATION} beats, or the instrument
+   *                                  index is invalid
    */
   protected UnitImpl(int startBeat, int endBeat, int instrument)
       throws IllegalArgumentException {
@@ -27,11 +34,29 @@ public class UnitImpl implements Unit {
           "Start beat must be before or at the same time as the end beat.");
     }
 
+    checkDuration(startBeat, endBeat);
+
+    this.id = NEXT_ID.incrementAndGet();
     this.startBeat = startBeat;
     this.endBeat = endBeat;
     this.instrument = instrument;
   }
 
+  @Override
+  public long getId() {
+    return this.id;
+  }
+
+  /**
+   * Gives this unit the given ID in place of the one it was created with. Only used when a unit is
+   * recreated from a stored form, so that it keeps the ID of the unit it was stored from.
+   *
+   * @param id the ID to give this unit
+   */
+  void setId(long id) {
+    this.id = id;
+  }
+
   @Override
   public int getStartBeat() {
     return this.startBeat;
@@ -88,19 +113,45 @@ public class UnitImpl implements Unit {
       throw new IllegalArgumentException("New end beat cannot be before start beat.");
     }
 
-    if (layer.rangeOverlapsUnit(startBeat, endBeat, this)) {
-      throw new IllegalArgumentException("Unit cannot overlap existing units.");
+    if (startBeat < 0) {
+      throw new IllegalArgumentException("New start beat cannot be before the first beat.");
     }
 
-    layer.checkEditUnit(this, endBeat);
+    checkDuration(startBeat, endBeat);
 
-    this.startBeat = startBeat;
-    this.endBeat = endBeat;
+    // the layer checks for overlaps under the same write lock as the change, so no other edit can
+    // fill the new beats in between
+    layer.checkEditUnit(this, startBeat, endBeat, () -> {
+      this.startBeat = startBeat;
+      this.endBeat = endBeat;
+    });
+  }
+
+  /**
+   * Checks that a unit with the given start and end beats is no longer than {@link
+   * UnitCodec#MAX_DURATION} beats, the longest unit which can be encoded, so that every unit in a
+   * layer can be recorded by its events and snapshots and saved.
+   *
+   * @param startBeat the first beat of the unit
+   * @param endBeat   the last beat of the unit
+   * @throws IllegalArgumentException if the unit is longer than {@link UnitCodec#MAX_DURATION}
+   *                                  beats
+   */
+  static void checkDuration(int startBeat, int endBeat) throws IllegalArgumentException {
+    if ((long) endBeat - startBeat >= UnitCodec.MAX_DURATION) {
+      throw new IllegalArgumentException(
+          "Units cannot be longer than " + UnitCodec.MAX_DURATION + " beats.");
+    }
+  }
+
+  @Override
+  public void setLayer(Layer layer) {
+    this.layer = layer;
   }
 
   @Override
   public void setInstrument(int instrument) throws IllegalArgumentException {
-    this.instrument = instrument;
+    this.edit(() -> this.instrument = instrument);
   }
 
   @Override
@@ -111,6 +162,21 @@ public class UnitImpl implements Unit {
   public void setOctave(int octave) throws IllegalArgumentException {
   }
 
+  /**
+   * Makes the given change to the sound of this unit through the layer this unit belongs to (if
+   * any), so that readers of the layer never see the change half made and its listeners are
+   * notified.
+   *
+   * @param change the change to make
+   */
+  protected void edit(Runnable change) {
+    if (this.layer == null) {
+      change.run();
+    } else {
+      this.layer.unitEdited(this, change);
+    }
+  }
+
   @Override
   public String toString() {
     return String.format("%d %d %d", this.startBeat, this.endBeat, this.instrument);
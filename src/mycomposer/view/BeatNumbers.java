@@ -4,12 +4,11 @@ import javafx.scene.control.Label;
 import javafx.scene.layout.ColumnConstraints;
 import javafx.scene.layout.GridPane;
 import javafx.scene.layout.VBox;
-import mycomposer.MIDI;
 import mycomposer.Player;
 
 /**
  * Represents the beat numbers above the layer grid to help the user keep track of the beats in the
- * song.
+ * song. Only the beats in the given window (see {@link BeatWindow}) are numbered.
  */
 public class BeatNumbers extends GridPane {
 
@@ -17,28 +16,29 @@ public class BeatNumbers extends GridPane {
    * Constructs an instance of the beat numbers to be displayed above the layer grid.
    *
    * @param overlay    an overlay panel above the layer grid for the beat tracker bar
+   * @param window     the beats to number
    * @param togglePlay an operation for toggling between pause and play
    */
-  public BeatNumbers(BeatOverlay overlay, Runnable togglePlay) {
+  public BeatNumbers(BeatOverlay overlay, BeatWindow window, Runnable togglePlay) {
     this.setMinHeight(15);
     this.setMaxHeight(15);
 
     this.setStyle("-fx-background-color: -numbers-background-color;-fx-border-width: 0;");
-    int finalBeat = (Player.FINAL_BEAT == 0) ? 0 : Player.FINAL_BEAT + 1;
+    window.pad(this);
 
-    for (int i = 0; i < finalBeat + MIDI.EXTRA_BEATS; i++) {
+    for (int i = window.getFirstBeat(); i < window.getEndBeat(); i++) {
       ColumnConstraints colConstraints = new ColumnConstraints();
-      colConstraints.setMinWidth(40);
-      colConstraints.setMaxWidth(40);
+      colConstraints.setMinWidth(BeatWindow.BEAT_WIDTH);
+      colConstraints.setMaxWidth(BeatWindow.BEAT_WIDTH);
       this.getColumnConstraints().add(colConstraints);
     }
 
-    for (int i = 0; i < finalBeat + MIDI.EXTRA_BEATS; i++) {
+    for (int i = window.getFirstBeat(); i < window.getEndBeat(); i++) {
       VBox unit = new VBox();
-      unit.setMinWidth(40);
-      unit.setMaxWidth(40);
+      unit.setMinWidth(BeatWindow.BEAT_WIDTH);
+      unit.setMaxWidth(BeatWindow.BEAT_WIDTH);
 
-      Label measureNumber = new Label(String.valueOf(i + 1));
+      Label measureNumber = new Label(String.valueOf(i + 1L));
       measureNumber.setStyle("-fx-text-fill: -numbers-text-color;-fx-font-size: 10");
 
       if (i < Player.FINAL_BEAT) {
@@ -59,7 +59,7 @@ public class BeatNumbers extends GridPane {
       }
 
       unit.getChildren().add(measureNumber);
-      this.add(unit, i, 0);
+      this.add(unit, i - window.getFirstBeat(), 0);
     }
   }
 }
@@ -2,31 +2,35 @@ package mycomposer.view;
 
 import javafx.scene.layout.HBox;
 import javafx.scene.layout.VBox;
-import mycomposer.MIDI;
 import mycomposer.Player;
 
 /**
  * Represents an overlay above the layer grid to show the beat tracker bar (a bar highlighting the
- * current beat of the song).
+ * current beat of the song). Only the beats in the given window (see {@link BeatWindow}) have
+ * cells, so the bar is only drawn while the current beat is in the window.
  */
 public class BeatOverlay extends HBox {
 
+  private final BeatWindow window;
   private int highlightedBeat;
 
   /**
    * Constructs the overlay above the layer grid to show the beat tracker bar to highlight the
    * current beat of the song.
+   *
+   * @param window the beats to give cells
    */
-  public BeatOverlay() {
+  public BeatOverlay(BeatWindow window) {
+    this.window = window;
     this.highlightedBeat = -1;
 
     this.setStyle("-fx-background-color: transparent;-fx-border-width: 0;");
     this.setMouseTransparent(true);
-    int finalBeat = (Player.FINAL_BEAT == 0) ? 0 : Player.FINAL_BEAT + 1;
+    window.pad(this);
 
-    for (int i = 0; i < finalBeat + MIDI.EXTRA_BEATS; i++) {
+    for (int i = window.getFirstBeat(); i < window.getEndBeat(); i++) {
       VBox cell = new VBox();
-      cell.setMinWidth(40);
+      cell.setMinWidth(BeatWindow.BEAT_WIDTH);
       cell.setStyle("-fx-background-color: transparent;-fx-border-width: 0;");
 
       this.getChildren().add(cell);
@@ -34,31 +38,35 @@ public class BeatOverlay extends HBox {
   }
 
   /**
-   * Highlights the beat at the given index. If the beat is after the first beat, removes any
-   * highlight on the preceding beat.
+   * Highlights the beat at the given index, removing any highlight on the beat highlighted before.
    *
    * @param beat the beat to highlight
    */
   public void highlightCell(int beat) {
+    this.clear();
     this.highlightedBeat = beat;
 
-    if (beat < Player.FINAL_BEAT + 1) {
-      this.getChildren().get(beat)
+    if (beat <= Player.FINAL_BEAT && this.window.contains(beat)) {
+      this.getChildren().get(beat - this.window.getFirstBeat())
           .setStyle("-fx-background-color: -overlay-bar-color;-fx-border-width: 0;");
-
-      if (beat > 0) {
-        this.getChildren().get(beat - 1)
-            .setStyle("-fx-background-color: transparent;-fx-border-width: 0;");
-      }
     }
   }
 
+  /**
+   * Gets the beat highlighted.
+   *
+   * @return the beat highlighted, or -1 if no beat is highlighted
+   */
+  public int getHighlightedBeat() {
+    return this.highlightedBeat;
+  }
+
   /**
    * Removes highlights on all beats.
    */
   public void clear() {
-    if (this.highlightedBeat != -1) {
-      this.getChildren().get(this.highlightedBeat)
+    if (this.highlightedBeat != -1 && this.window.contains(this.highlightedBeat)) {
+      this.getChildren().get(this.highlightedBeat - this.window.getFirstBeat())
           .setStyle("-fx-background-color: transparent;-fx-border-width: 0;");
     }
 
@@ -0,0 +1,148 @@
+package mycomposer.view;
+
+import javafx.geometry.Insets;
+import javafx.scene.layout.Region;
+import mycomposer.MIDI;
+import mycomposer.Player;
+
+/**
+ * Represents the beats of the song which are given nodes in the layer grids, the beat numbers and
+ * the beat overlay. Only the beats around the part of the song scrolled into view are rendered,
+ * with padding standing in for the beats on either side, so the number of nodes depends on the
+ * width of the window rather than on the length of the song, which can be up to {@link
+ * MIDI#MAX_BEATS} beats long.
+ */
+public final class BeatWindow {
+
+  public static final int BEAT_WIDTH = 40;
+
+  private static final int MIN_VISIBLE_BEATS = 32;
+
+  private final int beatCount;
+  private final int firstBeat;
+  private final int endBeat;
+
+  /**
+   * Creates a window over the given beats.
+   *
+   * @param beatCount the number of beats shown for the whole song
+   * @param firstBeat the first beat rendered
+   * @param endBeat   the beat after the last beat rendered
+   */
+  private BeatWindow(int beatCount, int firstBeat, int endBeat) {
+    this.beatCount = beatCount;
+    this.firstBeat = firstBeat;
+    this.endBeat = endBeat;
+  }
+
+  /**
+   * Creates a window over the beats in view when the song is scrolled to the given position, along
+   * with a view's width of beats on either side, so that scrolling a short way does not need a new
+   * window.
+   *
+   * @param hvalue        the horizontal scroll position, from 0 to 1
+   * @param viewportWidth the width of the part of the song in view
+   * @return a window over the beats in view
+   */
+  public static BeatWindow around(double hvalue, double viewportWidth) {
+    int beatCount = beatCount();
+    int firstVisible = firstVisibleBeat(beatCount, hvalue, viewportWidth);
+    int visibleBeats = visibleBeats(viewportWidth);
+
+    return new BeatWindow(beatCount, Math.max(0, firstVisible - visibleBeats),
+        (int) Math.min(beatCount, firstVisible + 2L * visibleBeats));
+  }
+
+  /**
+   * Returns whether or not every beat in view when the song is scrolled to the given position is
+   * rendered by this window, and the song is still the same length.
+   *
+   * @param hvalue        the horizontal scroll position, from 0 to 1
+   * @param viewportWidth the width of the part of the song in view
+   * @return whether or not this window can still be used
+   */
+  public boolean covers(double hvalue, double viewportWidth) {
+    int firstVisible = firstVisibleBeat(this.beatCount, hvalue, viewportWidth);
+
+    return this.beatCount == beatCount() && firstVisible >= this.firstBeat
+        && Math.min(this.beatCount, firstVisible + (long) visibleBeats(viewportWidth))
+        <= this.endBeat;
+  }
+
+  /**
+   * Gets the first beat rendered.
+   *
+   * @return the first beat rendered
+   */
+  public int getFirstBeat() {
+    return this.firstBeat;
+  }
+
+  /**
+   * Gets the beat after the last beat rendered.
+   *
+   * @return the beat after the last beat rendered
+   */
+  public int getEndBeat() {
+    return this.endBeat;
+  }
+
+  /**
+   * Returns whether or not the given beat is rendered.
+   *
+   * @param beat the beat to check
+   * @return whether or not the given beat is rendered
+   */
+  public boolean contains(int beat) {
+    return beat >= this.firstBeat && beat < this.endBeat;
+  }
+
+  /**
+   * Pads the given region so that it is as wide as the whole song, with the rendered beats in the
+   * right place.
+   *
+   * @param region the region holding the rendered beats
+   */
+  public void pad(Region region) {
+    region.setPadding(new Insets(0, (double) (this.beatCount - this.endBeat) * BEAT_WIDTH, 0,
+        (double) this.firstBeat * BEAT_WIDTH));
+  }
+
+  /**
+   * Gets the number of beats shown for the whole song, which is the song and some extra beats
+   * after it to add units to.
+   *
+   * @return the number of beats shown for the whole song
+   */
+  private static int beatCount() {
+    int finalBeat = (Player.FINAL_BEAT == 0)
+        ? 0 : (int) Math.min(Player.FINAL_BEAT + 1L, MIDI.MAX_BEATS - MIDI.EXTRA_BEATS);
+
+    return finalBeat + MIDI.EXTRA_BEATS;
+  }
+
+  /**
+   * Finds the first beat in view when the song is scrolled to the given position.
+   *
+   * @param beatCount     the number of beats shown for the whole song
+   * @param hvalue        the horizontal scroll position, from 0 to 1
+   * @param viewportWidth the width of the part of the song in view
+   * @return the first beat in view
+   */
+  private static int firstVisibleBeat(int beatCount, double hvalue, double viewportWidth) {
+    double scrollWidth = Math.max(0, (double) beatCount * BEAT_WIDTH - viewportWidth);
+
+    return (int) Math.min(beatCount - 1, Math.max(0, hvalue * scrollWidth / BEAT_WIDTH));
+  }
+
+  /**
+   * Counts the beats which fit in a view of the given width, including one partly in view at each
+   * edge.
+   *
+   * @param viewportWidth the width of the part of the song in view
+   * @return the number of beats in view
+   */
+  private static int visibleBeats(double viewportWidth) {
+    return Math.max(MIN_VISIBLE_BEATS, (int) Math.ceil(viewportWidth / BEAT_WIDTH) + 1);
+  }
+}
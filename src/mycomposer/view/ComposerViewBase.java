@@ -40,6 +40,7 @@ public class ComposerViewBase extends BorderPane implements ComposerView {
   private boolean autoScroll;
   private boolean pausedFromPopup;
 
+  private BeatWindow window;
   private BeatOverlay overlay;
   private Timeline timeline;
   private PlaybackControls controls;
@@ -133,7 +134,10 @@ public class ComposerViewBase extends BorderPane implements ComposerView {
     this.gridScrollPane.viewportBoundsProperty().addListener((obs, oldVal, newVal) -> {
       double w = newVal.getWidth();
       this.numberPane.setMaxWidth(w);
+      this.updateWindow();
     });
+
+    this.gridScrollPane.hvalueProperty().addListener((obs, oldVal, newVal) -> this.updateWindow());
   }
 
   @Override
@@ -182,7 +186,9 @@ public class ComposerViewBase extends BorderPane implements ComposerView {
 
     this.layers = layers;
 
-    this.overlay = new BeatOverlay();
+    this.window = BeatWindow.around(this.gridScrollPane.getHvalue(),
+        this.gridScrollPane.getViewportBounds().getWidth());
+    this.overlay = new BeatOverlay(this.window);
     this.overlay.highlightCell(Player.BEAT);
 
     this.timeline = this.updateEachBeat(e -> {
@@ -190,7 +196,7 @@ public class ComposerViewBase extends BorderPane implements ComposerView {
         this.overlay.highlightCell(Player.BEAT);
 
         if (this.autoScroll) {
-          this.gridScrollPane.setHvalue((double) Player.BEAT / (Player.FINAL_BEAT + 1));
+          this.gridScrollPane.setHvalue((double) Player.BEAT / (Player.FINAL_BEAT + 1.0));
         }
       } else {
         Player.pause();
@@ -209,6 +215,30 @@ public class ComposerViewBase extends BorderPane implements ComposerView {
     this.setLeft(this.layerList());
   }
 
+  /**
+   * Renders the beats scrolled into view if they are not all in the current window (see {@link
+   * BeatWindow}), keeping the highlighted beat.
+   */
+  private void updateWindow() {
+    double hvalue = this.gridScrollPane.getHvalue();
+    double width = this.gridScrollPane.getViewportBounds().getWidth();
+
+    if (this.window == null || this.window.covers(hvalue, width)) {
+      return;
+    }
+
+    int highlightedBeat = this.overlay.getHighlightedBeat();
+    this.window = BeatWindow.around(hvalue, width);
+    this.overlay = new BeatOverlay(this.window);
+
+    if (highlightedBeat != -1) {
+      this.overlay.highlightCell(highlightedBeat);
+    }
+
+    this.layerGrid.getChildren().clear();
+    this.setCenter(this.layerGridWithNumbers());
+  }
+
   /**
    * Updates the layer grid color for the given layer at the given layer index.
    *
@@ -216,7 +246,7 @@ public class ComposerViewBase extends BorderPane implements ComposerView {
    * @param layerIndex the index of the given layer
    */
   private void updateLayerColor(Layer layer, int layerIndex) {
-    LayerGrid lg = new LayerGrid(layer, this.features::refresh, this::pauseFromPopup,
+    LayerGrid lg = new LayerGrid(layer, this.window, this.features::refresh, this::pauseFromPopup,
         this::unpauseFromPopup);
 
     this.layerGrid.getChildren().set(layerIndex, lg);
@@ -229,7 +259,7 @@ public class ComposerViewBase extends BorderPane implements ComposerView {
    */
   private VBox layerGridWithNumbers() {
     for (Layer layer : this.layers) {
-      LayerGrid lg = new LayerGrid(layer, this.features::refresh, this::pauseFromPopup,
+      LayerGrid lg = new LayerGrid(layer, this.window, this.features::refresh, this::pauseFromPopup,
           this::unpauseFromPopup);
 
       this.layerGrid.getChildren().add(lg);
@@ -241,7 +271,7 @@ public class ComposerViewBase extends BorderPane implements ComposerView {
     pane.setStyle("-fx-background-color: -window-background-color;-fx-border-width: 0;");
 
     this.gridScrollPane.setContent(pane);
-    this.numberPane.setContent(new BeatNumbers(this.overlay, this::togglePlay));
+    this.numberPane.setContent(new BeatNumbers(this.overlay, this.window, this::togglePlay));
 
     VBox box = new VBox();
     box.getChildren().addAll(this.numberPane, this.gridScrollPane);
@@ -21,11 +21,13 @@ import mycomposer.model.unit.Percussion;
 import mycomposer.model.unit.Unit;
 
 /**
- * A visual representation of a layer which shows each unit in the layer.
+ * A visual representation of a layer which shows each unit in the layer. Only the beats in the
+ * given window (see {@link BeatWindow}) and the units overlapping them are rendered.
  */
 public class LayerGrid extends GridPane {
 
   private final Layer layer;
+  private final BeatWindow window;
   private final Runnable refresh;
   private final Runnable pause;
   private final Runnable unpause;
@@ -34,15 +36,18 @@ public class LayerGrid extends GridPane {
    * Creates a layer grid for the given layer.
    *
    * @param layer        the layer to create a layer grid for
+   * @param window       the beats to render
    * @param refresh      an operation to refresh the song
    * @param pausePopup   an operation to pause the song when an add/edit unit popup is shown
    * @param unpausePopup an operation to unpause the song when an add/edit unit popup is closed
    */
-  public LayerGrid(Layer layer, Runnable refresh, Runnable pausePopup, Runnable unpausePopup) {
+  public LayerGrid(Layer layer, BeatWindow window, Runnable refresh, Runnable pausePopup,
+      Runnable unpausePopup) {
     this.setMinHeight(40);
     this.setMaxHeight(40);
 
     this.layer = layer;
+    this.window = window;
     this.refresh = refresh;
     this.pause = pausePopup;
     this.unpause = unpausePopup;
@@ -50,19 +55,19 @@ public class LayerGrid extends GridPane {
     this.setStyle("-fx-background-color: -window-background-color;-fx-border-style: solid;"
         + "-fx-border-color: -grid-border-color;-fx-border-width: 0 0 1 0;");
 
-    int finalBeat = (Player.FINAL_BEAT == 0) ? 0 : Player.FINAL_BEAT + 1;
+    window.pad(this);
 
-    for (int i = 0; i < finalBeat + MIDI.EXTRA_BEATS; i++) {
+    for (int i = window.getFirstBeat(); i < window.getEndBeat(); i++) {
       ColumnConstraints colConstraints = new ColumnConstraints();
-      colConstraints.setMinWidth(40);
-      colConstraints.setMaxWidth(40);
+      colConstraints.setMinWidth(BeatWindow.BEAT_WIDTH);
+      colConstraints.setMaxWidth(BeatWindow.BEAT_WIDTH);
       this.getColumnConstraints().add(colConstraints);
     }
 
-    for (int i = 0; i < finalBeat + MIDI.EXTRA_BEATS; i++) {
+    for (int i = window.getFirstBeat(); i < window.getEndBeat(); i++) {
       VBox cell = new VBox();
-      cell.setMinWidth(40);
-      cell.setMaxWidth(40);
+      cell.setMinWidth(BeatWindow.BEAT_WIDTH);
+      cell.setMaxWidth(BeatWindow.BEAT_WIDTH);
       GridPane.setVgrow(cell, Priority.ALWAYS);
 
       this.setCellStyle(cell, i);
@@ -86,19 +91,17 @@ public class LayerGrid extends GridPane {
         }
       });
 
-      this.add(cell, i, 0);
+      this.add(cell, i - window.getFirstBeat(), 0);
     }
 
-    for (Unit unit : layer.getUnits()) {
-      StackPane unitBox = this.unitBox(unit);
-
-      this.add(unitBox, unit.getStartBeat(), 0);
-    }
+    layer.forEachUnitInRange(window.getFirstBeat(), window.getEndBeat() - 1, unit -> this.add(
+        this.unitBox(unit), Math.max(unit.getStartBeat(), window.getFirstBeat())
+            - window.getFirstBeat(), 0));
   }
 
   /**
    * Creates a box representing the given unit in the layer. The box is set to span the same number
-   * of columns as its duration.
+   * of columns as its duration, cut off at the edges of the window.
    *
    * @param unit the unit to represent
    * @return a box representing the given unit in the layer
@@ -114,7 +117,8 @@ public class LayerGrid extends GridPane {
     int endBeat = unit.getEndBeat();
 
     int rWidth = 1;
-    if (!this.layer.beatOverlapsUnit(endBeat + 1)) { // there is another beat directly to the right
+    // there is another beat directly to the right
+    if (endBeat < MIDI.MAX_BEATS && !this.layer.beatOverlapsUnit(endBeat + 1)) {
       if ((endBeat + 1) % 8 == 0) {
         rWidth = 6;
       } else if ((endBeat + 1) % 4 == 0) {
@@ -170,7 +174,9 @@ public class LayerGrid extends GridPane {
     colorLayer.setOnMouseReleased(e -> Player.stopAllUnits());
 
     StackPane pane = new StackPane();
-    GridPane.setColumnSpan(pane, unit.getDuration());
+    int firstBeat = Math.max(unit.getStartBeat(), this.window.getFirstBeat());
+    int lastBeat = Math.min(endBeat, this.window.getEndBeat() - 1);
+    GridPane.setColumnSpan(pane, lastBeat - firstBeat + 1);
     pane.getChildren().addAll(colorLayer, unitBox);
     this.addTooltip(unit, pane);
 
@@ -225,7 +231,7 @@ public class LayerGrid extends GridPane {
       instrumentLabel.setText(Instrument.getSound(unit.getInstrument()).getName());
     }
 
-    Label startEnd = new Label((unit.getStartBeat() + 1) + "-" + (unit.getEndBeat() + 1));
+    Label startEnd = new Label((unit.getStartBeat() + 1L) + "-" + (unit.getEndBeat() + 1L));
     startEnd.setStyle(styleString);
 
     tooltipBox.getChildren().addAll(instrumentLabel, startEnd);
@@ -16,6 +16,7 @@ import javafx.scene.layout.HBox;
 import javafx.scene.layout.VBox;
 import javafx.stage.Stage;
 import mycomposer.FileManager;
+import mycomposer.MIDI;
 import mycomposer.Player;
 import mycomposer.model.Layer;
 import mycomposer.model.unit.Drum;
@@ -505,16 +506,20 @@ public class UnitPopup extends TabPane {
         int leftFreeBeat = layer.leftFreeBeat(clickedBeat);
         int rightFreeBeat = layer.rightFreeBeat(clickedBeat);
 
-        this.start = new Spinner<>(leftFreeBeat + 1, rightFreeBeat + 1, clickedBeat + 1);
-        this.end = new Spinner<>(leftFreeBeat + 1, rightFreeBeat + 1, clickedBeat + 1);
+        this.start = new Spinner<>(beatNumber(leftFreeBeat), beatNumber(rightFreeBeat),
+            beatNumber(clickedBeat));
+        this.end = new Spinner<>(beatNumber(leftFreeBeat), beatNumber(rightFreeBeat),
+            beatNumber(clickedBeat));
       } else {
         int leftFreeBeat = layer.leftFreeBeat(unitToEdit);
         int rightFreeBeat = layer.rightFreeBeat(unitToEdit);
         int startBeat = unitToEdit.getStartBeat();
         int endBeat = unitToEdit.getEndBeat();
 
-        this.start = new Spinner<>(leftFreeBeat + 1, rightFreeBeat + 1, startBeat + 1);
-        this.end = new Spinner<>(leftFreeBeat + 1, rightFreeBeat + 1, endBeat + 1);
+        this.start = new Spinner<>(beatNumber(leftFreeBeat), beatNumber(rightFreeBeat),
+            beatNumber(startBeat));
+        this.end = new Spinner<>(beatNumber(leftFreeBeat), beatNumber(rightFreeBeat),
+            beatNumber(endBeat));
       }
 
       this.start.setEditable(true);
@@ -570,6 +575,17 @@ public class UnitPopup extends TabPane {
       this.unitToEdit.setInstrument(instrument);
     }
 
+    /**
+     * Gets the number shown for the given beat, counting beats from 1. The last possible beat is
+     * shown as the beat before it, since its number would not fit in an {@code int}.
+     *
+     * @param beat the beat
+     * @return the number shown for the given beat
+     */
+    private static int beatNumber(int beat) {
+      return Math.min(beat, MIDI.MAX_BEATS - 1) + 1;
+    }
+
     /**
      * Gets the currently selected start beat for the unit.
      *
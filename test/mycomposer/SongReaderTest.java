@@ -0,0 +1,113 @@
+package mycomposer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.StringReader;
+import mycomposer.model.Layer;
+import mycomposer.model.LayerColor;
+import mycomposer.model.Pattern;
+import mycomposer.model.PatternInstance;
+import mycomposer.model.Song;
+import mycomposer.model.SongImpl;
+import mycomposer.model.unit.Drum;
+import mycomposer.model.unit.Note;
+import mycomposer.model.unit.Pitch;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests that songs written by {@link Song#songInfo()} are read back the same by {@link
+ * SongReader}.
+ */
+public class SongReaderTest {
+
+  /**
+   * Writes the given song and reads it back in.
+   *
+   * @param song the song to write
+   * @return the song read back in
+   */
+  private static Song roundTrip(Song song) {
+    return SongReader.readSongFile(new StringReader(song.songInfo()));
+  }
+
+  @Test
+  public void testPatternsSharingANameStayApart() {
+    Song song = new SongImpl();
+    Layer drums = new Layer("Drums", 80, LayerColor.Red, false);
+    Layer bass = new Layer("Bass", 60, LayerColor.Cyan, true);
+
+    Pattern kick = new Pattern("beat", 4).withUnit(new Drum(0, 0, 36));
+    Pattern snare = new Pattern("beat", 8).withUnit(new Drum(2, 3, 38))
+        .withUnit(new Drum(6, 6, 38));
+
+    song.addLayer(drums);
+    song.addLayer(bass);
+    drums.addPatternInstance(new PatternInstance(kick, 0, 4));
+    drums.addPatternInstance(new PatternInstance(snare, 16, 2));
+    bass.addUnit(new Note(0, 3, 33, Pitch.E, 2));
+    bass.addPatternInstance(new PatternInstance(snare, 4, 1));
+
+    Song read = roundTrip(song);
+
+    assertEquals(song.contentHash(), read.contentHash());
+    assertEquals(song.songInfo(), read.songInfo());
+
+    Pattern readKick = read.getLayer(0).getPatternInstances().get(0).getPattern();
+    Pattern readSnare = read.getLayer(0).getPatternInstances().get(1).getPattern();
+
+    assertNotSame(readKick, readSnare);
+    assertEquals(4, readKick.getLength());
+    assertEquals(8, readSnare.getLength());
+    assertSame(readSnare, read.getLayer(1).getPatternInstances().get(0).getPattern());
+  }
+
+  @Test
+  public void testLayerNamesMatchingKeywords() {
+    Song song = new SongImpl();
+    String[] names = {"note", "drum", "pattern 0 4 x", "endpattern", "instance 0 1 0", "tempo 1"};
+
+    for (String name : names) {
+      Layer layer = new Layer(name, 50, LayerColor.Mint, false);
+      song.addLayer(layer);
+      layer.addUnit(new Note(0, 1, 0, Pitch.C, 4));
+    }
+
+    song.getLayer(2).addPatternInstance(
+        new PatternInstance(new Pattern("note", 2).withUnit(new Drum(0, 0, 40)), 4, 3));
+
+    Song read = roundTrip(song);
+
+    assertEquals(names.length, read.getLayers().size());
+
+    for (int i = 0; i < names.length; i++) {
+      assertEquals(names[i], read.getLayer(i).getName());
+      assertEquals(1, read.getLayer(i).getUnits().size());
+    }
+
+    assertEquals(song.contentHash(), read.contentHash());
+    assertEquals(song.songInfo(), read.songInfo());
+  }
+
+  @Test
+  public void testAPatternLeftOpenIsAnError() {
+    String file = "tempo 120\npattern 0 4 beat\ndrum 0 0 36\n";
+
+    IllegalStateException e = assertThrows(IllegalStateException.class,
+        () -> SongReader.readSongFile(new StringReader(file)));
+
+    assertEquals("Unterminated pattern", e.getMessage());
+  }
+
+  @Test
+  public void testAFileCutOffAfterALayerSeparatorIsAnError() {
+    String file = "tempo 120\nlayer Red 80 Drums\n--------------------------";
+
+    IllegalStateException e = assertThrows(IllegalStateException.class,
+        () -> SongReader.readSongFile(new StringReader(file)));
+
+    assertEquals("Expected layer name, no layer name available", e.getMessage());
+  }
+}
@@ -0,0 +1,167 @@
+package mycomposer.model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.ArrayList;
+import java.util.List;
+import mycomposer.model.unit.Drum;
+import mycomposer.model.unit.Note;
+import mycomposer.model.unit.Pitch;
+import mycomposer.model.unit.Unit;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests that {@link BulkTransform} makes each kind of transform to exactly the units selected,
+ * across many layers at once, and changes nothing if any unit cannot be transformed.
+ */
+public class BulkTransformTest {
+
+  private final Song song = new SongImpl();
+  private final Layer keys = new Layer("Keys", 50, LayerColor.Green, false);
+  private final Layer drums = new Layer("Drums", 50, LayerColor.Red, false);
+
+  /**
+   * Adds the two layers used by most tests to the song.
+   */
+  private void addLayers() {
+    this.song.addLayer(this.keys);
+    this.song.addLayer(this.drums);
+  }
+
+  /**
+   * Gets the note in the given layer with the given ID.
+   *
+   * @param layer the layer holding the note
+   * @param id    the ID of the note
+   * @return the note
+   */
+  private static Note note(Layer layer, long id) {
+    return (Note) layer.getUnitById(id);
+  }
+
+  @Test
+  public void testTransposingKeepsSpellingAndSkipsDrums() {
+    this.addLayers();
+    Note flat = new Note(0, 1, 0, Pitch.Eb, 4);
+    Note sharp = new Note(2, 3, 0, Pitch.Cs, 4);
+    Note high = new Note(4, 5, 0, Pitch.B, 4);
+    Drum drum = new Drum(0, 1, 40);
+    this.keys.addUnit(flat);
+    this.keys.addUnit(sharp);
+    this.keys.addUnit(high);
+    this.drums.addUnit(drum);
+
+    BulkTransform.apply(this.song, List.of(this.keys, this.drums), 0, 10,
+        BulkTransform.transpose(3));
+
+    assertEquals(Pitch.Gb, note(this.keys, flat.getId()).getPitch());
+    assertEquals(Pitch.E, note(this.keys, sharp.getId()).getPitch());
+    assertEquals(Pitch.D, note(this.keys, high.getId()).getPitch());
+    assertEquals(5, note(this.keys, high.getId()).getOctave());
+
+    // changed notes are new units with the old IDs, while the drum is left alone
+    assertNotSame(flat, this.keys.getUnitById(flat.getId()));
+    assertSame(drum, this.drums.getUnit(0));
+    assertEquals(40, drum.getInstrument());
+  }
+
+  @Test
+  public void testMovesOnlyTouchUnitsStartingInTheRange() {
+    this.addLayers();
+    Drum before = new Drum(0, 2, 40);
+    Drum first = new Drum(3, 3, 40);
+    Drum second = new Drum(4, 5, 40);
+    Drum after = new Drum(20, 20, 40);
+    this.drums.addUnit(before);
+    this.drums.addUnit(first);
+    this.drums.addUnit(second);
+    this.drums.addUnit(after);
+
+    // the first unit overlaps the range but starts before it, so it stays where it is
+    BulkTransform.apply(this.song, List.of(this.drums), 1, 5, BulkTransform.stretch(3, 2, 1));
+
+    assertSame(first, this.drums.getUnit(1));
+    assertEquals(0, before.getStartBeat());
+    assertEquals(3, first.getStartBeat());
+    assertEquals(4, first.getEndBeat());
+    assertEquals(5, second.getStartBeat());
+    assertEquals(8, second.getEndBeat());
+    assertEquals(20, after.getStartBeat());
+
+    BulkTransform.apply(this.song, List.of(this.drums), 3, 8, BulkTransform.shift(10));
+
+    assertEquals(13, first.getStartBeat());
+    assertEquals(15, second.getStartBeat());
+    assertEquals(List.of(before, first, second, after), this.drums.getUnits());
+  }
+
+  @Test
+  public void testTransformsCombine() {
+    this.addLayers();
+    Note note = new Note(0, 1, 0, Pitch.A, 3);
+    Note other = new Note(2, 3, 1, Pitch.A, 3);
+    this.keys.addUnit(note);
+    this.keys.addUnit(other);
+
+    BulkTransform.apply(this.song, List.of(this.keys), 0, 10,
+        BulkTransform.transpose(12).andThen(BulkTransform.changeInstrument(0, 5))
+            .andThen(BulkTransform.shift(1)));
+
+    Note changed = note(this.keys, note.getId());
+    assertEquals(4, changed.getOctave());
+    assertEquals(5, changed.getInstrument());
+    assertEquals(1, changed.getStartBeat());
+    assertEquals(1, note(this.keys, other.getId()).getInstrument());
+  }
+
+  @Test
+  public void testAnyFailureChangesNothing() {
+    this.addLayers();
+    Drum early = new Drum(1, 1, 40);
+    Note note = new Note(4, 4, 0, Pitch.C, 4);
+    this.drums.addUnit(early);
+    this.keys.addUnit(note);
+    this.keys.addUnit(new Note(8, 8, 0, Pitch.C, 4));
+
+    // the drum cannot move before the first beat
+    assertThrows(BatchConflictException.class, () -> BulkTransform.apply(this.song,
+        List.of(this.keys, this.drums), 0, 5, BulkTransform.shift(-2)));
+
+    // the note would land on a note outside the range
+    assertThrows(BatchConflictException.class, () -> BulkTransform.apply(this.song,
+        List.of(this.keys, this.drums), 0, 5, BulkTransform.shift(4)));
+
+    assertEquals(1, early.getStartBeat());
+    assertEquals(4, note.getStartBeat());
+    assertSame(note, this.keys.getUnit(0));
+  }
+
+  @Test
+  public void testManyLayersAreTransformedTogether() {
+    List<Layer> layers = new ArrayList<>();
+
+    for (int i = 0; i < 16; i++) {
+      Layer layer = new Layer("Layer " + i, 50, LayerColor.Cyan, false);
+
+      for (int beat = 0; beat < 1000; beat += 2) {
+        layer.addUnit(new Drum(beat, beat, 40));
+      }
+
+      layers.add(layer);
+      this.song.addLayer(layer);
+    }
+
+    BulkTransform.apply(this.song, layers, 0, 999, BulkTransform.shift(1));
+
+    for (Layer layer : layers) {
+      assertEquals(500, layer.getUnitCount());
+
+      for (Unit unit : layer.getUnitsView()) {
+        assertEquals(1, unit.getStartBeat() % 2);
+      }
+    }
+  }
+}
@@ -0,0 +1,213 @@
+package mycomposer.model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+import mycomposer.model.unit.Drum;
+import mycomposer.model.unit.Unit;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests that {@link Song#unitsAt(int)}, {@link Song#changePointsInRange(int, int)}, and
+ * {@link Song#findFreeSlot(int, int)}, which use the column index of the song (see
+ * {@link ColumnIndex}), match what every layer says on its own.
+ */
+public class ColumnIndexTest {
+
+  private static final Pattern BEAT = new Pattern("Beat", 4).withUnit(new Drum(0, 0, 40))
+      .withUnit(new Drum(2, 3, 41));
+
+  /**
+   * Checks every beat of the given song, and the change points and free slots over every range of
+   * beats near the start of the song, against the layers of the song.
+   *
+   * @param song the song to check
+   */
+  private static void assertMatchesLayers(Song song) {
+    for (int beat = 0; beat <= song.getFinalBeat() + 1; beat++) {
+      List<Unit> expected = new ArrayList<>();
+
+      for (Layer layer : song.getLayers()) {
+        Unit unit = layer.unitAt(beat);
+
+        if (unit != null) {
+          expected.add(unit);
+        }
+      }
+
+      List<Unit> actual = song.unitsAt(beat);
+      assertEquals(expected.size(), actual.size());
+
+      for (int i = 0; i < expected.size(); i++) {
+        assertEquals(expected.get(i).getStartBeat(), actual.get(i).getStartBeat());
+        assertEquals(expected.get(i).getEndBeat(), actual.get(i).getEndBeat());
+        assertEquals(expected.get(i).getInstrument(), actual.get(i).getInstrument());
+      }
+    }
+
+    for (int start = 0; start < 40; start += 3) {
+      for (int end = start; end < start + 40; end += 7) {
+        TreeSet<Integer> expected = new TreeSet<>();
+
+        for (Layer layer : song.getLayers()) {
+          for (int point : layer.changePointsInRange(start, end)) {
+            expected.add(point);
+          }
+        }
+
+        int[] actual = song.changePointsInRange(start, end);
+        assertEquals(expected.toString(), Arrays.toString(actual));
+      }
+    }
+
+    for (int beat = 0; beat < 45; beat++) {
+      for (int length = 1; length < 12; length += 2) {
+        FreeSlot expected = null;
+
+        // the first layer with the earliest gap wins
+        for (Layer layer : song.getLayers()) {
+          int found = layer.findGap(beat, length);
+
+          if (found != -1 && (expected == null || found < expected.getBeat())) {
+            expected = new FreeSlot(layer, found);
+          }
+        }
+
+        FreeSlot actual = song.findFreeSlot(beat, length);
+        assertEquals(String.valueOf(expected), String.valueOf(actual));
+
+        if (expected != null) {
+          assertSame(expected.getLayer(), actual.getLayer());
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testUnitsAtABeatAreInLayerOrder() {
+    Song song = new SongImpl();
+    Layer drums = new Layer("Drums", 50, LayerColor.Red, false);
+    Layer bass = new Layer("Bass", 50, LayerColor.Cyan, false);
+    Drum low = new Drum(2, 5, 35);
+    Drum high = new Drum(4, 4, 42);
+    song.addLayer(drums);
+    song.addLayer(bass);
+    bass.addUnit(low);
+    drums.addUnit(high);
+
+    assertEquals(List.of(high, low), song.unitsAt(4));
+    assertEquals(List.of(low), song.unitsAt(5));
+    assertTrue(song.unitsAt(6).isEmpty());
+
+    song.moveLayer(bass, 0);
+
+    assertEquals(List.of(low, high), song.unitsAt(4));
+    assertEquals("[2, 4, 5, 6]", Arrays.toString(song.changePointsInRange(0, 10)));
+
+    song.removeLayer(bass);
+
+    assertEquals(List.of(high), song.unitsAt(4));
+    assertEquals("[4, 5]", Arrays.toString(song.changePointsInRange(0, 10)));
+  }
+
+  @Test
+  public void testTheIndexFollowsEveryKindOfEdit() {
+    Song song = new SongImpl();
+    Layer drums = new Layer("Drums", 50, LayerColor.Red, false);
+    Layer bass = new Layer("Bass", 50, LayerColor.Cyan, false);
+    song.addLayer(drums);
+    song.addLayer(bass);
+    UndoHistory history = new UndoHistory(song, 1 << 20);
+
+    Drum drum = new Drum(0, 1, 40);
+    drums.addUnit(drum);
+    bass.addUnit(new Drum(1, 6, 35));
+    drums.addPatternInstance(new PatternInstance(BEAT, 8, 2));
+    assertMatchesLayers(song);
+
+    drum.setStartEnd(2, 5, drums);
+    assertMatchesLayers(song);
+
+    history.beginEdit();
+    SongBatch batch = new SongBatch();
+    PatternInstance instance = drums.getPatternInstances().get(0);
+    batch.forLayer(drums).removePatternInstance(instance).moveUnit(drum, 9, 12)
+        .addUnit(new Drum(20, 22, 41));
+    batch.forLayer(bass).addPatternInstance(new PatternInstance(BEAT, 24, 3));
+    song.applyBatch(batch);
+    history.endEdit();
+    assertMatchesLayers(song);
+
+    history.undo();
+    assertMatchesLayers(song);
+
+    history.redo();
+    drums.removeUnit(drum);
+    assertMatchesLayers(song);
+
+    Layer keys = new Layer("Keys", 20, LayerColor.Violet, false);
+    keys.addUnit(new Drum(3, 30, 50));
+    keys.addPatternInstance(new PatternInstance(BEAT, 31, 1));
+    song.addLayer(keys);
+    song.moveLayer(keys, 0);
+    assertMatchesLayers(song);
+
+    song.removeLayer(drums);
+    drums.addUnit(new Drum(36, 39, 40));
+    assertMatchesLayers(song);
+  }
+
+  @Test
+  public void testTheIndexMatchesTheLayersAfterManyRandomEdits() {
+    Random random = new Random(12);
+    Song song = new SongImpl();
+    List<Layer> layers = new ArrayList<>();
+
+    for (int i = 0; i < 3; i++) {
+      Layer layer = new Layer("Layer " + i, 50, LayerColor.Green, false);
+      layers.add(layer);
+      song.addLayer(layer);
+    }
+
+    for (int step = 0; step < 300; step++) {
+      Layer layer = layers.get(random.nextInt(layers.size()));
+      int start = random.nextInt(40);
+      int end = start + random.nextInt(4);
+
+      try {
+        switch (random.nextInt(4)) {
+          case 0:
+            layer.addUnit(new Drum(start, end, 40));
+            break;
+          case 1:
+            if (layer.getUnitCount() > 0) {
+              layer.removeUnit(layer.getUnit(random.nextInt(layer.getUnitCount())));
+            }
+            break;
+          case 2:
+            if (layer.getUnitCount() > 0) {
+              Unit unit = layer.getUnit(random.nextInt(layer.getUnitCount()));
+              unit.setStartEnd(start, end, layer);
+            }
+            break;
+          default:
+            layer.addPatternInstance(new PatternInstance(BEAT, start, 1));
+        }
+      } catch (IllegalArgumentException e) {
+        // the edit overlapped something, so nothing changed
+      }
+
+      if (step % 30 == 0) {
+        assertMatchesLayers(song);
+      }
+    }
+
+    assertMatchesLayers(song);
+  }
+}
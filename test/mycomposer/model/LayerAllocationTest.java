@@ -0,0 +1,108 @@
+package mycomposer.model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import mycomposer.model.unit.Drum;
+import mycomposer.model.unit.Unit;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests that the read-only accessors of {@link Layer} and {@link Song} read units and layers in
+ * place, allocating the same small amount however many units there are, where copying the units
+ * allocates for every one of them.
+ */
+public class LayerAllocationTest {
+
+  private static final int UNITS = 10000;
+
+  private static final com.sun.management.ThreadMXBean THREADS =
+      (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+  /**
+   * Creates a layer holding many short units.
+   *
+   * @param packed whether the layer stores its units packed
+   * @return the new layer
+   */
+  private static Layer layerOfManyUnits(boolean packed) {
+    Layer layer = new Layer("Drums", 50, LayerColor.Red, false, packed);
+
+    for (int i = 0; i < UNITS; i++) {
+      layer.addUnit(new Drum(2 * i, 2 * i, 40));
+    }
+
+    return layer;
+  }
+
+  /**
+   * Runs the given action a few times so that any classes and call sites it needs are set up, and
+   * then counts the bytes the current thread allocates running it once more.
+   *
+   * @param action the action to run
+   * @return the number of bytes allocated by the last run
+   */
+  private static long bytesAllocatedBy(Runnable action) {
+    for (int i = 0; i < 5; i++) {
+      action.run();
+    }
+
+    long id = Thread.currentThread().getId();
+    long before = THREADS.getThreadAllocatedBytes(id);
+    action.run();
+
+    return THREADS.getThreadAllocatedBytes(id) - before;
+  }
+
+  @Test
+  public void testVisitingEncodedUnitsCreatesNoUnits() {
+    if (!THREADS.isThreadAllocatedMemorySupported()) {
+      return;
+    }
+
+    Layer layer = layerOfManyUnits(true);
+    long[] sum = new long[1];
+
+    long visiting = bytesAllocatedBy(() -> layer.forEachEncodedUnit(unit -> sum[0] += unit));
+    long copying = bytesAllocatedBy(() -> sum[0] += layer.getUnits().size());
+
+    // far less than one byte per unit, where a packed layer creates a unit for every copy
+    assertTrue(visiting < UNITS / 4);
+    assertTrue(copying > 16L * UNITS);
+  }
+
+  @Test
+  public void testViewsAndIndexedAccessorsDoNotCopy() {
+    if (!THREADS.isThreadAllocatedMemorySupported()) {
+      return;
+    }
+
+    Layer layer = layerOfManyUnits(false);
+    Song song = new SongImpl();
+    song.addLayer(layer);
+    long[] sum = new long[1];
+
+    long viewing = bytesAllocatedBy(() -> {
+      List<Unit> view = layer.getUnitsView();
+
+      for (int i = 0; i < view.size(); i++) {
+        sum[0] += view.get(i).getStartBeat();
+      }
+    });
+    long visiting = bytesAllocatedBy(() -> layer.forEachUnit(unit -> sum[0] += unit.getEndBeat()));
+    long indexing = bytesAllocatedBy(() -> {
+      for (int i = 0; i < song.getLayerCount(); i++) {
+        sum[0] += song.getLayer(i).getUnitCount();
+      }
+    });
+
+    assertTrue(viewing < UNITS / 4);
+    assertTrue(visiting < UNITS / 4);
+    assertTrue(indexing < UNITS / 4);
+    assertSame(layer, song.getLayer(0));
+    assertEquals(UNITS, layer.getUnitsView().size());
+  }
+}
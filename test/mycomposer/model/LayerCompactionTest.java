@@ -0,0 +1,104 @@
+package mycomposer.model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.Map;
+import mycomposer.MIDI;
+import mycomposer.model.unit.Drum;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests that {@link LayerCompaction} merges only layers with matching settings whose units never
+ * overlap, reports what it saves, and changes the song all at once or not at all.
+ */
+public class LayerCompactionTest {
+
+  private final Song song = new SongImpl();
+  private final Layer kick = this.layer("Kick", LayerColor.Red);
+  private final Layer snare = this.layer("Snare", LayerColor.Red);
+  private final Layer hat = this.layer("Hat", LayerColor.Red);
+  private final Layer bass = this.layer("Bass", LayerColor.Cyan);
+  private final Layer fill = this.layer("Fill", LayerColor.Red);
+  private final Layer empty = this.layer("Empty", LayerColor.Red);
+
+  private final Drum kickDrum = new Drum(0, 1, 36);
+  private final Drum snareDrum = new Drum(2, 3, 38);
+  private final Drum hatDrum = new Drum(1, 2, 42);
+
+  /**
+   * Adds a layer with the given name and color and the same volume and mute setting as every other
+   * layer to the song.
+   *
+   * @param name  the name of the layer
+   * @param color the color of the layer
+   * @return the new layer
+   */
+  private Layer layer(String name, LayerColor color) {
+    Layer layer = new Layer(name, 50, color, false);
+    this.song.addLayer(layer);
+
+    return layer;
+  }
+
+  /**
+   * Fills the layers of the song. The snare fits around the kick, the hat overlaps both, the bass
+   * has a different color, and the fill plays a pattern instance.
+   */
+  private void fillLayers() {
+    this.kick.addUnit(this.kickDrum);
+    this.snare.addUnit(this.snareDrum);
+    this.hat.addUnit(this.hatDrum);
+    this.bass.addUnit(new Drum(0, 3, 35));
+    this.fill.addPatternInstance(
+        new PatternInstance(new Pattern("Roll", 2).withUnit(new Drum(0, 0, 40)), 8, 1));
+  }
+
+  @Test
+  public void testOnlyMatchingLayersWhichNeverOverlapAreMerged() {
+    this.fillLayers();
+    LayerCompaction plan = LayerCompaction.plan(this.song);
+
+    // the empty layer can join the kick as well, but saves no track by doing so
+    assertEquals(Map.of(this.kick, List.of(this.snare, this.empty)), plan.getMerges());
+    assertEquals(6, plan.getLayersBefore());
+    assertEquals(4, plan.getLayersAfter());
+    assertEquals(5, plan.getTracksBefore());
+    assertEquals(4, plan.getTracksAfter());
+
+    int cellsPerLayer = this.song.getFinalBeat() + 1 + MIDI.EXTRA_BEATS;
+    assertEquals(6 * cellsPerLayer, plan.getGridCellsBefore());
+    assertEquals(4 * cellsPerLayer, plan.getGridCellsAfter());
+
+    // nothing changes until the plan is applied
+    assertEquals(6, this.song.getLayerCount());
+    assertEquals(1, this.snare.getUnitCount());
+  }
+
+  @Test
+  public void testApplyingAPlanMovesUnitsAndRemovesLayers() {
+    this.fillLayers();
+    LayerCompaction.plan(this.song).apply();
+
+    assertEquals(List.of(this.kick, this.hat, this.bass, this.fill), this.song.getLayers());
+    assertEquals(List.of(this.kickDrum, this.snareDrum), this.kick.getUnits());
+    assertSame(this.kick, this.song.getLayerOfUnit(this.snareDrum.getId()));
+    assertSame(this.hatDrum, this.hat.getUnit(0));
+    assertTrue(LayerCompaction.plan(this.song).isEmpty());
+  }
+
+  @Test
+  public void testAPlanMadeStaleChangesNothing() {
+    this.fillLayers();
+    LayerCompaction plan = LayerCompaction.plan(this.song);
+    this.snare.addUnit(new Drum(0, 0, 37));
+
+    assertThrows(BatchConflictException.class, plan::apply);
+    assertEquals(6, this.song.getLayerCount());
+    assertEquals(List.of(this.kickDrum), this.kick.getUnits());
+    assertEquals(2, this.snare.getUnitCount());
+  }
+}
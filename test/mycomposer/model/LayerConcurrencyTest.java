@@ -0,0 +1,78 @@
+package mycomposer.model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import mycomposer.model.unit.Drum;
+import mycomposer.model.unit.Unit;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests that a layer can be read by other threads while one thread edits it (see {@link
+ * ModelLock}).
+ */
+public class LayerConcurrencyTest {
+
+  @Test
+  public void testReadersNeverSeeAnEditHalfMade() throws InterruptedException {
+    Layer layer = new Layer("Drums", 50, LayerColor.Red, false);
+    AtomicReference<Throwable> failure = new AtomicReference<>();
+
+    Thread writer = new Thread(() -> {
+      for (int i = 0; i < 2000; i++) {
+        Drum drum = new Drum(4 * (i % 200), 4 * (i % 200) + 1, 40);
+
+        if (!layer.rangeOverlapsUnit(drum.getStartBeat(), drum.getEndBeat(), null)) {
+          layer.addUnit(drum);
+        } else {
+          layer.removeUnit(layer.unitAt(drum.getStartBeat()));
+        }
+      }
+    });
+
+    Thread reader = new Thread(() -> {
+      try {
+        while (writer.isAlive()) {
+          List<Unit> units = layer.getUnits();
+
+          for (int i = 1; i < units.size(); i++) {
+            assertTrue(units.get(i - 1).getEndBeat() < units.get(i).getStartBeat());
+          }
+
+          long[] encoded = layer.getEncodedUnitsInRange(0, 800);
+          assertTrue(encoded.length <= 200);
+          layer.unitsInRange(100, 300);
+          layer.findGap(0, 3);
+        }
+      } catch (Throwable e) {
+        failure.set(e);
+      }
+    });
+
+    writer.start();
+    reader.start();
+    writer.join();
+    reader.join();
+
+    assertEquals(null, failure.get());
+  }
+
+  @Test
+  public void testMovingOntoAnotherUnitChangesNothing() {
+    Layer layer = new Layer("Drums", 50, LayerColor.Red, false);
+    Drum first = new Drum(0, 1, 40);
+    Drum second = new Drum(4, 5, 40);
+    layer.addUnit(first);
+    layer.addUnit(second);
+    long version = layer.getVersion();
+
+    assertThrows(IllegalArgumentException.class, () -> first.setStartEnd(3, 4, layer));
+
+    assertEquals(0, first.getStartBeat());
+    assertEquals(1, first.getEndBeat());
+    assertEquals(version, layer.getVersion());
+  }
+}
@@ -0,0 +1,138 @@
+package mycomposer.model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.List;
+import java.util.Random;
+import mycomposer.model.unit.Drum;
+import mycomposer.model.unit.Unit;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests that {@link Layer#findGap(int, int)} keeps finding the right gaps as the units of a layer
+ * are added, removed, resized, moved past each other, and placed in batches (see
+ * {@link GapIndex}).
+ */
+public class LayerGapTest {
+
+  /**
+   * Finds the first gap of the given length at or after the given beat by looking at every unit
+   * in the given layer. The layers tested never come near the maximum song length, so there is
+   * always room after the last unit.
+   *
+   * @param layer  the layer to search
+   * @param beat   the first beat to consider
+   * @param length the number of empty beats needed
+   * @return the first beat of the gap
+   */
+  private static int expectedGap(Layer layer, int beat, int length) {
+    int candidate = beat;
+
+    for (Unit unit : layer.getUnits()) {
+      if (unit.getEndBeat() < candidate) {
+        continue;
+      }
+
+      if (unit.getStartBeat() - candidate >= length) {
+        return candidate;
+      }
+
+      candidate = Math.max(candidate, unit.getEndBeat() + 1);
+    }
+
+    return candidate;
+  }
+
+  @Test
+  public void testGapsFollowResizesInPlace() {
+    Layer layer = new Layer("Drums", 50, LayerColor.Red, false);
+
+    for (int beat = 0; beat < 400; beat += 4) {
+      layer.addUnit(new Drum(beat, beat + 1, 40));
+    }
+
+    Random random = new Random(21);
+
+    for (int i = 0; i < 2000; i++) {
+      List<Unit> units = layer.getUnits();
+      Unit unit = units.get(random.nextInt(units.size()));
+      int left = layer.leftFreeBeat(unit);
+      // the last unit has room up to the end of the song, which is kept out of the way here
+      int right = Math.min(layer.rightFreeBeat(unit), 410);
+      int startBeat = left + random.nextInt(right - left + 1);
+      int endBeat = startBeat + random.nextInt(right - startBeat + 1);
+
+      unit.setStartEnd(startBeat, endBeat, layer);
+
+      // searching only now and then leaves several edits waiting between searches
+      if (i % 3 == 0) {
+        int beat = random.nextInt(420);
+        int length = 1 + random.nextInt(6);
+        assertEquals(expectedGap(layer, beat, length), layer.findGap(beat, length));
+      }
+    }
+  }
+
+  @Test
+  public void testGapsFollowAddsAndRemoves() {
+    Layer layer = new Layer("Drums", 50, LayerColor.Red, false);
+    Random random = new Random(13);
+
+    for (int i = 0; i < 2000; i++) {
+      List<Unit> units = layer.getUnits();
+
+      if (!units.isEmpty() && random.nextInt(3) == 0) {
+        layer.removeUnit(units.get(random.nextInt(units.size())));
+      } else {
+        int startBeat = random.nextInt(400);
+        int endBeat = startBeat + random.nextInt(4);
+
+        if (!layer.rangeOverlapsUnit(startBeat, endBeat, null)) {
+          layer.addUnit(new Drum(startBeat, endBeat, 40));
+        }
+      }
+
+      if (i % 2 == 0) {
+        int beat = random.nextInt(420);
+        int length = 1 + random.nextInt(6);
+        assertEquals(expectedGap(layer, beat, length), layer.findGap(beat, length));
+      }
+    }
+  }
+
+  @Test
+  public void testGapsFollowMovesAndBatches() {
+    Layer layer = new Layer("Drums", 50, LayerColor.Red, false);
+    Random random = new Random(34);
+
+    for (int beat = 0; beat < 200; beat += 5) {
+      layer.addUnit(new Drum(beat, beat + 2, 40));
+    }
+
+    for (int i = 0; i < 1000; i++) {
+      List<Unit> units = layer.getUnits();
+      Unit unit = units.get(random.nextInt(units.size()));
+      int startBeat = random.nextInt(400);
+      int endBeat = startBeat + random.nextInt(3);
+
+      if (i % 10 == 0) {
+        LayerBatch batch = new LayerBatch();
+        batch.moveUnit(unit, startBeat, endBeat);
+        batch.addUnit(new Drum(startBeat + 3, endBeat + 3, 41));
+
+        try {
+          layer.applyBatch(batch);
+        } catch (BatchConflictException e) {
+          // the batch overlapped another unit, so nothing changed
+        }
+      } else if (!layer.rangeOverlapsUnit(startBeat, endBeat, unit)) {
+        // the unit may jump past any number of other units
+        unit.setStartEnd(startBeat, endBeat, layer);
+      }
+
+      int beat = random.nextInt(420);
+      int length = 1 + random.nextInt(6);
+      assertEquals(expectedGap(layer, beat, length), layer.findGap(beat, length));
+    }
+  }
+}
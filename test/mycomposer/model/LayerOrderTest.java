@@ -0,0 +1,103 @@
+package mycomposer.model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import mycomposer.model.unit.Drum;
+import mycomposer.model.unit.Unit;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests that the units of a {@link Layer} are always kept in order of increasing start beat,
+ * however they are added, moved, and removed, so that reading them never needs a sort.
+ */
+public class LayerOrderTest {
+
+  /**
+   * Checks that the units of the given layer are the given spans of beats, in the same order.
+   *
+   * @param expected the start and end beat of every unit, by start beat
+   * @param layer    the layer to check
+   */
+  private static void assertUnits(TreeMap<Integer, Integer> expected, Layer layer) {
+    List<String> actual = new ArrayList<>();
+    layer.forEachUnit(unit -> actual.add(unit.getStartBeat() + "-" + unit.getEndBeat()));
+
+    List<String> spans = new ArrayList<>();
+
+    for (Map.Entry<Integer, Integer> entry : expected.entrySet()) {
+      spans.add(entry.getKey() + "-" + entry.getValue());
+    }
+
+    assertEquals(spans, actual);
+    assertEquals(layer.getUnits(), layer.getUnitsView());
+  }
+
+  @Test
+  public void testUnitsAddedOutOfOrderAreSorted() {
+    Layer layer = new Layer("Drums", 50, LayerColor.Red, false);
+    layer.addUnit(new Drum(20, 21, 40));
+    layer.addUnit(new Drum(0, 3, 40));
+    layer.addUnit(new Drum(10, 10, 40));
+    layer.addUnit(new Drum(5, 8, 40));
+
+    TreeMap<Integer, Integer> expected = new TreeMap<>(Map.of(0, 3, 5, 8, 10, 10, 20, 21));
+    assertUnits(expected, layer);
+    assertEquals(5, layer.getUnit(1).getStartBeat());
+    assertEquals(4, layer.leftFreeBeat(layer.getUnit(1)));
+    assertEquals(9, layer.rightFreeBeat(layer.getUnit(1)));
+  }
+
+  @Test
+  public void testUnitsStaySortedThroughRandomEdits() {
+    Layer layer = new Layer("Drums", 50, LayerColor.Red, false);
+    TreeMap<Integer, Integer> expected = new TreeMap<>();
+    Random random = new Random(2);
+
+    for (int i = 0; i < 3000; i++) {
+      int startBeat = random.nextInt(1000);
+      int endBeat = startBeat + random.nextInt(5);
+      boolean free = !layer.rangeOverlapsUnit(startBeat, endBeat, null);
+
+      switch (random.nextInt(4)) {
+        case 0:
+        case 1:
+          if (free) {
+            layer.addUnit(new Drum(startBeat, endBeat, 40));
+            expected.put(startBeat, endBeat);
+          }
+          break;
+        case 2:
+          if (!expected.isEmpty()) {
+            Unit unit = layer.getUnit(random.nextInt(layer.getUnitCount()));
+            layer.removeUnit(unit);
+            expected.remove(unit.getStartBeat());
+          }
+          break;
+        default:
+          if (!expected.isEmpty()) {
+            // the unit may move past any number of other units
+            Unit unit = layer.getUnit(random.nextInt(layer.getUnitCount()));
+
+            if (!layer.rangeOverlapsUnit(startBeat, endBeat, unit)) {
+              expected.remove(unit.getStartBeat());
+              unit.setStartEnd(startBeat, endBeat, layer);
+              expected.put(startBeat, endBeat);
+            }
+          }
+      }
+
+      if (i % 100 == 0) {
+        assertUnits(expected, layer);
+      }
+    }
+
+    assertUnits(expected, layer);
+    assertTrue(layer.getUnitCount() > 100);
+  }
+}
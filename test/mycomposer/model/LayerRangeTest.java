@@ -0,0 +1,47 @@
+package mycomposer.model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.ArrayList;
+import java.util.List;
+import mycomposer.model.unit.Drum;
+import mycomposer.model.unit.Unit;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests that queries over a range of beats in a {@link Layer} only look at the units in the range,
+ * even in a layer reaching the last beat.
+ */
+public class LayerRangeTest {
+
+  @Test
+  public void testForEachUnitInRangeVisitsOverlappingUnits() {
+    Layer layer = new Layer("Drums", 50, LayerColor.Red, false);
+    layer.addUnit(new Drum(0, 3, 40));
+    layer.addUnit(new Drum(6, 9, 41));
+    layer.addUnit(new Drum(12, 12, 42));
+    layer.addPatternInstance(new PatternInstance(
+        new Pattern("Beat", 2).withUnit(new Drum(0, 0, 36)), 4, 1));
+
+    List<Integer> starts = new ArrayList<>();
+    layer.forEachUnitInRange(3, 11, unit -> starts.add(unit.getStartBeat()));
+
+    assertEquals(List.of(0, 6), starts);
+    assertThrows(IllegalArgumentException.class,
+        () -> layer.forEachUnitInRange(5, 4, unit -> { }));
+  }
+
+  @Test
+  public void testForEachUnitInRangeNearTheLastBeat() {
+    Layer layer = new Layer("Drums", 50, LayerColor.Red, false);
+    Drum last = new Drum(Integer.MAX_VALUE - 1, Integer.MAX_VALUE, 40);
+    layer.addUnit(new Drum(0, 0, 40));
+    layer.addUnit(last);
+
+    List<Unit> units = new ArrayList<>();
+    layer.forEachUnitInRange(Integer.MAX_VALUE - 64, Integer.MAX_VALUE, units::add);
+
+    assertEquals(List.of(last), units);
+  }
+}
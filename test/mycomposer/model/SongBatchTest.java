@@ -0,0 +1,168 @@
+package mycomposer.model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import mycomposer.model.unit.Drum;
+import mycomposer.model.unit.Unit;
+import mycomposer.model.unit.UnitCodec;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests that batches (see {@link SongBatch} and {@link LayerBatch}) make every change at once, or
+ * none of them.
+ */
+public class SongBatchTest {
+
+  private static final Pattern BEAT = new Pattern("Beat", 4).withUnit(new Drum(0, 0, 40));
+
+  @Test
+  public void testABatchMakesEveryChangeWithOneEvent() {
+    Song song = new SongImpl();
+    Layer drums = new Layer("Drums", 50, LayerColor.Red, false);
+    Layer bass = new Layer("Bass", 50, LayerColor.Cyan, false);
+    song.addLayer(drums);
+    song.addLayer(bass);
+    Drum drum = new Drum(0, 1, 40);
+    drums.addUnit(drum);
+    List<SongEvent> events = new ArrayList<>();
+    song.addListener(events::add);
+
+    Layer keys = new Layer("Keys", 20, LayerColor.Violet, false);
+    SongBatch batch = new SongBatch().addLayer(keys).moveLayer(keys, 0).setTempo(150);
+    batch.forLayer(drums).moveUnit(drum, 2, 5).setVolume(70)
+        .addPatternInstance(new PatternInstance(BEAT, 8, 1));
+    batch.forLayer(bass).addUnit(new Drum(0, 3, 41)).setMute(true);
+    batch.forLayer(keys).addUnit(new Drum(4, 4, 42));
+    song.applyBatch(batch);
+
+    assertEquals(1, events.size());
+    assertEquals(List.of(keys, drums, bass), song.getLayers());
+    assertEquals(150, song.getTempo());
+    assertSame(drum, drums.getUnit(0));
+    assertEquals(2, drum.getStartBeat());
+    assertEquals(70, drums.getVolume());
+    assertEquals(1, drums.getPatternInstances().size());
+    assertTrue(bass.isMute());
+    assertEquals(1, keys.getUnitCount());
+    assertEquals(11, song.getFinalBeat());
+  }
+
+  @Test
+  public void testAConflictInOneLayerChangesNothing() {
+    Song song = new SongImpl();
+    Layer drums = new Layer("Drums", 50, LayerColor.Red, false);
+    Layer bass = new Layer("Bass", 50, LayerColor.Cyan, false);
+    song.addLayer(drums);
+    song.addLayer(bass);
+    bass.addUnit(new Drum(0, 3, 41));
+    String before = song.snapshot().songInfo();
+
+    Layer keys = new Layer("Keys", 20, LayerColor.Violet, false);
+    SongBatch batch = new SongBatch().addLayer(keys).moveLayer(keys, 0).setTempo(150);
+    batch.forLayer(drums).addUnit(new Drum(0, 1, 40)).setVolume(70);
+    batch.forLayer(bass).addUnit(new Drum(2, 5, 42));
+
+    BatchConflictException conflict =
+        assertThrows(BatchConflictException.class, () -> song.applyBatch(batch));
+
+    assertEquals(1, conflict.getConflicts().size());
+    assertTrue(conflict.getConflicts().get(0).startsWith("Bass: "));
+    assertEquals(before, song.snapshot().songInfo());
+    assertEquals(2, song.getLayerCount());
+    assertEquals(50, drums.getVolume());
+    assertEquals(0, drums.getUnitCount());
+  }
+
+  @Test
+  public void testEveryConflictIsReported() {
+    Song song = new SongImpl();
+    Layer drums = new Layer("Drums", 50, LayerColor.Red, false);
+    Layer outside = new Layer("Outside", 50, LayerColor.Red, false);
+    song.addLayer(drums);
+    Drum drum = new Drum(0, 1, 40);
+    drums.addUnit(drum);
+
+    SongBatch batch = new SongBatch().addLayer(drums).removeLayer(outside).moveLayer(drums, 3);
+    batch.forLayer(drums).removeUnit(drum).removeUnit(drum)
+        .addUnit(new Drum(-1, 0, 40))
+        .removePatternInstance(new PatternInstance(BEAT, 8, 1));
+
+    BatchConflictException conflict =
+        assertThrows(BatchConflictException.class, () -> song.applyBatch(batch));
+
+    assertEquals(List.of(
+        "Layer Drums is already in this song.",
+        "Layer Outside is not in this song.",
+        "Drums: Unit at beats 0-1 is changed more than once.",
+        "Drums: New unit at beats -1-0 starts before the first beat.",
+        "Drums: Pattern Beat at beats 8-11 is not in this layer.",
+        "Layer Drums cannot be moved to index 3."), conflict.getConflicts());
+    assertEquals(1, drums.getUnitCount());
+  }
+
+  @Test
+  public void testAUnitMovesIntoARemovedPatternInstance() {
+    Layer drums = new Layer("Drums", 50, LayerColor.Red, false);
+    Drum drum = new Drum(0, 1, 40);
+    drums.addUnit(drum);
+    PatternInstance instance = new PatternInstance(BEAT, 8, 1);
+    drums.addPatternInstance(instance);
+
+    drums.applyBatch(new LayerBatch().removePatternInstance(instance).moveUnit(drum, 8, 9));
+
+    assertTrue(drums.getPatternInstances().isEmpty());
+    assertSame(drum, drums.getUnit(0));
+    assertEquals(8, drum.getStartBeat());
+    assertEquals(9, drums.getFinalBeat());
+    assertTrue(drums.containsUnit(drum.getId()));
+  }
+
+  @Test
+  public void testAddingEncodedUnitsSendsOneEvent() {
+    Layer drums = new Layer("Drums", 50, LayerColor.Red, false);
+    drums.addUnit(new Drum(0, 1, 40));
+    List<SongEvent> events = new ArrayList<>();
+    drums.addListener(events::add);
+
+    drums.addEncodedUnits(new long[] {UnitCodec.encode(new Drum(8, 9, 41)),
+        UnitCodec.encode(new Drum(2, 3, 42)), UnitCodec.encode(new Drum(4, 7, 43))});
+
+    assertEquals(1, events.size());
+    assertEquals(SongEvent.Type.UnitsChanged, events.get(0).getType());
+    assertEquals(4, drums.getUnitCount());
+    assertEquals(4, drums.getUnit(2).getStartBeat());
+
+    assertThrows(BatchConflictException.class, () -> drums.addEncodedUnits(new long[] {
+        UnitCodec.encode(new Drum(12, 13, 40)), UnitCodec.encode(new Drum(9, 10, 40))}));
+
+    assertEquals(1, events.size());
+    assertEquals(4, drums.getUnitCount());
+  }
+
+  @Test
+  public void testOverlapsWithinABatchAreConflicts() {
+    Layer drums = new Layer("Drums", 50, LayerColor.Red, false);
+    Drum drum = new Drum(0, 1, 40);
+    drums.addUnit(drum);
+    drums.addPatternInstance(new PatternInstance(BEAT, 8, 1));
+
+    LayerBatch batch = new LayerBatch().moveUnit(drum, 4, 5).addUnit(new Drum(5, 6, 41))
+        .addPatternInstance(new PatternInstance(BEAT, 10, 1));
+
+    assertEquals(List.of(
+        "Pattern Beat at beats 10-13 overlaps pattern Beat at beats 8-11.",
+        "New unit at beats 5-6 overlaps moved unit at beats 4-5."), drums.checkBatch(batch));
+    assertThrows(BatchConflictException.class, () -> drums.applyBatch(batch));
+
+    List<Unit> units = drums.getUnits();
+    assertEquals(1, units.size());
+    assertEquals(0, drum.getStartBeat());
+    assertFalse(drums.rangeOverlapsUnit(2, 7, null));
+  }
+}
@@ -0,0 +1,121 @@
+package mycomposer.model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import mycomposer.model.unit.Drum;
+import mycomposer.model.unit.Note;
+import mycomposer.model.unit.Pitch;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests that {@link SongDiff} finds the differences between two versions of a song and applies
+ * them all at once.
+ */
+public class SongDiffTest {
+
+  private static final Pattern BEAT = new Pattern("Beat", 4).withUnit(new Drum(0, 0, 40));
+
+  /**
+   * Creates a song with one layer holding a drum beat at beats 0-1 and an instance of the beat
+   * pattern at beats 8-11.
+   *
+   * @return the new song
+   */
+  private static Song original() {
+    Song song = new SongImpl();
+    Layer drums = new Layer("Drums", 50, LayerColor.Red, false);
+    song.addLayer(drums);
+    drums.addUnit(new Drum(0, 1, 40));
+    drums.addPatternInstance(new PatternInstance(BEAT, 8, 1));
+    return song;
+  }
+
+  @Test
+  public void testIdenticalSongsHaveAnEmptyDiff() {
+    assertTrue(SongDiff.compare(original().snapshot(), original().snapshot()).isEmpty());
+  }
+
+  @Test
+  public void testApplyingADiffMakesTheNewerSong() {
+    Song song = original();
+    Song newer = new SongImpl();
+    Layer keys = new Layer("Keys", 20, LayerColor.Violet, true);
+    Layer drums = new Layer("Drums", 90, LayerColor.Red, true);
+    newer.addLayer(keys);
+    newer.addLayer(drums);
+    keys.addUnit(new Note(4, 7, 1, Pitch.E, 4));
+    drums.addUnit(new Drum(2, 3, 40));
+    drums.addPatternInstance(new PatternInstance(BEAT, 8, 2));
+    newer.setTempo(140);
+
+    SongDiff diff = SongDiff.compare(song.snapshot(), newer.snapshot());
+    assertTrue(diff.isOrderChanged() || diff.getLayerDiffs().get(1).isLayerAdded());
+    diff.applyTo(song);
+
+    assertEquals(newer.snapshot().songInfo(), song.snapshot().songInfo());
+  }
+
+  @Test
+  public void testResizingAUnitIntoARemovedPatternInstance() {
+    Song song = new SongImpl();
+    Layer drums = new Layer("Drums", 50, LayerColor.Red, false);
+    song.addLayer(drums);
+    Drum drum = new Drum(6, 7, 40);
+    drums.addUnit(drum);
+    drums.addPatternInstance(new PatternInstance(BEAT, 8, 1));
+
+    Song newer = new SongImpl();
+    Layer newerDrums = new Layer("Drums", 50, LayerColor.Red, false);
+    newer.addLayer(newerDrums);
+    newerDrums.addUnit(new Drum(6, 9, 40));
+
+    // the diff moves the unit rather than replacing it, into beats it frees in the same batch
+    SongDiff.compare(song.snapshot(), newer.snapshot()).applyTo(song);
+
+    assertEquals(newer.snapshot().songInfo(), song.snapshot().songInfo());
+    assertEquals(1, drums.getUnitCount());
+    assertSame(drum, drums.getUnit(0));
+    assertEquals(9, drum.getEndBeat());
+    assertEquals(9, song.getFinalBeat());
+  }
+
+  @Test
+  public void testADiffIsUndoneAsOneStep() {
+    Song song = original();
+    String before = song.snapshot().songInfo();
+    Song newer = original();
+    newer.getLayer(0).setVolume(10);
+    newer.getLayer(0).removeUnit(newer.getLayer(0).getUnit(0));
+    newer.setTempo(90);
+
+    UndoHistory history = new UndoHistory(song, 1 << 20);
+    SongDiff.compare(song.snapshot(), newer.snapshot()).applyTo(song);
+    history.undo();
+
+    assertEquals(before, song.snapshot().songInfo());
+    assertFalse(history.canUndo());
+  }
+
+  @Test
+  public void testAConflictingDiffChangesNothing() {
+    Song song = original();
+    Song newer = original();
+    newer.getLayer(0).removeUnit(newer.getLayer(0).getUnit(0));
+    newer.getLayer(0).setVolume(10);
+    newer.setTempo(90);
+    SongDiff diff = SongDiff.compare(song.snapshot(), newer.snapshot());
+
+    // the unit the diff removes is no longer in the song
+    song.getLayer(0).removeUnit(song.getLayer(0).getUnit(0));
+    String before = song.snapshot().songInfo();
+
+    assertThrows(BatchConflictException.class, () -> diff.applyTo(song));
+    assertEquals(before, song.snapshot().songInfo());
+    assertEquals(50, song.getLayer(0).getVolume());
+    assertEquals(60, song.getTempo());
+  }
+}
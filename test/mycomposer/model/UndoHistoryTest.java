@@ -0,0 +1,151 @@
+package mycomposer.model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import mycomposer.model.unit.Drum;
+import mycomposer.model.unit.Note;
+import mycomposer.model.unit.Pitch;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests that {@link UndoHistory} undoes and redoes each step completely, or not at all.
+ */
+public class UndoHistoryTest {
+
+  private static final Pattern BEAT = new Pattern("Beat", 4).withUnit(new Drum(0, 0, 40));
+
+  /**
+   * Gets the contents of the given song as text, to compare versions of it.
+   *
+   * @param song the song to describe
+   * @return the contents of the song
+   */
+  private static String contents(Song song) {
+    return song.snapshot().songInfo();
+  }
+
+  @Test
+  public void testUndoAndRedoAStepOfManyChanges() {
+    Song song = new SongImpl();
+    Layer drums = new Layer("Drums", 50, LayerColor.Red, false);
+    Layer bass = new Layer("Bass", 60, LayerColor.Cyan, false);
+    song.addLayer(drums);
+    song.addLayer(bass);
+    Note note = new Note(0, 3, 1, Pitch.C, 4);
+    drums.addUnit(note);
+    String before = contents(song);
+
+    UndoHistory history = new UndoHistory(song, 1 << 20);
+    history.beginEdit();
+    drums.addUnit(new Drum(8, 9, 40));
+    drums.removeUnit(note);
+    bass.addUnit(new Note(20, 21, 1, Pitch.D, 3));
+    Layer keys = new Layer("Keys", 10, LayerColor.Violet, true);
+    song.addLayer(keys);
+    song.moveLayer(keys, 0);
+    bass.setName("Low");
+    bass.setVolume(5);
+    bass.toggleMute();
+    song.setTempo(200);
+    keys.addPatternInstance(new PatternInstance(BEAT, 30, 2));
+    song.removeLayer(drums);
+    history.endEdit();
+    String after = contents(song);
+
+    history.undo();
+    assertEquals(before, contents(song));
+    assertFalse(history.canUndo());
+
+    history.redo();
+    assertEquals(after, contents(song));
+    assertFalse(history.canRedo());
+  }
+
+  @Test
+  public void testUndoAndRedoAMoveIntoARemovedPatternInstance() {
+    Song song = new SongImpl();
+    Layer drums = new Layer("Drums", 50, LayerColor.Red, false);
+    song.addLayer(drums);
+    Drum drum = new Drum(0, 1, 40);
+    drums.addUnit(drum);
+    PatternInstance instance = new PatternInstance(BEAT, 8, 1);
+    drums.addPatternInstance(instance);
+
+    UndoHistory history = new UndoHistory(song, 1 << 20);
+    drums.removePatternInstance(instance);
+    drum.setStartEnd(8, 9, drums);
+    String after = contents(song);
+
+    history.undo();
+    history.undo();
+    assertEquals(0, drum.getStartBeat());
+    assertEquals(1, drums.getPatternInstances().size());
+
+    history.redo();
+    history.redo();
+    assertEquals(after, contents(song));
+    assertEquals(1, drums.getUnitCount());
+    assertSame(drum, drums.getUnit(0));
+    assertEquals(8, drum.getStartBeat());
+    assertEquals(9, song.getFinalBeat());
+  }
+
+  @Test
+  public void testUndoAndRedoOneStepMovingIntoARemovedPatternInstance() {
+    Song song = new SongImpl();
+    Layer drums = new Layer("Drums", 50, LayerColor.Red, false);
+    song.addLayer(drums);
+    Drum drum = new Drum(0, 1, 40);
+    drums.addUnit(drum);
+    PatternInstance instance = new PatternInstance(BEAT, 8, 1);
+    drums.addPatternInstance(instance);
+    String before = contents(song);
+
+    UndoHistory history = new UndoHistory(song, 1 << 20);
+    history.beginEdit();
+    drums.removePatternInstance(instance);
+    drum.setStartEnd(8, 9, drums);
+    history.endEdit();
+    String after = contents(song);
+
+    history.undo();
+    assertEquals(before, contents(song));
+
+    history.redo();
+    assertEquals(after, contents(song));
+    assertSame(drum, drums.getUnit(0));
+  }
+
+  @Test
+  public void testUndoOfAStepTheSongNoLongerMatchesChangesNothing() {
+    Song song = new SongImpl();
+    Layer drums = new Layer("Drums", 50, LayerColor.Red, false);
+    song.addLayer(drums);
+    Drum drum = new Drum(0, 1, 40);
+
+    UndoHistory history = new UndoHistory(song, 1 << 20);
+    history.beginEdit();
+    drums.addUnit(drum);
+    drums.setVolume(80);
+    song.setTempo(120);
+    history.endEdit();
+    song.removeLayer(drums);
+
+    // the history does not see changes to a layer while it is out of the song
+    drums.removeUnit(drum);
+    history.undo();
+    String before = contents(song);
+
+    IllegalStateException failure = assertThrows(IllegalStateException.class, history::undo);
+    assertTrue(failure.getCause() instanceof BatchConflictException);
+    assertEquals(before, contents(song));
+    assertEquals(80, drums.getVolume());
+    assertEquals(120, song.getTempo());
+    assertTrue(history.canUndo());
+    assertTrue(history.canRedo());
+  }
+}
@@ -0,0 +1,103 @@
+package mycomposer.model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import mycomposer.model.unit.Drum;
+import mycomposer.model.unit.Unit;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests that units are told apart by their IDs (see {@link Unit#getId()}), and that layers and
+ * songs keep finding units by ID as they are edited and moved between layers.
+ */
+public class UnitIdTest {
+
+  @Test
+  public void testUnitsWithTheSameFieldsAreToldApart() {
+    Layer first = new Layer("Drums", 50, LayerColor.Red, false);
+    Layer second = new Layer("More drums", 50, LayerColor.Red, false);
+    Drum drum = new Drum(0, 1, 40);
+    Drum twin = new Drum(0, 1, 40);
+    first.addUnit(drum);
+    second.addUnit(twin);
+
+    assertTrue(drum.getId() != twin.getId());
+
+    // the twin is not in the first layer, however alike the two are
+    first.removeUnit(twin);
+    assertEquals(1, first.getUnitCount());
+    assertFalse(first.containsUnit(twin.getId()));
+
+    first.removeUnit(drum);
+    assertEquals(0, first.getUnitCount());
+    assertSame(twin, second.getUnitById(twin.getId()));
+    assertThrows(IllegalArgumentException.class, () -> second.addUnit(twin));
+  }
+
+  @Test
+  public void testIdsLastThroughEditsAndPacking() {
+    Layer layer = new Layer("Drums", 50, LayerColor.Red, false);
+    Drum drum = new Drum(4, 5, 40);
+    layer.addUnit(new Drum(0, 1, 41));
+    layer.addUnit(drum);
+
+    drum.setStartEnd(10, 12, layer);
+    drum.setInstrument(42);
+    assertSame(drum, layer.getUnitById(drum.getId()));
+    assertEquals(null, layer.getUnitById(-1));
+
+    Layer packed = new Layer("Packed drums", 50, LayerColor.Red, false, true);
+    Drum packedDrum = new Drum(3, 3, 40);
+    packed.addUnit(packedDrum);
+
+    // a packed layer hands out copies, which still have the ID of the unit they copy
+    Unit copy = packed.getUnitById(packedDrum.getId());
+    assertNotSame(packedDrum, copy);
+    assertEquals(packedDrum.getId(), copy.getId());
+    assertEquals(3, copy.getStartBeat());
+
+    packed.removeUnit(copy);
+    assertEquals(0, packed.getUnitCount());
+  }
+
+  @Test
+  public void testTheSongFollowsUnitsBetweenLayers() {
+    Song song = new SongImpl();
+    Layer drums = new Layer("Drums", 50, LayerColor.Red, false);
+    Layer bass = new Layer("Bass", 50, LayerColor.Cyan, false);
+    song.addLayer(drums);
+    song.addLayer(bass);
+    UndoHistory history = new UndoHistory(song, 1 << 20);
+
+    Drum drum = new Drum(0, 1, 40);
+    drums.addUnit(drum);
+    assertSame(drums, song.getLayerOfUnit(drum.getId()));
+    assertSame(drum, song.getUnitById(drum.getId()));
+
+    history.beginEdit();
+    SongBatch batch = new SongBatch();
+    batch.forLayer(drums).removeUnit(drum);
+    batch.forLayer(bass).addUnit(drum);
+    song.applyBatch(batch);
+    history.endEdit();
+    assertSame(bass, song.getLayerOfUnit(drum.getId()));
+
+    history.undo();
+    assertSame(drums, song.getLayerOfUnit(drum.getId()));
+
+    history.redo();
+    assertSame(bass, song.getLayerOfUnit(drum.getId()));
+
+    song.removeLayer(bass);
+    assertEquals(null, song.getLayerOfUnit(drum.getId()));
+    assertEquals(null, song.getUnitById(drum.getId()));
+
+    song.addLayer(bass);
+    assertSame(bass, song.getLayerOfUnit(drum.getId()));
+  }
+}